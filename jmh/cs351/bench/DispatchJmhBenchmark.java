@@ -0,0 +1,93 @@
+package cs351.bench;
+
+import cs351.job.Job;
+import cs351.job.JobScheduler;
+import cs351.job.JobSystem;
+import cs351.job.WorkStealingJobSystem;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH version of DispatchBenchmark: measures how long one round of empty jobs
+ * takes from the first submit until the last job has run.
+ *
+ * @author Justin Hall
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchJmhBenchmark
+{
+  @Param({"1", "4"})
+  public int threads;
+
+  @Param({"64"})
+  public int jobsPerRound;
+
+  @Param({"1000"})
+  public int spinIterations;
+
+  @Param({"false", "true"})
+  public boolean workStealing;
+
+  private JobScheduler jobSystem;
+  private Job[] jobs;
+
+  /**
+   * Job that does nothing.
+   */
+  private static class EmptyJob extends Job
+  {
+    @Override
+    public void run(int threadID)
+    {
+    }
+  }
+
+  /**
+   * Starts the job system and creates the round's jobs.
+   */
+  @Setup(Level.Trial)
+  public void setup()
+  {
+    jobSystem = workStealing ? new WorkStealingJobSystem(threads) : new JobSystem(threads, spinIterations);
+    jobSystem.start();
+    jobs = new Job[jobsPerRound];
+    for (int i = 0; i < jobsPerRound; i++) jobs[i] = new EmptyJob();
+  }
+
+  /**
+   * Stops the job system.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    jobSystem.stop(false);
+  }
+
+  /**
+   * Submits and dispatches every job once and waits for all of them to run.
+   *
+   * @throws InterruptedException if interrupted while waiting on the jobs
+   */
+  @Benchmark
+  public void round() throws InterruptedException
+  {
+    jobSystem.runAndWait(jobs);
+  }
+}
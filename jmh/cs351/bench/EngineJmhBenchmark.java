@@ -0,0 +1,99 @@
+package cs351.bench;
+
+import cs351.lab4.SimulationEngine;
+import cs351.presets.PresetLibrary;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH version of EngineBenchmark: measures generations per second for a preset,
+ * board size and thread count. The engine is set up the same way EngineBenchmark
+ * sets it up, and each benchmark invocation steps it by a single generation.
+ *
+ * @author Justin Hall
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules=jdk.incubator.vector"})
+public class EngineJmhBenchmark
+{
+  @Param({"Random"})
+  public String preset;
+
+  @Param({"2048"})
+  public int size;
+
+  @Param({"1", "4"})
+  public int threads;
+
+  @Param({"false", "true"})
+  public boolean bitPacked;
+
+  @Param({"false"})
+  public boolean workStealing;
+
+  @Param({"false"})
+  public boolean barrierWorkers;
+
+  private SimulationEngine engine;
+
+  /**
+   * Creates the engine and sets up its board with the preset.
+   *
+   * @throws InterruptedException if interrupted while starting the engine
+   */
+  @Setup(Level.Trial)
+  public void setup() throws InterruptedException
+  {
+    engine = new SimulationEngine(size, size, bitPacked, true, SimulationEngine.DEFAULT_TILE_SIZE);
+    engine.setWorkStealing(workStealing);
+    engine.setBarrierWorkers(barrierWorkers);
+    engine.init(threads);
+    engine.lock();
+    try
+    {
+      PresetLibrary.create(preset, 1L, 0.5).setInitialEngineState(engine);
+    }
+    finally
+    {
+      engine.unlock();
+    }
+  }
+
+  /**
+   * Shuts down the engine's threads.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    engine.shutdown();
+  }
+
+  /**
+   * Computes one generation.
+   *
+   * @return the generation that was published (so the work is not dead code)
+   * @throws InterruptedException if interrupted while waiting on the engine
+   */
+  @Benchmark
+  public long step() throws InterruptedException
+  {
+    engine.step(1);
+    return engine.getSnapshot().getGeneration();
+  }
+}
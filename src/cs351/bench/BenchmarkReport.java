@@ -0,0 +1,100 @@
+package cs351.bench;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the results of a benchmark run and writes them out as JSON so that
+ * runs can be compared over time. Each result is a flat set of named values
+ * (strings or numbers).
+ *
+ * @author Justin Hall
+ */
+public class BenchmarkReport
+{
+  private final List<Map<String, Object>> RESULTS = new ArrayList<>();
+
+  /**
+   * Starts a new result with the given benchmark name. Values are added to the
+   * returned map in the order they should appear in the output.
+   *
+   * @param benchmark name of the benchmark
+   * @return map to add the result's values to
+   */
+  public Map<String, Object> addResult(String benchmark)
+  {
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("benchmark", benchmark);
+    RESULTS.add(result);
+    return result;
+  }
+
+  /**
+   * Writes every result plus some information about the machine to the given file.
+   *
+   * @param file path of the file to write
+   * @throws IOException if the file could not be written
+   */
+  public void writeJson(String file) throws IOException
+  {
+    try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)))
+    {
+      out.println("{");
+      out.println("  \"timestamp\": " + quote(Instant.now().toString()) + ",");
+      out.println("  \"javaVersion\": " + quote(System.getProperty("java.version")) + ",");
+      out.println("  \"availableProcessors\": " + Runtime.getRuntime().availableProcessors() + ",");
+      out.println("  \"results\": [");
+      for (int i = 0; i < RESULTS.size(); i++)
+      {
+        out.print("    {");
+        boolean first = true;
+        for (Map.Entry<String, Object> entry : RESULTS.get(i).entrySet())
+        {
+          if (!first) out.print(", ");
+          first = false;
+          out.print(quote(entry.getKey()) + ": " + toJson(entry.getValue()));
+        }
+        out.println(i + 1 < RESULTS.size() ? "}," : "}");
+      }
+      out.println("  ]");
+      out.println("}");
+    }
+  }
+
+  /**
+   * Converts a single value to its JSON representation.
+   */
+  private String toJson(Object value)
+  {
+    if (value instanceof Double || value instanceof Float)
+    {
+      double d = ((Number)value).doubleValue();
+      return Double.isFinite(d) ? String.format("%.3f", d) : "null";
+    }
+    else if (value instanceof Number || value instanceof Boolean) return value.toString();
+    return quote(String.valueOf(value));
+  }
+
+  /**
+   * Quotes and escapes a string for JSON.
+   */
+  private String quote(String value)
+  {
+    StringBuilder builder = new StringBuilder("\"");
+    for (char c : value.toCharArray())
+    {
+      if (c == '"' || c == '\\') builder.append('\\').append(c);
+      else if (c < 0x20) builder.append(String.format("\\u%04x", (int)c));
+      else builder.append(c);
+    }
+    return builder.append('"').toString();
+  }
+}
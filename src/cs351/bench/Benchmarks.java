@@ -0,0 +1,143 @@
+package cs351.bench;
+
+import cs351.lab4.SimulationEngine;
+import cs351.presets.PresetLibrary;
+import cs351.presets.RandomGrid;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command line entry point for the benchmarks. It does not touch JavaFX so it can
+ * be run on machines without a display. Options (all optional):
+ *
+ *   --sizes 1000,2500,5000,10000     board sizes to run
+ *   --threads 1,2,4                  thread counts (default: powers of 2 up to all cores)
+ *   --presets Random,Full,GliderGun,DancingBorder
+ *   --seed 1 --density 0.5           seed and density for the Random preset (fixed so runs are comparable)
+ *   --warmup 5 --generations 20 --iterations 3
+ *   --bitpacked                      benchmark the bit-packed board
+ *   --spin 0                         polls an idle worker makes before parking
+ *   --work-stealing                  use the work-stealing job system
+ *   --barrier                        step the engine on persistent barrier threads
+ *   --tile-sizes 64                  tile sizes to sweep for the byte board (e.g. 16,32,64,128,256)
+ *   --tile-orders rows               tile orders to sweep: rows, columns (full-height strips) and morton
+ *   --jobs-per-thread 1              slices of the active tiles per thread to sweep (e.g. 1,4,16)
+ *   --scalar                         don't use the Vector API kernel even if it is available
+ *   --dispatch-only / --engine-only  run only one of the two suites
+ *   --out results.json               where to write the JSON results
+ *
+ * @author Justin Hall
+ */
+public class Benchmarks
+{
+  /**
+   * Entry.
+   *
+   * @param args command line arguments (see the class comment)
+   */
+  public static void main(String[] args) throws IOException, InterruptedException
+  {
+    int[] sizes = { 1000, 2500, 5000, 10_000 };
+    int[] threads = defaultThreadCounts();
+    String[] presets = { "Random", "Full", "GliderGun", "DancingBorder" };
+    int[] tileSizes = { SimulationEngine.DEFAULT_TILE_SIZE };
+    String[] tileOrders = { "rows" };
+    int[] jobsPerThread = { 1 };
+    int warmup = 5, generations = 20, iterations = 3;
+    int spinIterations = 0;
+    long seed = 1;
+    double density = RandomGrid.DEFAULT_DENSITY;
+    boolean bitPacked = false, workStealing = false, barrier = false, runEngine = true, runDispatch = true;
+    boolean vectorKernel = true;
+    String out = "benchmark-results.json";
+    for (int i = 0; i < args.length; i++)
+    {
+      switch (args[i])
+      {
+        case "--sizes": sizes = parseInts(args[++i]); break;
+        case "--threads": threads = parseInts(args[++i]); break;
+        case "--presets": presets = args[++i].split(","); break;
+        case "--seed": seed = Long.parseLong(args[++i]); break;
+        case "--density": density = Double.parseDouble(args[++i]); break;
+        case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+        case "--generations": generations = Integer.parseInt(args[++i]); break;
+        case "--iterations": iterations = Integer.parseInt(args[++i]); break;
+        case "--bitpacked": bitPacked = true; break;
+        case "--spin": spinIterations = Integer.parseInt(args[++i]); break;
+        case "--work-stealing": workStealing = true; break;
+        case "--barrier": barrier = true; break;
+        case "--scalar": vectorKernel = false; break;
+        case "--tile-sizes": tileSizes = parseInts(args[++i]); break;
+        case "--tile-orders": tileOrders = args[++i].split(","); break;
+        case "--jobs-per-thread": jobsPerThread = parseInts(args[++i]); break;
+        case "--dispatch-only": runEngine = false; break;
+        case "--engine-only": runDispatch = false; break;
+        case "--out": out = args[++i]; break;
+        default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+      }
+    }
+
+    BenchmarkReport report = new BenchmarkReport();
+    if (runEngine)
+    {
+      EngineBenchmark engineBenchmark = new EngineBenchmark(warmup, generations, iterations, bitPacked,
+                                                            spinIterations, workStealing, barrier, vectorKernel);
+      for (String preset : presets)
+      {
+        for (int size : sizes)
+        {
+          for (int numThreads : threads)
+          {
+            for (int tileSize : tileSizes)
+            {
+              for (String tileOrder : tileOrders)
+              {
+                for (int jobs : jobsPerThread)
+                {
+                  engineBenchmark.run(report, preset, PresetLibrary.create(preset, seed, density), size, numThreads,
+                                      tileSize, tileOrder, jobs);
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+    if (runDispatch)
+    {
+      final int WARMUP_ROUNDS = 2_000, MEASURED_ROUNDS = 10_000;
+      DispatchBenchmark dispatchBenchmark = new DispatchBenchmark(WARMUP_ROUNDS, MEASURED_ROUNDS, spinIterations, workStealing);
+      for (int numThreads : threads)
+      {
+        dispatchBenchmark.run(report, numThreads, numThreads);
+        dispatchBenchmark.run(report, numThreads, numThreads * 16);
+      }
+    }
+    report.writeJson(out);
+    System.out.println("Results written to " + out);
+  }
+
+  /**
+   * Returns 1, 2, 4, ... up to (and including) the number of available cores.
+   */
+  private static int[] defaultThreadCounts()
+  {
+    int cores = Runtime.getRuntime().availableProcessors();
+    List<Integer> counts = new ArrayList<>();
+    for (int i = 1; i < cores; i *= 2) counts.add(i);
+    counts.add(cores);
+    return counts.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /**
+   * Parses a comma-separated list of integers.
+   */
+  private static int[] parseInts(String list)
+  {
+    String[] parts = list.split(",");
+    int[] values = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) values[i] = Integer.parseInt(parts[i].trim());
+    return values;
+  }
+}
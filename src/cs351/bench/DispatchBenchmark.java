@@ -0,0 +1,118 @@
+package cs351.bench;
+
+import cs351.job.Job;
+import cs351.job.JobScheduler;
+import cs351.job.JobSystem;
+import cs351.job.WorkStealingJobSystem;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the overhead of the job system itself: how long it takes from the first
+ * submitJob call of a round until every (empty) job in the round has run. This is
+ * the fixed cost the SimulationEngine pays at every generation boundary.
+ *
+ * @author Justin Hall
+ */
+public class DispatchBenchmark
+{
+  private final int WARMUP_ROUNDS;
+  private final int MEASURED_ROUNDS;
+  private final int SPIN_ITERATIONS;
+  private final boolean WORK_STEALING;
+
+  /**
+   * Job that does no work other than counting down the round's latch.
+   */
+  private static class EmptyJob extends Job
+  {
+    private volatile CountDownLatch latch;
+
+    @Override
+    public void run(int threadID)
+    {
+      latch.countDown();
+    }
+  }
+
+  /**
+   * Creates the benchmark with its run settings.
+   *
+   * @param warmupRounds rounds to run before recording
+   * @param measuredRounds rounds recorded per configuration
+   * @param spinIterations polls an idle job system thread makes before parking
+   * @param workStealing true to measure the work-stealing job system
+   */
+  public DispatchBenchmark(int warmupRounds, int measuredRounds, int spinIterations, boolean workStealing)
+  {
+    WARMUP_ROUNDS = warmupRounds;
+    MEASURED_ROUNDS = measuredRounds;
+    SPIN_ITERATIONS = spinIterations;
+    WORK_STEALING = workStealing;
+  }
+
+  /**
+   * Runs a single configuration and adds its result to the report.
+   *
+   * @param report report to add the result to
+   * @param numThreads number of job system threads
+   * @param jobsPerRound number of jobs submitted per round
+   * @throws InterruptedException if interrupted while waiting on the jobs
+   */
+  public void run(BenchmarkReport report, int numThreads, int jobsPerRound) throws InterruptedException
+  {
+    JobScheduler jobSystem = WORK_STEALING ? new WorkStealingJobSystem(numThreads) : new JobSystem(numThreads, SPIN_ITERATIONS);
+    jobSystem.start();
+    try
+    {
+      EmptyJob[] jobs = new EmptyJob[jobsPerRound];
+      for (int i = 0; i < jobsPerRound; i++) jobs[i] = new EmptyJob();
+      for (int i = 0; i < WARMUP_ROUNDS; i++) runRound(jobSystem, jobs);
+      long[] latencies = new long[MEASURED_ROUNDS];
+      for (int i = 0; i < MEASURED_ROUNDS; i++) latencies[i] = runRound(jobSystem, jobs);
+      Arrays.sort(latencies);
+      Map<String, Object> result = report.addResult("dispatch");
+      result.put("threads", numThreads);
+      result.put("jobsPerRound", jobsPerRound);
+      result.put("spinIterations", SPIN_ITERATIONS);
+      result.put("workStealing", WORK_STEALING);
+      result.put("rounds", MEASURED_ROUNDS);
+      result.put("p50Micros", percentile(latencies, 0.50) / 1e3);
+      result.put("p90Micros", percentile(latencies, 0.90) / 1e3);
+      result.put("p99Micros", percentile(latencies, 0.99) / 1e3);
+      result.put("maxMicros", latencies[latencies.length - 1] / 1e3);
+      System.out.printf("dispatch %3d threads %5d jobs  p50 %10.1f us  p99 %10.1f us%n",
+                        numThreads, jobsPerRound, percentile(latencies, 0.50) / 1e3, percentile(latencies, 0.99) / 1e3);
+    }
+    finally
+    {
+      jobSystem.stop(false);
+    }
+  }
+
+  /**
+   * Submits and dispatches every job once and waits for all of them to run.
+   *
+   * @return nanoseconds from the first submit until the last job ran
+   */
+  private long runRound(JobScheduler jobSystem, EmptyJob[] jobs) throws InterruptedException
+  {
+    CountDownLatch latch = new CountDownLatch(jobs.length);
+    for (EmptyJob job : jobs) job.latch = latch;
+    long start = System.nanoTime();
+    for (EmptyJob job : jobs) jobSystem.submitJob(job);
+    jobSystem.dispatchJobs();
+    latch.await();
+    return System.nanoTime() - start;
+  }
+
+  /**
+   * Returns the value at the given percentile of a sorted array.
+   */
+  private double percentile(long[] sorted, double p)
+  {
+    int index = (int)Math.ceil(p * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+  }
+}
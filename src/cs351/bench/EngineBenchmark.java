@@ -0,0 +1,142 @@
+package cs351.bench;
+
+import cs351.lab4.SimulationEngine;
+import cs351.presets.Preset;
+import java.util.Map;
+
+/**
+ * Measures how fast the SimulationEngine can compute generations for a given
+ * preset, board size and thread count. Each measurement runs a number of warmup
+ * generations first so that the JIT has compiled the update jobs before timing
+ * starts.
+ *
+ * @author Justin Hall
+ */
+public class EngineBenchmark
+{
+  private final int WARMUP_GENERATIONS;
+  private final int MEASURED_GENERATIONS;
+  private final int ITERATIONS;
+  private final boolean BIT_PACKED;
+  private final int SPIN_ITERATIONS;
+  private final boolean WORK_STEALING;
+  private final boolean BARRIER_WORKERS;
+  private final boolean VECTOR_KERNEL;
+
+  /**
+   * Creates the benchmark with its run settings.
+   *
+   * @param warmupGenerations generations to run before timing each configuration
+   * @param measuredGenerations generations timed per iteration
+   * @param iterations number of timed iterations per configuration
+   * @param bitPacked true to benchmark the bit-packed board instead of the byte board
+   * @param spinIterations polls an idle job system thread makes before parking
+   * @param workStealing true to run the engine on the work-stealing job system
+   * @param barrierWorkers true to step the engine on persistent barrier threads
+   * @param vectorKernel true to let byte boards use the Vector API kernel if it is available
+   */
+  public EngineBenchmark(int warmupGenerations, int measuredGenerations, int iterations, boolean bitPacked,
+                         int spinIterations, boolean workStealing, boolean barrierWorkers, boolean vectorKernel)
+  {
+    WARMUP_GENERATIONS = warmupGenerations;
+    MEASURED_GENERATIONS = measuredGenerations;
+    ITERATIONS = iterations;
+    BIT_PACKED = bitPacked;
+    SPIN_ITERATIONS = spinIterations;
+    WORK_STEALING = workStealing;
+    BARRIER_WORKERS = barrierWorkers;
+    VECTOR_KERNEL = vectorKernel;
+  }
+
+  /**
+   * Runs a single configuration and adds its result to the report.
+   *
+   * @param report report to add the result to
+   * @param presetName name of the preset (for the report)
+   * @param preset preset used to set up the board
+   * @param size width and height of the board
+   * @param numThreads number of engine threads
+   * @throws InterruptedException if interrupted while waiting on the engine
+   */
+  public void run(BenchmarkReport report, String presetName, Preset preset, int size, int numThreads) throws InterruptedException
+  {
+    run(report, presetName, preset, size, numThreads, SimulationEngine.DEFAULT_TILE_SIZE, "rows", 1);
+  }
+
+  /**
+   * Runs a single configuration with the given tile layout (which only affects
+   * byte-per-cell boards) and adds its result to the report.
+   *
+   * @param report report to add the result to
+   * @param presetName name of the preset (for the report)
+   * @param preset preset used to set up the board
+   * @param size width and height of the board
+   * @param numThreads number of engine threads
+   * @param tileSize width/height of the engine's tiles
+   * @param tileOrder name of the tile order (see SimulationEngine.parseTileOrder)
+   * @param jobsPerThread slices of the active tiles each thread gets
+   * @throws InterruptedException if interrupted while waiting on the engine
+   */
+  public void run(BenchmarkReport report, String presetName, Preset preset, int size, int numThreads,
+                  int tileSize, String tileOrder, int jobsPerThread) throws InterruptedException
+  {
+    SimulationEngine engine = new SimulationEngine(size, size, BIT_PACKED, true, tileSize);
+    engine.setTileOrder(SimulationEngine.parseTileOrder(tileOrder));
+    engine.setJobsPerThread(jobsPerThread);
+    engine.setVectorKernel(VECTOR_KERNEL);
+    engine.setSpinIterations(SPIN_ITERATIONS);
+    engine.setWorkStealing(WORK_STEALING);
+    engine.setBarrierWorkers(BARRIER_WORKERS);
+    engine.init(numThreads);
+    try
+    {
+      long setupStart = System.nanoTime();
+      engine.lock();
+      try
+      {
+        preset.setInitialEngineState(engine);
+      }
+      finally
+      {
+        engine.unlock();
+      }
+      long setupNanos = System.nanoTime() - setupStart;
+      engine.step(WARMUP_GENERATIONS);
+      double best = 0, total = 0;
+      for (int i = 0; i < ITERATIONS; i++)
+      {
+        long start = System.nanoTime();
+        engine.step(MEASURED_GENERATIONS);
+        double gensPerSecond = MEASURED_GENERATIONS / ((System.nanoTime() - start) / 1e9);
+        best = Math.max(best, gensPerSecond);
+        total += gensPerSecond;
+      }
+      double mean = total / ITERATIONS;
+      double cells = (double)size * size;
+      Map<String, Object> result = report.addResult("engine");
+      result.put("preset", presetName);
+      result.put("size", size);
+      result.put("threads", numThreads);
+      result.put("bitPacked", BIT_PACKED);
+      result.put("spinIterations", SPIN_ITERATIONS);
+      result.put("workStealing", WORK_STEALING);
+      result.put("barrierWorkers", BARRIER_WORKERS);
+      result.put("kernel", BIT_PACKED ? "bitwise" : engine.getRowKernelName());
+      result.put("tileSize", tileSize);
+      result.put("tileOrder", tileOrder);
+      result.put("jobsPerThread", jobsPerThread);
+      result.put("generations", MEASURED_GENERATIONS);
+      result.put("iterations", ITERATIONS);
+      result.put("setupMillis", setupNanos / 1e6);
+      result.put("gensPerSecondMean", mean);
+      result.put("gensPerSecondBest", best);
+      result.put("cellsPerSecondMean", mean * cells);
+      System.out.printf("%-16s %6d x %-6d %3d threads  %4d %-7s x%-2d  %10.2f gens/s  %14.0f cells/s%n",
+                        presetName, size, size, numThreads, tileSize, tileOrder, jobsPerThread, mean, mean * cells);
+    }
+    finally
+    {
+      engine.shutdown();
+    }
+  }
+}
@@ -28,6 +28,19 @@ public abstract class Job
    */
   public abstract void run(int threadID);
 
+  /**
+   * Called by work-stealing job systems when other threads are running out of
+   * work. A job that supports this hands part of its remaining work to a new
+   * job (which is then run on another thread) and keeps the rest for itself.
+   * This is never called once run has started.
+   *
+   * @return new job with part of this job's work or null if it can't be split
+   */
+  public Job split()
+  {
+    return null;
+  }
+
   /**
    * Gets the priority for this job (lower being higher priority).
    *
@@ -0,0 +1,76 @@
+package cs351.job;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Common interface for the job systems. Jobs are submitted to a back buffer with
+ * submitJob and only become visible to the worker threads once dispatchJobs is
+ * called.
+ *
+ * @author Justin Hall
+ */
+public interface JobScheduler
+{
+  /**
+   * Starts the worker threads. After calling this the job system is ready to
+   * accept jobs.
+   *
+   * @throws RuntimeException if the job system was already started
+   */
+  void start();
+
+  /**
+   * Terminates the worker threads.
+   *
+   * @param completeExistingJobs if this is true the threads keep working until all
+   *                             dispatched jobs are completed - if false they quit
+   *                             as soon as possible
+   * @throws RuntimeException if the job system was not started
+   */
+  void stop(boolean completeExistingJobs);
+
+  /**
+   * Adds a job to the back buffer. The worker threads can't see it until the next
+   * call to dispatchJobs.
+   *
+   * @param job job to be run
+   */
+  void submitJob(Job job);
+
+  /**
+   * Makes every job submitted since the last call visible to the worker threads.
+   */
+  void dispatchJobs();
+
+  /**
+   * Submits and dispatches the given jobs and then blocks until every one of them
+   * has finished running.
+   *
+   * @param jobs jobs to run
+   * @throws InterruptedException if the calling thread is interrupted while waiting
+   */
+  default void runAndWait(Job[] jobs) throws InterruptedException
+  {
+    final CountDownLatch LATCH = new CountDownLatch(jobs.length);
+    for (Job job : jobs)
+    {
+      submitJob(new Job()
+      {
+        @Override
+        public void run(int threadID)
+        {
+          try
+          {
+            job.run(threadID);
+          }
+          finally
+          {
+            LATCH.countDown();
+          }
+        }
+      });
+    }
+    dispatchJobs();
+    LATCH.await();
+  }
+}
@@ -1,5 +1,7 @@
 package cs351.job;
 
+import cs351.metrics.LatencyHistogram;
+import cs351.metrics.Metrics;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -16,7 +18,7 @@ import java.util.concurrent.locks.ReentrantLock;
  *
  * @author Justin Hall
  */
-public class JobSystem
+public class JobSystem implements JobScheduler
 {
   private final ReentrantLock LOCK;
   private final int NUM_WORKER_THREADS;
@@ -28,6 +30,10 @@ public class JobSystem
   // used for better load balancing - prevents one thread from receiving a massive number of
   // jobs at one time that could have been better distributed over the active threads
   private final int MAX_JOBS_PER_GROUP = 100;
+  // number of times an idle worker polls for jobs before it parks
+  private final int SPIN_ITERATIONS;
+  // number of job groups waiting for a thread right after each dispatch
+  private static final LatencyHistogram QUEUE_DEPTH = Metrics.histogram("jobSystem.queueDepth");
   private boolean isStarted = false;
 
   /**
@@ -38,6 +44,20 @@ public class JobSystem
    * @param numWorkerThreads number of worker threads from 1 to 256
    */
   public JobSystem(int numWorkerThreads)
+  {
+    this(numWorkerThreads, 0);
+  }
+
+  /**
+   * Same as JobSystem(numWorkerThreads) but idle workers will poll for new jobs
+   * spinIterations times before parking. Spinning trades CPU time for lower
+   * latency when jobs are expected to show up within a few microseconds (such
+   * as at a generation boundary); 0 parks right away.
+   *
+   * @param numWorkerThreads number of worker threads from 1 to 256
+   * @param spinIterations number of polls before an idle worker parks
+   */
+  public JobSystem(int numWorkerThreads, int spinIterations)
   {
     final int MIN_THREADS = 1;
     final int MAX_THREADS = 256;
@@ -48,12 +68,14 @@ public class JobSystem
     WORKER_THREADS = new WorkerThread[numWorkerThreads];
     JOB_BUFFER = new HashMap<>();
     JOBS = new PriorityBlockingQueue<>(10, (o1, o2) -> o2.getPriority() - o1.getPriority() );
+    SPIN_ITERATIONS = Math.max(spinIterations, 0);
   }
 
   /**
    * Creates a number of threads equal to NUM_WORKER_THREADS. After calling this function
    * the job system is ready to accept jobs.
    */
+  @Override
   public void start()
   {
     LOCK.lock();
@@ -66,6 +88,7 @@ public class JobSystem
         WORKER_THREADS[i] = new WorkerThread(i + 1, this);
         WORKER_THREADS[i].start();
       }
+      if (Metrics.ENABLED) Metrics.gauge("jobSystem.queuedGroups", JOBS::size);
       System.out.println("Job system started with " + NUM_WORKER_THREADS + " threads");
     }
     finally
@@ -81,6 +104,7 @@ public class JobSystem
    *                             all jobs in the job system's queue are completed -
    *                             if false they all quit as soon as possible
    */
+  @Override
   public void stop(boolean completeExistingJobs)
   {
     LOCK.lock();
@@ -107,6 +131,7 @@ public class JobSystem
    *
    * @param job job to be added to the back buffer
    */
+  @Override
   public void submitJob(Job job)
   {
     final int PRIORITY = job.getPriority();
@@ -147,12 +172,32 @@ public class JobSystem
     return GROUP != null ? GROUP.getJobs() : null;
   }
 
+  /**
+   * Gets the top collection of jobs from the front buffer, waiting for one to be
+   * dispatched if there are none. The calling thread spins for the configured
+   * number of iterations and then parks until dispatchJobs wakes it up.
+   *
+   * @return collection of jobs from the front buffer
+   * @throws InterruptedException if the thread is interrupted while parked
+   */
+  public Collection<Job> awaitJobs() throws InterruptedException
+  {
+    for (int i = 0; i < SPIN_ITERATIONS; i++)
+    {
+      final JobGroup GROUP = JOBS.poll();
+      if (GROUP != null) return GROUP.getJobs();
+      Thread.onSpinWait();
+    }
+    return JOBS.take().getJobs();
+  }
+
   /**
    * This takes all jobs from the back buffer (that have jobs) and
    * adds them to the front buffer so that the threads can see them. At
    * the end of the loop it re-adds any buffers it took off of the back buffer
    * which had 0 jobs.
    */
+  @Override
   public void dispatchJobs()
   {
     LOCK.lock();
@@ -172,6 +217,7 @@ public class JobSystem
         outer.getValue().addAll(buffersToReAdd);
         buffersToReAdd.clear();
       }
+      if (Metrics.ENABLED) QUEUE_DEPTH.record(JOBS.size());
     }
     finally
     {
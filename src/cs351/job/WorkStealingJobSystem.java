@@ -0,0 +1,204 @@
+package cs351.job;
+
+import cs351.metrics.LatencyHistogram;
+import cs351.metrics.Metrics;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Alternative to JobSystem that runs jobs on a ForkJoinPool. Each worker has its
+ * own deque and idle workers steal from the others instead of everything going
+ * through one shared queue. Jobs that support Job.split() are split in half
+ * whenever the worker running them sees that the other workers are running low
+ * on queued work, so one expensive job can't hold up the rest.
+ *
+ * Priorities are kept by dispatching the buffered jobs in the same order that
+ * JobSystem hands them to its threads.
+ *
+ * @author Justin Hall
+ */
+public class WorkStealingJobSystem implements JobScheduler
+{
+  private final ReentrantLock LOCK;
+  private final int NUM_WORKER_THREADS;
+  // jobs that were submitted but not dispatched yet, highest priority value first
+  private final TreeMap<Integer, List<Job>> JOB_BUFFER;
+  // a job is split as long as its worker has at most this many surplus tasks queued
+  private final int SPLIT_THRESHOLD = 2;
+  private static final LatencyHistogram JOB_RUN_TIMES = Metrics.histogram("job.runNanos");
+  // time each pool thread spent running jobs (idle time shows up as the pool's steal count instead)
+  private final LongAdder[] BUSY_NANOS;
+  private ForkJoinPool pool;
+  private boolean isStarted = false;
+
+  /**
+   * Wraps a job so that it can be forked, splitting it first if the
+   * pool is hungry for work.
+   */
+  private class JobTask extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final Job JOB;
+
+    JobTask(Job job)
+    {
+      JOB = job;
+    }
+
+    @Override
+    protected void compute()
+    {
+      while (getSurplusQueuedTaskCount() <= SPLIT_THRESHOLD)
+      {
+        Job other = JOB.split();
+        if (other == null) break;
+        new JobTask(other).fork();
+      }
+      int poolIndex = ((ForkJoinWorkerThread)Thread.currentThread()).getPoolIndex();
+      if (!Metrics.ENABLED)
+      {
+        JOB.run(poolIndex + 1);
+        return;
+      }
+      long start = System.nanoTime();
+      try
+      {
+        JOB.run(poolIndex + 1);
+      }
+      finally
+      {
+        long runTime = System.nanoTime() - start;
+        JOB_RUN_TIMES.record(runTime);
+        BUSY_NANOS[poolIndex % NUM_WORKER_THREADS].add(runTime);
+      }
+    }
+  }
+
+  /**
+   * The number of worker threads becomes constant internally and cannot be changed.
+   * The pool itself is not created until start() is called.
+   *
+   * @param numWorkerThreads number of worker threads from 1 to 256
+   */
+  public WorkStealingJobSystem(int numWorkerThreads)
+  {
+    final int MIN_THREADS = 1;
+    final int MAX_THREADS = 256;
+    if (numWorkerThreads < MIN_THREADS) numWorkerThreads = MIN_THREADS;
+    else if (numWorkerThreads > MAX_THREADS) numWorkerThreads = MAX_THREADS;
+    LOCK = new ReentrantLock();
+    NUM_WORKER_THREADS = numWorkerThreads;
+    JOB_BUFFER = new TreeMap<>((o1, o2) -> o2 - o1);
+    BUSY_NANOS = new LongAdder[numWorkerThreads];
+    for (int i = 0; i < numWorkerThreads; i++) BUSY_NANOS[i] = Metrics.counter("workStealing.worker." + (i + 1) + ".busyNanos");
+  }
+
+  /**
+   * Creates the ForkJoinPool. After calling this function the job system is ready
+   * to accept jobs.
+   */
+  @Override
+  public void start()
+  {
+    LOCK.lock();
+    try
+    {
+      if (isStarted) throw new RuntimeException("Job System was already started");
+      isStarted = true;
+      pool = new ForkJoinPool(NUM_WORKER_THREADS);
+      if (Metrics.ENABLED)
+      {
+        final ForkJoinPool POOL = pool;
+        Metrics.gauge("workStealing.queuedTasks", POOL::getQueuedTaskCount);
+        Metrics.gauge("workStealing.steals", POOL::getStealCount);
+      }
+      System.out.println("Work-stealing job system started with " + NUM_WORKER_THREADS + " threads");
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Shuts down the pool.
+   *
+   * @param completeExistingJobs if this is true, the threads finish every job that
+   *                             was already dispatched - if false, jobs that have not
+   *                             started yet are dropped
+   */
+  @Override
+  public void stop(boolean completeExistingJobs)
+  {
+    LOCK.lock();
+    try
+    {
+      if (!isStarted) throw new RuntimeException("Job System was not started");
+      isStarted = false;
+      if (completeExistingJobs)
+      {
+        pool.shutdown();
+        pool.awaitQuiescence(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      }
+      else pool.shutdownNow();
+      JOB_BUFFER.clear();
+      System.out.println("Job system shutdown");
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Adds the job to the back buffer for its priority (threads can't see this buffer).
+   *
+   * @param job job to be added to the back buffer
+   */
+  @Override
+  public void submitJob(Job job)
+  {
+    LOCK.lock();
+    try
+    {
+      if (!isStarted) throw new RuntimeException("Job System was not running - cannot submit job");
+      JOB_BUFFER.computeIfAbsent(job.getPriority(), (priority) -> new ArrayList<>()).add(job);
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Hands every buffered job to the pool, one priority level at a time. When this is
+   * called from one of the pool's own threads the jobs go onto that thread's deque and
+   * the other threads steal them from there.
+   */
+  @Override
+  public void dispatchJobs()
+  {
+    LOCK.lock();
+    try
+    {
+      for (Map.Entry<Integer, List<Job>> entry : JOB_BUFFER.entrySet())
+      {
+        for (Job job : entry.getValue()) pool.execute(new JobTask(job));
+        entry.getValue().clear();
+      }
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+}
@@ -1,6 +1,9 @@
 package cs351.job;
 
+import cs351.metrics.LatencyHistogram;
+import cs351.metrics.Metrics;
 import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -15,6 +18,10 @@ final public class WorkerThread extends Thread
   private final ReentrantLock LOCK;
   private final int ID;
   private final JobSystem JOB_SYSTEM;
+  // run time of every job on any worker thread
+  private static final LatencyHistogram JOB_RUN_TIMES = Metrics.histogram("job.runNanos");
+  // time this thread spent running jobs and waiting for them
+  private final LongAdder BUSY_NANOS, IDLE_NANOS;
   private volatile boolean isRunning = true;
   private volatile boolean completeExistingJobsBeforeTerminating = false;
 
@@ -29,47 +36,78 @@ final public class WorkerThread extends Thread
     LOCK = new ReentrantLock();
     ID = id;
     JOB_SYSTEM = jobSystem;
+    BUSY_NANOS = Metrics.counter("jobSystem.worker." + id + ".busyNanos");
+    IDLE_NANOS = Metrics.counter("jobSystem.worker." + id + ".idleNanos");
   }
 
   /**
    * Once this is called, the worker thread continues looping and asks the job
-   * system if there are any jobs for it to do. If not, it sleeps for 1 millisecond.
+   * system for jobs to do. If there are none it waits inside the job system
+   * (spinning briefly and then parking) until some are dispatched.
    *
-   * When this thread is told to terminate, its isRunning flag is set to false and it
-   * exits after it is done working on the current block of jobs.
+   * When this thread is told to terminate it is interrupted so that it wakes up,
+   * and it exits after it is done working on the current block of jobs (or once
+   * the queue is empty if it was asked to complete the existing jobs).
    */
   @Override
   public void run()
   {
-    boolean isRunning = true;
-    Collection<Job> jobs = null;
-    while (isRunning)
+    while (true)
     {
+      boolean drainQueue;
       LOCK.lock();
       try
       {
-        if (completeExistingJobsBeforeTerminating && jobs == null) isRunning = false;
-        else isRunning = this.isRunning;
+        if (!isRunning) return;
+        drainQueue = completeExistingJobsBeforeTerminating;
       }
       finally
       {
         LOCK.unlock();
       }
-      // if there are jobs, execute them but otherwise signal that this is a good
-      // time to pause this thread
-      jobs = JOB_SYSTEM.getJobs();
-      if (jobs != null) for (Job job : jobs) job.run(ID);
-      else
+      Collection<Job> jobs;
+      long idleStart = Metrics.ENABLED ? System.nanoTime() : 0;
+      try
       {
-        try
+        if (drainQueue)
         {
-          Thread.sleep(1);
-        }
-        catch (InterruptedException e)
-        {
-
+          jobs = JOB_SYSTEM.getJobs();
+          if (jobs == null) return;
         }
+        else jobs = JOB_SYSTEM.awaitJobs();
+      }
+      catch (InterruptedException e)
+      {
+        // woken up by terminate - go back and check the flags
+        continue;
       }
+      if (Metrics.ENABLED) IDLE_NANOS.add(System.nanoTime() - idleStart);
+      for (Job job : jobs) runJob(job);
+    }
+  }
+
+  /**
+   * Runs a single job, timing it if metrics are enabled.
+   *
+   * @param job job to run
+   */
+  private void runJob(Job job)
+  {
+    if (!Metrics.ENABLED)
+    {
+      job.run(ID);
+      return;
+    }
+    long start = System.nanoTime();
+    try
+    {
+      job.run(ID);
+    }
+    finally
+    {
+      long runTime = System.nanoTime() - start;
+      JOB_RUN_TIMES.record(runTime);
+      BUSY_NANOS.add(runTime);
     }
   }
 
@@ -92,5 +130,6 @@ final public class WorkerThread extends Thread
     {
       LOCK.unlock();
     }
+    interrupt();
   }
 }
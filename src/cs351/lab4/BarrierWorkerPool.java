@@ -0,0 +1,152 @@
+package cs351.lab4;
+
+import cs351.metrics.Metrics;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of threads that loop over frames together. For each frame every
+ * thread runs its own task and then waits on a CyclicBarrier; the barrier action
+ * (run by the last thread to arrive while the others wait) can start the next
+ * frame right away, in which case the threads go straight into it without any
+ * queueing or lock handoffs. If no frame is started the threads spin briefly and
+ * then park until startFrame is called.
+ *
+ * @author Justin Hall
+ */
+public class BarrierWorkerPool
+{
+  private final ReentrantLock LOCK = new ReentrantLock();
+  private final Condition FRAME_STARTED = LOCK.newCondition();
+  private final int NUM_THREADS;
+  private final Thread[] THREADS;
+  private final CyclicBarrier BARRIER;
+  // polls a worker makes for the next frame before it parks
+  private final int SPIN_ITERATIONS = 1000;
+  // time each thread spent on its tasks and waiting (for the next frame or at the barrier)
+  private final LongAdder[] BUSY_NANOS, IDLE_NANOS;
+  private volatile Runnable[] tasks;
+  private volatile long frameNumber = 0;
+  private volatile boolean isRunning = false;
+
+  /**
+   * Creates the pool without starting any threads.
+   *
+   * @param numThreads number of threads
+   * @param barrierAction run once at the end of every frame after all of the tasks are done
+   */
+  public BarrierWorkerPool(int numThreads, Runnable barrierAction)
+  {
+    NUM_THREADS = numThreads;
+    THREADS = new Thread[numThreads];
+    BARRIER = new CyclicBarrier(numThreads, barrierAction);
+    BUSY_NANOS = new LongAdder[numThreads];
+    IDLE_NANOS = new LongAdder[numThreads];
+    for (int i = 0; i < numThreads; i++)
+    {
+      BUSY_NANOS[i] = Metrics.counter("barrier.worker." + (i + 1) + ".busyNanos");
+      IDLE_NANOS[i] = Metrics.counter("barrier.worker." + (i + 1) + ".idleNanos");
+    }
+  }
+
+  /**
+   * Starts the threads - they wait for the first call to startFrame.
+   */
+  public void start()
+  {
+    isRunning = true;
+    for (int i = 0; i < NUM_THREADS; i++)
+    {
+      final int ID = i;
+      THREADS[i] = new Thread(() -> workerLoop(ID), "BarrierWorker-" + (i + 1));
+      THREADS[i].setDaemon(true);
+      THREADS[i].start();
+    }
+    System.out.println("Barrier worker pool started with " + NUM_THREADS + " threads");
+  }
+
+  /**
+   * Tells the threads to exit. A frame that is in progress is still finished.
+   */
+  public void stop()
+  {
+    LOCK.lock();
+    try
+    {
+      isRunning = false;
+      FRAME_STARTED.signalAll();
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+    System.out.println("Barrier worker pool shutdown");
+  }
+
+  /**
+   * Starts the next frame. Thread i runs tasks[i]. This can be called from the
+   * barrier action to start a new frame as soon as the previous one finishes.
+   *
+   * @param tasks one task per thread
+   */
+  public void startFrame(Runnable[] tasks)
+  {
+    LOCK.lock();
+    try
+    {
+      this.tasks = tasks;
+      ++frameNumber;
+      FRAME_STARTED.signalAll();
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Main loop for each of the threads.
+   *
+   * @param id index of the thread (and of its task)
+   */
+  private void workerLoop(int id)
+  {
+    long lastFrame = 0;
+    while (true)
+    {
+      long idleStart = Metrics.ENABLED ? System.nanoTime() : 0;
+      for (int i = 0; i < SPIN_ITERATIONS && frameNumber == lastFrame && isRunning; i++) Thread.onSpinWait();
+      if (frameNumber == lastFrame)
+      {
+        LOCK.lock();
+        try
+        {
+          while (frameNumber == lastFrame && isRunning) FRAME_STARTED.awaitUninterruptibly();
+        }
+        finally
+        {
+          LOCK.unlock();
+        }
+      }
+      if (frameNumber == lastFrame) return;
+      ++lastFrame;
+      long taskStart = Metrics.ENABLED ? System.nanoTime() : 0;
+      if (Metrics.ENABLED) IDLE_NANOS[id].add(taskStart - idleStart);
+      tasks[id].run();
+      long barrierStart = Metrics.ENABLED ? System.nanoTime() : 0;
+      if (Metrics.ENABLED) BUSY_NANOS[id].add(barrierStart - taskStart);
+      try
+      {
+        BARRIER.await();
+      }
+      catch (InterruptedException | BrokenBarrierException e)
+      {
+        return;
+      }
+      if (Metrics.ENABLED) IDLE_NANOS[id].add(System.nanoTime() - barrierStart);
+    }
+  }
+}
@@ -0,0 +1,432 @@
+package cs351.lab4;
+
+import java.util.Arrays;
+
+/**
+ * Stores one generation of the board with one bit per cell, 64 cells packed
+ * into each long. Rows are laid out one after the other in a single long[]
+ * with one row of padding above and below the board so that the update jobs
+ * never have to check the vertical edges. The padding rows are dead unless the
+ * board wraps around, in which case they hold a copy of the row across the
+ * opposite edge (see wrapRow). Cell ages are only kept in a side plane if they
+ * were asked for in the constructor.
+ *
+ * @author Justin Hall
+ */
+public class BitGrid
+{
+  public static final int BITS_PER_WORD = 64;
+  private final int WIDTH, HEIGHT;
+  private final int WORDS_PER_ROW;
+  private final long LAST_WORD_MASK;
+  private final long[] CELLS;
+  private final byte[] AGES;
+
+  /**
+   * Allocates the cell words (and the age plane if requested) for a board
+   * of the given size.
+   *
+   * @param width width of the board in cells
+   * @param height height of the board in cells
+   * @param trackAges true if an age plane should be allocated and false if not
+   */
+  public BitGrid(int width, int height, boolean trackAges)
+  {
+    WIDTH = width;
+    HEIGHT = height;
+    WORDS_PER_ROW = (width + BITS_PER_WORD - 1) / BITS_PER_WORD;
+    int usedBits = width % BITS_PER_WORD;
+    LAST_WORD_MASK = usedBits == 0 ? -1L : (1L << usedBits) - 1;
+    CELLS = new long[(height + 2) * WORDS_PER_ROW];
+    AGES = trackAges ? new byte[width * height] : null;
+  }
+
+  /**
+   * Returns the board width.
+   *
+   * @return width in cells
+   */
+  public int getWidth()
+  {
+    return WIDTH;
+  }
+
+  /**
+   * Returns the board height.
+   *
+   * @return height in cells
+   */
+  public int getHeight()
+  {
+    return HEIGHT;
+  }
+
+  /**
+   * Returns the number of longs used to store a single row.
+   *
+   * @return words per row
+   */
+  public int getWordsPerRow()
+  {
+    return WORDS_PER_ROW;
+  }
+
+  /**
+   * Returns the mask of the bits in the last word of a row that belong to the board
+   * (bits past the right edge must always stay 0).
+   *
+   * @return mask for the last word of each row
+   */
+  public long getLastWordMask()
+  {
+    return LAST_WORD_MASK;
+  }
+
+  /**
+   * Gives direct access to the packed cells. Row y of the board (0-based) starts
+   * at index (y + 1) * getWordsPerRow() because of the padding row at the top.
+   *
+   * @return packed cell words
+   */
+  public long[] getCells()
+  {
+    return CELLS;
+  }
+
+  /**
+   * Gives direct access to the age plane. Cell (x, y) is stored at y * getWidth() + x.
+   *
+   * @return age plane or null if ages are not being tracked
+   */
+  public byte[] getAges()
+  {
+    return AGES;
+  }
+
+  /**
+   * Checks if this grid keeps an age plane.
+   *
+   * @return true if ages are tracked and false if not
+   */
+  public boolean isTrackingAges()
+  {
+    return AGES != null;
+  }
+
+  /**
+   * Gets the age of the cell at (x, y). If ages are not tracked this is 1 for
+   * live cells and 0 for dead cells.
+   *
+   * @param x x-location (0-based)
+   * @param y y-location (0-based)
+   * @return age of the cell
+   */
+  public int getAge(int x, int y)
+  {
+    if (AGES != null) return AGES[y * WIDTH + x];
+    long word = CELLS[(y + 1) * WORDS_PER_ROW + (x >>> 6)];
+    return (int)((word >>> (x & 63)) & 1L);
+  }
+
+  /**
+   * Sets the age of the cell at (x, y) - any age above 0 marks the cell as alive.
+   *
+   * @param x x-location (0-based)
+   * @param y y-location (0-based)
+   * @param age age of the cell (0 - 10)
+   */
+  public void setAge(int x, int y, int age)
+  {
+    int index = (y + 1) * WORDS_PER_ROW + (x >>> 6);
+    long bit = 1L << (x & 63);
+    if (age > 0) CELLS[index] |= bit;
+    else CELLS[index] &= ~bit;
+    if (AGES != null) AGES[y * WIDTH + x] = (byte)age;
+  }
+
+  /**
+   * Sets the age of a run of cells in one row, a whole word at a time where possible.
+   *
+   * @param x first cell of the run (0-based)
+   * @param y row of the run (0-based)
+   * @param length number of cells in the run
+   * @param age age of the cells (0 - 10)
+   */
+  public void setRun(int x, int y, int length, int age)
+  {
+    int row = (y + 1) * WORDS_PER_ROW;
+    int end = x + length;
+    for (int w = x >>> 6; w <= (end - 1) >>> 6; w++)
+    {
+      int from = Math.max(x, w * BITS_PER_WORD) & 63;
+      int to = Math.min(end, (w + 1) * BITS_PER_WORD) - w * BITS_PER_WORD;
+      long mask = (to == BITS_PER_WORD ? -1L : (1L << to) - 1) & (-1L << from);
+      if (age > 0) CELLS[row + w] |= mask;
+      else CELLS[row + w] &= ~mask;
+    }
+    if (AGES != null) Arrays.fill(AGES, y * WIDTH + x, y * WIDTH + end, (byte)age);
+  }
+
+  /**
+   * Sets a run of cells in one row from an array of ages (any age above 0 is alive).
+   *
+   * @param x first cell of the run (0-based)
+   * @param y row of the run (0-based)
+   * @param length number of cells in the run
+   * @param ages array holding the new ages
+   * @param offset index in ages of the age for cell x
+   */
+  public void setRun(int x, int y, int length, byte[] ages, int offset)
+  {
+    int row = (y + 1) * WORDS_PER_ROW;
+    int end = x + length;
+    for (int w = x >>> 6; w <= (end - 1) >>> 6; w++)
+    {
+      int from = Math.max(x, w * BITS_PER_WORD);
+      int to = Math.min(end, (w + 1) * BITS_PER_WORD);
+      long bits = 0, mask = 0;
+      for (int cx = from, index = offset + from - x; cx < to; cx++, index++)
+      {
+        long bit = 1L << (cx & 63);
+        mask |= bit;
+        if (ages[index] > 0) bits |= bit;
+      }
+      CELLS[row + w] = (CELLS[row + w] & ~mask) | bits;
+    }
+    if (AGES != null) System.arraycopy(ages, offset, AGES, y * WIDTH + x, length);
+  }
+
+  /**
+   * Copies the ages of a run of cells in one row into an array.
+   *
+   * @param x first cell of the run (0-based)
+   * @param y row of the run (0-based)
+   * @param length number of cells in the run
+   * @param out array to copy the ages into
+   * @param offset index in out for the age of cell x
+   */
+  public void getRun(int x, int y, int length, byte[] out, int offset)
+  {
+    if (AGES != null)
+    {
+      System.arraycopy(AGES, y * WIDTH + x, out, offset, length);
+      return;
+    }
+    int row = (y + 1) * WORDS_PER_ROW;
+    for (int cx = x, end = x + length; cx < end; cx++, offset++)
+    {
+      out[offset] = (byte)((CELLS[row + (cx >>> 6)] >>> (cx & 63)) & 1L);
+    }
+  }
+
+  /**
+   * Sets every cell of a run whose bit is set in a packed row of bits to the given
+   * age. Cells whose bit is clear are left alone.
+   *
+   * @param x first cell of the run (0-based)
+   * @param y row of the run (0-based)
+   * @param length number of cells in the run
+   * @param bits packed bits where bit i of the row is bit (i & 63) of bits[start + (i >>> 6)]
+   * @param start index in bits of the word holding the bit for cell x
+   * @param age age to give the marked cells (above 0)
+   */
+  public void stampRun(int x, int y, int length, long[] bits, int start, int age)
+  {
+    int row = (y + 1) * WORDS_PER_ROW;
+    int end = x + length;
+    int lastSourceWord = start + ((length - 1) >>> 6);
+    for (int w = x >>> 6; w <= (end - 1) >>> 6; w++)
+    {
+      int from = Math.max(x, w * BITS_PER_WORD);
+      int to = Math.min(end, (w + 1) * BITS_PER_WORD);
+      // line the source bits for [from, to) up with this word
+      int sourceBit = from - x;
+      int sourceWord = start + (sourceBit >>> 6);
+      long source = bits[sourceWord] >>> (sourceBit & 63);
+      if ((sourceBit & 63) != 0 && sourceWord < lastSourceWord) source |= bits[sourceWord + 1] << (BITS_PER_WORD - (sourceBit & 63));
+      long mask = (to - w * BITS_PER_WORD == BITS_PER_WORD ? -1L : (1L << (to - w * BITS_PER_WORD)) - 1) & (-1L << (from & 63));
+      long stamp = (source << (from & 63)) & mask;
+      CELLS[row + w] |= stamp;
+      if (AGES == null) continue;
+      for (long remaining = stamp; remaining != 0; remaining &= remaining - 1)
+      {
+        AGES[y * WIDTH + w * BITS_PER_WORD + Long.numberOfTrailingZeros(remaining)] = (byte)age;
+      }
+    }
+  }
+
+  /**
+   * Copies a run of cells in one row (and their ages) from another grid of the same size.
+   *
+   * @param other grid to copy from (must track ages if this one does)
+   * @param x first cell of the run (0-based)
+   * @param y row of the run (0-based)
+   * @param length number of cells in the run
+   */
+  public void copyRun(BitGrid other, int x, int y, int length)
+  {
+    int row = (y + 1) * WORDS_PER_ROW;
+    int end = x + length;
+    for (int w = x >>> 6; w <= (end - 1) >>> 6; w++)
+    {
+      int from = Math.max(x, w * BITS_PER_WORD) & 63;
+      int to = Math.min(end, (w + 1) * BITS_PER_WORD) - w * BITS_PER_WORD;
+      long mask = (to == BITS_PER_WORD ? -1L : (1L << to) - 1) & (-1L << from);
+      CELLS[row + w] = (CELLS[row + w] & ~mask) | (other.CELLS[row + w] & mask);
+    }
+    if (AGES != null) System.arraycopy(other.AGES, y * WIDTH + x, AGES, y * WIDTH + x, length);
+  }
+
+  /**
+   * Makes this grid an exact copy of another grid of the same size.
+   *
+   * @param other grid to copy (must track ages if this one does)
+   */
+  public void copyFrom(BitGrid other)
+  {
+    System.arraycopy(other.CELLS, 0, CELLS, 0, CELLS.length);
+    if (AGES != null) System.arraycopy(other.AGES, 0, AGES, 0, AGES.length);
+  }
+
+  /**
+   * Copies the first or last row of the board into the padding row on the other side
+   * so that the rows wrap around vertically. With mirror set the row is also flipped
+   * left to right on the way (the top and bottom edges of a Klein bottle). Rows other
+   * than the first and last are ignored.
+   *
+   * @param y row that was just written (0-based)
+   * @param mirror true to reverse the order of the cells
+   */
+  public void wrapRow(int y, boolean mirror)
+  {
+    if (y == 0) copyRow(CELLS, WORDS_PER_ROW, CELLS, (HEIGHT + 1) * WORDS_PER_ROW, mirror);
+    if (y == HEIGHT - 1) copyRow(CELLS, HEIGHT * WORDS_PER_ROW, CELLS, 0, mirror);
+  }
+
+  /**
+   * Copies the words of one row into another array, optionally flipped left to right.
+   *
+   * @param y row to copy (0-based)
+   * @param out array to copy the row's WORDS_PER_ROW words into
+   * @param offset index in out to start at
+   * @param mirror true to reverse the order of the cells
+   */
+  public void copyRowOut(int y, long[] out, int offset, boolean mirror)
+  {
+    copyRow(CELLS, (y + 1) * WORDS_PER_ROW, out, offset, mirror);
+  }
+
+  /**
+   * Wraps both edge rows into the padding rows (see wrapRow).
+   *
+   * @param mirror true to reverse the order of the cells
+   */
+  public void wrapRows(boolean mirror)
+  {
+    wrapRow(0, mirror);
+    wrapRow(HEIGHT - 1, mirror);
+  }
+
+  /**
+   * Sets the padding rows back to dead cells.
+   */
+  public void clearPaddingRows()
+  {
+    Arrays.fill(CELLS, 0, WORDS_PER_ROW, 0L);
+    Arrays.fill(CELLS, (HEIGHT + 1) * WORDS_PER_ROW, CELLS.length, 0L);
+  }
+
+  /**
+   * Copies one row of words to another, optionally reversing the WIDTH cells. Reversing
+   * every word back to front puts cell WIDTH - 1 at bit unused (the number of bits past
+   * the right edge), so the reversed words are then shifted down by that much.
+   */
+  private void copyRow(long[] src, int from, long[] dst, int to, boolean mirror)
+  {
+    if (!mirror)
+    {
+      System.arraycopy(src, from, dst, to, WORDS_PER_ROW);
+      return;
+    }
+    final int unused = WORDS_PER_ROW * BITS_PER_WORD - WIDTH;
+    for (int w = 0; w < WORDS_PER_ROW; w++)
+    {
+      long low = Long.reverse(src[from + WORDS_PER_ROW - 1 - w]);
+      long high = w + 1 < WORDS_PER_ROW ? Long.reverse(src[from + WORDS_PER_ROW - 2 - w]) : 0;
+      dst[to + w] = unused == 0 ? low : (low >>> unused) | (high << (BITS_PER_WORD - unused));
+    }
+  }
+
+  /**
+   * Computes the next state for 64 cells at once given the 8 neighbor words (each
+   * one already shifted so that bit i lines up with cell i of the center word).
+   * The neighbor count is built up with bit-sliced full adders and the B3/S23 rule
+   * is applied to the resulting count bits.
+   *
+   * @return next state of the 64 cells in the center word
+   */
+  public static long nextWord(long upWest, long up, long upEast,
+                              long west, long center, long east,
+                              long downWest, long down, long downEast)
+  {
+    // full adders for the weight-1 inputs
+    long onesA = upWest ^ up ^ upEast;
+    long twosA = (upWest & up) | (upEast & (upWest ^ up));
+    long onesB = west ^ east ^ downWest;
+    long twosB = (west & east) | (downWest & (west ^ east));
+    long onesC = down ^ downEast;
+    long twosC = down & downEast;
+    long ones = onesA ^ onesB ^ onesC;
+    long twosD = (onesA & onesB) | (onesC & (onesA ^ onesB));
+    // combine the four weight-2 carries
+    long twosE = twosA ^ twosB ^ twosC;
+    long foursA = (twosA & twosB) | (twosC & (twosA ^ twosB));
+    long twos = twosE ^ twosD;
+    long foursB = twosE & twosD;
+    long fours = foursA ^ foursB;
+    long eights = foursA & foursB;
+    // alive if the count is 3, or if it is 2 and the cell was already alive
+    return ~eights & ~fours & twos & (ones | center);
+  }
+
+  /**
+   * Same as nextWord for Conway's rule but for any birth/survival rule. The count
+   * bits come from the same full adders, and then each count in the rule's sets is
+   * matched against them, so this costs a few more operations per count in the rule.
+   *
+   * @param birth bit n set if a dead cell with n live neighbors comes alive
+   * @param survival bit n set if a live cell with n live neighbors stays alive
+   * @return next state of the 64 cells in the center word
+   */
+  public static long nextWord(int birth, int survival,
+                              long upWest, long up, long upEast,
+                              long west, long center, long east,
+                              long downWest, long down, long downEast)
+  {
+    long onesA = upWest ^ up ^ upEast;
+    long twosA = (upWest & up) | (upEast & (upWest ^ up));
+    long onesB = west ^ east ^ downWest;
+    long twosB = (west & east) | (downWest & (west ^ east));
+    long onesC = down ^ downEast;
+    long twosC = down & downEast;
+    long ones = onesA ^ onesB ^ onesC;
+    long twosD = (onesA & onesB) | (onesC & (onesA ^ onesB));
+    long twosE = twosA ^ twosB ^ twosC;
+    long foursA = (twosA & twosB) | (twosC & (twosA ^ twosB));
+    long twos = twosE ^ twosD;
+    long foursB = twosE & twosD;
+    long fours = foursA ^ foursB;
+    long eights = foursA & foursB;
+    long born = 0, survives = 0;
+    for (int n = 0; n <= 8; n++)
+    {
+      if (((birth | survival) & (1 << n)) == 0) continue;
+      // bits where the neighbor count is exactly n
+      long count = ((n & 1) != 0 ? ones : ~ones) & ((n & 2) != 0 ? twos : ~twos)
+                   & ((n & 4) != 0 ? fours : ~fours) & ((n & 8) != 0 ? eights : ~eights);
+      if ((birth & (1 << n)) != 0) born |= count;
+      if ((survival & (1 << n)) != 0) survives |= count;
+    }
+    return (born & ~center) | (survives & center);
+  }
+}
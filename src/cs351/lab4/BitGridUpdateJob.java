@@ -0,0 +1,355 @@
+package cs351.lab4;
+
+import cs351.job.Job;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Update job used by the SimulationEngine when it was created with a bit-packed
+ * board. It updates its band of rows 64 cells at a time and then lets the engine
+ * know it's done. Conway's rule has its own fixed set of bit operations and any
+ * other birth/survival rule goes through BitGrid's general version. On a board
+ * that wraps around, the cells across the left and right edges are shifted in
+ * when the first and last words of a row are updated, and the job that writes
+ * the first or last row also refreshes the padding row on the other side.
+ *
+ * A frame can also cover several generations at once (temporal blocking). The job
+ * then reads its band plus that many extra rows above and below it from the front
+ * grid and runs the generations as a wavefront: generation g of a row is computed as
+ * soon as generation g - 1 of the row below it is done, so only the last three rows
+ * of each generation are kept. Each generation loses one row of the halo at both
+ * ends, which leaves exactly the band once the last generation is reached, and only
+ * that is written to the back grid.
+ *
+ * @author Justin Hall
+ */
+public class BitGridUpdateJob extends Job
+{
+  private final ReentrantLock LOCK = new ReentrantLock();
+  private final int START_ROW, END_ROW;
+  // rows for the current frame (fewer than the constant range if the job was split)
+  private int startRow, endRow;
+  private BitGrid frontGrid; // never writes to this (guaranteed)
+  private BitGrid backGrid;
+  // generations the current frame covers
+  private int generations = 1;
+  // three rows for each generation but the last while a frame covers more than one (see updateRowsBlocked)
+  private long[] ring;
+  // next generation of one row while ages or statistics are being updated from it
+  private long[] rowScratch;
+  // births, deaths and the ages the dead cells had for the current frame (handed to the
+  // engine when the job is done - every other live cell just got one generation older)
+  private final boolean COUNT_STATISTICS;
+  private long births, deaths;
+  private final int[] DEATHS_BY_AGE = new int[GenerationStats.MAX_AGE + 1];
+  private final Rule RULE;
+  private final boolean CONWAY;
+  private final int TOPOLOGY;
+  // WRAPS for a torus or Klein bottle, MIRROR for the flipped top/bottom edges of a Klein bottle
+  private final boolean WRAPS, MIRROR;
+  private final SimulationEngine ENGINE;
+
+  /**
+   * Creates the update job with a set of constant parameters.
+   *
+   * @param engine SimulationEngine object for callbacks
+   * @param startRow first row it should update (inclusive, 0-based)
+   * @param endRow row it should stop at (exclusive)
+   * @param countStatistics true to count births and deaths for the engine's statistics
+   * @param rule rule to run (without dying states)
+   * @param topology one of the SimulationEngine TOPOLOGY constants
+   */
+  public BitGridUpdateJob(SimulationEngine engine, int startRow, int endRow, boolean countStatistics, Rule rule, int topology)
+  {
+    ENGINE = engine;
+    RULE = rule;
+    CONWAY = rule.isConway();
+    TOPOLOGY = topology;
+    WRAPS = topology != SimulationEngine.TOPOLOGY_BOUNDED;
+    MIRROR = topology == SimulationEngine.TOPOLOGY_KLEIN_BOTTLE;
+    COUNT_STATISTICS = countStatistics;
+    START_ROW = startRow;
+    END_ROW = endRow;
+  }
+
+  /**
+   * Runs through its rows exactly once, writing the new cell words (and ages if
+   * they are tracked) to the back grid and reading from the front grid.
+   *
+   * @param threadID integer id for the thread the job is being executed on
+   */
+  @Override
+  public void run(int threadID)
+  {
+    updateRows();
+    ENGINE.notifyEngineOfThreadCompletion();
+  }
+
+  /**
+   * Updates every row in the job's band and hands the engine the counts for the
+   * cells it changed (if it is counting them), without notifying the engine that it is done (used by the
+   * engine's barrier workers). Frames that cover more than one generation are never
+   * counted, and the engine recounts the board instead.
+   */
+  public void updateRows()
+  {
+    LOCK.lock();
+    try
+    {
+      if (generations > 1)
+      {
+        updateRowsBlocked();
+        return;
+      }
+      for (int y = startRow; y < endRow; y++) updateRow(y);
+      if (COUNT_STATISTICS) ENGINE.recordFrameStatistics(births, deaths, backGrid.isTrackingAges() ? DEATHS_BY_AGE : null);
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Gives the bottom half of this job's rows to a new job (the engine is told about
+   * the extra job before it can possibly finish).
+   *
+   * @return job with the second half of the rows or null if there is only one row left
+   */
+  @Override
+  public Job split()
+  {
+    LOCK.lock();
+    try
+    {
+      if (endRow - startRow < 2) return null;
+      int middle = (startRow + endRow) >>> 1;
+      BitGridUpdateJob other = new BitGridUpdateJob(ENGINE, middle, endRow, COUNT_STATISTICS, RULE, TOPOLOGY);
+      other.initFrame(frontGrid, backGrid, generations);
+      endRow = middle;
+      ENGINE.notifyEngineOfJobSplit();
+      return other;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * This is called to let the job know which grids to use. It also restores the
+   * job's full range of rows in case it was split during the previous frame.
+   *
+   * @param frontGrid front grid to read from (previous frame)
+   * @param backGrid back grid to write to (current frame)
+   * @param generations number of generations the frame covers (the back grid ends up that many ahead)
+   */
+  public void initFrame(BitGrid frontGrid, BitGrid backGrid, int generations)
+  {
+    LOCK.lock();
+    try
+    {
+      this.frontGrid = frontGrid;
+      this.backGrid = backGrid;
+      this.generations = generations;
+      startRow = START_ROW;
+      endRow = END_ROW;
+      births = 0;
+      deaths = 0;
+      Arrays.fill(DEATHS_BY_AGE, 0);
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Updates a single row, along with its ages and the frame's counts if those are
+   * being kept.
+   *
+   * @param y row to update (0-based)
+   */
+  private void updateRow(int y)
+  {
+    final long[] src = frontGrid.getCells();
+    final long[] dst = backGrid.getCells();
+    final int wordsPerRow = frontGrid.getWordsPerRow();
+    final int up = y * wordsPerRow;
+    final int mid = up + wordsPerRow;
+    final int down = mid + wordsPerRow;
+    final byte[] srcAges = frontGrid.getAges();
+    final byte[] dstAges = backGrid.getAges();
+    if (dstAges == null && !COUNT_STATISTICS) nextRow(src, up, mid, down, dst, mid);
+    else
+    {
+      if (rowScratch == null || rowScratch.length != wordsPerRow) rowScratch = new long[wordsPerRow];
+      nextRow(src, up, mid, down, rowScratch, 0);
+      for (int w = 0; w < wordsPerRow; w++)
+      {
+        long before = src[mid + w], after = rowScratch[w];
+        if (dstAges != null) updateAges(srcAges, dstAges, y, w, before, after, dst[mid + w]);
+        dst[mid + w] = after;
+        if (COUNT_STATISTICS)
+        {
+          births += Long.bitCount(after & ~before);
+          deaths += Long.bitCount(before & ~after);
+        }
+      }
+    }
+    if (WRAPS) backGrid.wrapRow(y, MIRROR);
+  }
+
+  /**
+   * Runs the band the number of generations the frame covers. With k generations
+   * the rows from startRow - k to endRow + k - 1 are read in one at a time, and after
+   * row i is read, generation g of row i - g is computed for every g whose three
+   * rows from generation g - 1 (i - g - 1 to i - g + 1) are all ready. Generation
+   * g is only right for the rows from startRow - k + g to endRow + k - 1 - g since
+   * the rows outside that would have needed cells that were never read, so row i -
+   * g is skipped until it gets that far. Generation k comes out as rows startRow to
+   * endRow - 1 in order and goes straight into the back grid. Rows past the top and
+   * bottom of the board are dead on a bounded board (at every generation) and are
+   * copies of the rows across the opposite edge on one that wraps.
+   */
+  private void updateRowsBlocked()
+  {
+    final int k = generations;
+    final int wordsPerRow = frontGrid.getWordsPerRow();
+    final int height = frontGrid.getHeight();
+    final int firstRow = startRow - k;
+    final long[] dst = backGrid.getCells();
+    if (ring == null || ring.length != 3 * k * wordsPerRow) ring = new long[3 * k * wordsPerRow];
+    for (int i = firstRow; i < endRow + k; i++)
+    {
+      loadRow(i, height, ringRow(0, i, wordsPerRow));
+      for (int g = 1; g <= k && i - g >= firstRow + g; g++)
+      {
+        int y = i - g;
+        int up = ringRow(g - 1, y - 1, wordsPerRow), mid = ringRow(g - 1, y, wordsPerRow), down = ringRow(g - 1, y + 1, wordsPerRow);
+        if (g == k)
+        {
+          nextRow(ring, up, mid, down, dst, (y + 1) * wordsPerRow);
+          if (WRAPS) backGrid.wrapRow(y, MIRROR);
+        }
+        else if (!WRAPS && (y < 0 || y >= height))
+        {
+          int row = ringRow(g, y, wordsPerRow);
+          Arrays.fill(ring, row, row + wordsPerRow, 0L);
+        }
+        else nextRow(ring, up, mid, down, ring, ringRow(g, y, wordsPerRow));
+      }
+    }
+  }
+
+  /**
+   * Finds where row y of generation g (0 being the front grid) is kept in the ring.
+   */
+  private int ringRow(int g, int y, int wordsPerRow)
+  {
+    return (g * 3 + Math.floorMod(y, 3)) * wordsPerRow;
+  }
+
+  /**
+   * Copies row y of the front grid into the ring, where y can be past the top or
+   * bottom of the board (see updateRowsBlocked). Past the top or bottom of a Klein
+   * bottle the rows come back flipped left to right, and flipped back again after
+   * another trip around.
+   */
+  private void loadRow(int y, int height, int offset)
+  {
+    if (y >= 0 && y < height) frontGrid.copyRowOut(y, ring, offset, false);
+    else if (!WRAPS) Arrays.fill(ring, offset, offset + frontGrid.getWordsPerRow(), 0L);
+    else frontGrid.copyRowOut(Math.floorMod(y, height), ring, offset, MIRROR && (Math.floorDiv(y, height) & 1) != 0);
+  }
+
+  /**
+   * Computes the next generation of one row by sliding a window of three words across
+   * the row above, the row itself and the row below. When the board wraps, the window
+   * starts with the last cell of each row in the word before the first one, and the
+   * first cell of each row is shifted into the east neighbors of the last word.
+   *
+   * @param src array holding the three rows
+   * @param up index of the row above in src
+   * @param mid index of the row in src
+   * @param down index of the row below in src
+   * @param dst array to write the new row to
+   * @param out index in dst to write the new row at
+   */
+  private void nextRow(long[] src, int up, int mid, int down, long[] dst, int out)
+  {
+    final int wordsPerRow = frontGrid.getWordsPerRow();
+    // shifting the last word down by this puts the last cell of a row at bit 0
+    final int lastCell = (frontGrid.getWidth() - 1) & 63;
+    final int lastWord = wordsPerRow - 1;
+    long prevUp = 0, prevMid = 0, prevDown = 0;
+    if (WRAPS)
+    {
+      prevUp = (src[up + lastWord] >>> lastCell) << 63;
+      prevMid = (src[mid + lastWord] >>> lastCell) << 63;
+      prevDown = (src[down + lastWord] >>> lastCell) << 63;
+    }
+    long currUp = src[up], currMid = src[mid], currDown = src[down];
+    for (int w = 0; w < wordsPerRow; w++)
+    {
+      boolean last = w + 1 == wordsPerRow;
+      long nextUp = last ? 0 : src[up + w + 1];
+      long nextMid = last ? 0 : src[mid + w + 1];
+      long nextDown = last ? 0 : src[down + w + 1];
+      long upWest = (currUp << 1) | (prevUp >>> 63), upEast = (currUp >>> 1) | (nextUp << 63);
+      long west = (currMid << 1) | (prevMid >>> 63), east = (currMid >>> 1) | (nextMid << 63);
+      long downWest = (currDown << 1) | (prevDown >>> 63), downEast = (currDown >>> 1) | (nextDown << 63);
+      if (last && WRAPS)
+      {
+        upEast |= (src[up] & 1L) << lastCell;
+        east |= (src[mid] & 1L) << lastCell;
+        downEast |= (src[down] & 1L) << lastCell;
+      }
+      long next = CONWAY ? BitGrid.nextWord(upWest, currUp, upEast, west, currMid, east, downWest, currDown, downEast)
+                         : BitGrid.nextWord(RULE.getBirthMask(), RULE.getSurvivalMask(),
+                                            upWest, currUp, upEast, west, currMid, east, downWest, currDown, downEast);
+      if (last) next &= frontGrid.getLastWordMask();
+      dst[out + w] = next;
+      prevUp = currUp;
+      prevMid = currMid;
+      prevDown = currDown;
+      currUp = nextUp;
+      currMid = nextMid;
+      currDown = nextDown;
+    }
+  }
+
+  /**
+   * Updates the age plane for the 64 cells of one word. Only cells that are alive
+   * now, were alive before, or were alive two frames ago (the stale value still in
+   * the back grid) are touched. The ages of the cells that died are counted if the
+   * engine is tracking statistics.
+   *
+   * @param srcAges ages for the previous frame
+   * @param dstAges ages being written for the current frame
+   * @param y row of the word (0-based)
+   * @param w index of the word within the row
+   * @param before cell word from the previous frame
+   * @param after newly computed cell word
+   * @param stale cell word that was in the back grid before this frame
+   */
+  private void updateAges(byte[] srcAges, byte[] dstAges, int y, int w, long before, long after, long stale)
+  {
+    final byte MAX_CELL_AGE = 10;
+    final int base = y * frontGrid.getWidth() + w * BitGrid.BITS_PER_WORD;
+    for (long died = COUNT_STATISTICS ? before & ~after : 0; died != 0; died &= died - 1)
+    {
+      DEATHS_BY_AGE[Math.min(srcAges[base + Long.numberOfTrailingZeros(died)], GenerationStats.MAX_AGE)]++;
+    }
+    long touched = before | after | stale;
+    while (touched != 0)
+    {
+      int bit = Long.numberOfTrailingZeros(touched);
+      touched &= touched - 1;
+      int index = base + bit;
+      if ((after >>> bit & 1L) == 0) dstAges[index] = 0;
+      else if ((before >>> bit & 1L) == 0) dstAges[index] = 1;
+      else dstAges[index] = (byte)Math.min(srcAges[index] + 1, MAX_CELL_AGE);
+    }
+  }
+}
@@ -0,0 +1,271 @@
+package cs351.lab4;
+
+import java.util.Arrays;
+
+/**
+ * One SIZE x SIZE square of a ChunkedEngine's world. Cells are stored one bit per
+ * cell with the same row layout as BitGrid (cell x of a row is bit (x & 63) of word
+ * x >>> 6), but without any padding - the cells around the chunk are read straight
+ * out of its 8 neighbors while it is stepped. Each chunk keeps the current
+ * generation plus a second array that the next generation is written to, and the
+ * two are swapped once every chunk has been stepped.
+ *
+ * Along with its cells a chunk keeps its population and which of its edges have
+ * live cells on them, which is what the engine uses to decide where new chunks are
+ * needed and which chunks can be released.
+ *
+ * @author Justin Hall
+ */
+public final class Chunk
+{
+  public static final int SHIFT = 8;
+  public static final int SIZE = 1 << SHIFT;
+  public static final int WORDS_PER_ROW = SIZE / BitGrid.BITS_PER_WORD;
+  // neighbors are numbered row by row: 0 1 2 above, 3 and 4 to the sides, 5 6 7 below
+  public static final int NW = 0, N = 1, NE = 2, W = 3, E = 4, SW = 5, S = 6, SE = 7;
+  static final int[] NEIGHBOR_X = {-1, 0, 1, -1, 1, -1, 0, 1};
+  static final int[] NEIGHBOR_Y = {-1, -1, -1, 0, 0, 1, 1, 1};
+  public final int CHUNK_X, CHUNK_Y;
+  public final long KEY;
+  private long[] cells = new long[SIZE * WORDS_PER_ROW];
+  private long[] nextCells = new long[SIZE * WORDS_PER_ROW];
+  // bit d of edges is set if a live cell touches neighbor d (it can be set when no cell
+  // does any more after a cell was killed with setAlive, which only costs an extra chunk)
+  private long population, nextPopulation;
+  private int edges, nextEdges;
+  // number of generations in a row the chunk has been empty
+  int emptyGenerations;
+  // looked up by the update job at the start of each step (null where there is no chunk)
+  final Chunk[] NEIGHBORS = new Chunk[8];
+
+  /**
+   * Creates an empty chunk.
+   *
+   * @param chunkX x-location in chunks (cells CHUNK_X * SIZE to CHUNK_X * SIZE + SIZE - 1)
+   * @param chunkY y-location in chunks
+   */
+  public Chunk(int chunkX, int chunkY)
+  {
+    CHUNK_X = chunkX;
+    CHUNK_Y = chunkY;
+    KEY = ChunkMap.key(chunkX, chunkY);
+  }
+
+  /**
+   * Checks if a cell of the current generation is alive.
+   *
+   * @param x x-location within the chunk (0 to SIZE - 1)
+   * @param y y-location within the chunk
+   * @return true if alive and false if not
+   */
+  public boolean isAlive(int x, int y)
+  {
+    return ((cells[y * WORDS_PER_ROW + (x >>> 6)] >>> (x & 63)) & 1L) != 0;
+  }
+
+  /**
+   * Sets a cell of the current generation, keeping the population and edges current.
+   *
+   * @param x x-location within the chunk (0 to SIZE - 1)
+   * @param y y-location within the chunk
+   * @param alive true to make the cell alive and false to kill it
+   * @return change in population (-1, 0 or 1)
+   */
+  public int setAlive(int x, int y, boolean alive)
+  {
+    int index = y * WORDS_PER_ROW + (x >>> 6);
+    long bit = 1L << (x & 63);
+    if (((cells[index] & bit) != 0) == alive) return 0;
+    cells[index] ^= bit;
+    emptyGenerations = 0;
+    if (!alive)
+    {
+      --population;
+      return -1;
+    }
+    ++population;
+    if (y == 0) edges |= 1 << N;
+    if (y == SIZE - 1) edges |= 1 << S;
+    if (x == 0) edges |= (1 << W) | (y == 0 ? 1 << NW : 0) | (y == SIZE - 1 ? 1 << SW : 0);
+    if (x == SIZE - 1) edges |= (1 << E) | (y == 0 ? 1 << NE : 0) | (y == SIZE - 1 ? 1 << SE : 0);
+    return 1;
+  }
+
+  /**
+   * Gives direct access to the current generation's cells (SIZE rows of WORDS_PER_ROW words).
+   *
+   * @return cell words
+   */
+  public long[] getCells()
+  {
+    return cells;
+  }
+
+  /**
+   * Gets the number of live cells in the current generation.
+   *
+   * @return population
+   */
+  public long getPopulation()
+  {
+    return population;
+  }
+
+  /**
+   * Gets which neighbors the chunk's live cells are touching.
+   *
+   * @return bit d set if a live cell is on the edge (or corner) facing neighbor d
+   */
+  public int getEdges()
+  {
+    return edges;
+  }
+
+  /**
+   * Computes the next generation into the second array, along with its population
+   * and edges. The rows above and below and the columns to the left and right come
+   * from the neighbors (dead where there is no neighbor). A chunk that is empty and
+   * has no live cells facing it stays empty without being looked at.
+   *
+   * @param rule rule to run (without dying states)
+   * @param rows scratch space of at least 3 * (WORDS_PER_ROW + 2) words
+   */
+  void step(Rule rule, long[] rows)
+  {
+    final long[] next = nextCells;
+    if (population == 0 && !isFacingLife())
+    {
+      Arrays.fill(next, 0L);
+      nextPopulation = 0;
+      nextEdges = 0;
+      return;
+    }
+    final boolean conway = rule.isConway();
+    final int birth = rule.getBirthMask(), survival = rule.getSurvivalMask();
+    final int width = WORDS_PER_ROW + 2;
+    long count = 0;
+    for (int y = 0; y < SIZE; y++)
+    {
+      // each row is loaded as [word to the west, WORDS_PER_ROW words, word to the east]
+      loadRow(rows, 0, y - 1);
+      loadRow(rows, width, y);
+      loadRow(rows, 2 * width, y + 1);
+      for (int w = 0; w < WORDS_PER_ROW; w++)
+      {
+        int i = w + 1;
+        long up = rows[i], mid = rows[width + i], down = rows[2 * width + i];
+        long upWest = (up << 1) | (rows[i - 1] >>> 63), upEast = (up >>> 1) | (rows[i + 1] << 63);
+        long west = (mid << 1) | (rows[width + i - 1] >>> 63), east = (mid >>> 1) | (rows[width + i + 1] << 63);
+        long downWest = (down << 1) | (rows[2 * width + i - 1] >>> 63), downEast = (down >>> 1) | (rows[2 * width + i + 1] << 63);
+        long word = conway ? BitGrid.nextWord(upWest, up, upEast, west, mid, east, downWest, down, downEast)
+                           : BitGrid.nextWord(birth, survival, upWest, up, upEast, west, mid, east, downWest, down, downEast);
+        next[y * WORDS_PER_ROW + w] = word;
+        count += Long.bitCount(word);
+      }
+    }
+    nextPopulation = count;
+    nextEdges = count == 0 ? 0 : findEdges(next);
+  }
+
+  /**
+   * Makes the generation written by step the current one. This can only be called
+   * once every chunk has been stepped since the neighbors read the current cells.
+   */
+  void swap()
+  {
+    long[] swap = cells;
+    cells = nextCells;
+    nextCells = swap;
+    population = nextPopulation;
+    edges = nextEdges;
+    emptyGenerations = population == 0 ? emptyGenerations + 1 : 0;
+  }
+
+  /**
+   * Checks if the chunk can be dropped after a step: it has to have been empty for
+   * the given number of generations and none of its neighbors can have live cells
+   * facing it (otherwise it would just be created again on the next step). The
+   * neighbors looked up for the step are forgotten afterwards so that chunks the
+   * engine drops can be collected.
+   *
+   * @param releaseAfter number of empty generations in a row before a chunk is released
+   * @return true if the chunk can be removed from the world
+   */
+  boolean finishStep(int releaseAfter)
+  {
+    boolean release = emptyGenerations >= releaseAfter && !isFacingLife();
+    Arrays.fill(NEIGHBORS, null);
+    return release;
+  }
+
+  /**
+   * Checks if any neighbor has live cells on the edge or corner that touches this chunk.
+   */
+  private boolean isFacingLife()
+  {
+    for (int d = 0; d < 8; d++)
+    {
+      // neighbor d touches this chunk with the edge that faces back the other way (7 - d)
+      if (NEIGHBORS[d] != null && (NEIGHBORS[d].edges & (1 << (7 - d))) != 0) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Copies row y (-1 to SIZE) of the area around the chunk into the scratch rows,
+   * with the last word of the row to the west before it and the first word of the
+   * row to the east after it.
+   */
+  private void loadRow(long[] rows, int offset, int y)
+  {
+    Chunk center = this, west = NEIGHBORS[W], east = NEIGHBORS[E];
+    if (y < 0)
+    {
+      center = NEIGHBORS[N];
+      west = NEIGHBORS[NW];
+      east = NEIGHBORS[NE];
+      y = SIZE - 1;
+    }
+    else if (y >= SIZE)
+    {
+      center = NEIGHBORS[S];
+      west = NEIGHBORS[SW];
+      east = NEIGHBORS[SE];
+      y = 0;
+    }
+    final int row = y * WORDS_PER_ROW;
+    rows[offset] = west == null ? 0 : west.cells[row + WORDS_PER_ROW - 1];
+    if (center == null) Arrays.fill(rows, offset + 1, offset + 1 + WORDS_PER_ROW, 0L);
+    else System.arraycopy(center.cells, row, rows, offset + 1, WORDS_PER_ROW);
+    rows[offset + WORDS_PER_ROW + 1] = east == null ? 0 : east.cells[row];
+  }
+
+  /**
+   * Finds which edges and corners of a generation have live cells on them.
+   */
+  private static int findEdges(long[] cells)
+  {
+    final int last = (SIZE - 1) * WORDS_PER_ROW;
+    long top = 0, bottom = 0, left = 0, right = 0;
+    for (int w = 0; w < WORDS_PER_ROW; w++)
+    {
+      top |= cells[w];
+      bottom |= cells[last + w];
+    }
+    for (int row = 0; row <= last; row += WORDS_PER_ROW)
+    {
+      left |= cells[row];
+      right |= cells[row + WORDS_PER_ROW - 1];
+    }
+    int edges = 0;
+    if (top != 0) edges |= 1 << N;
+    if (bottom != 0) edges |= 1 << S;
+    if ((left & 1L) != 0) edges |= 1 << W;
+    if ((right >>> 63) != 0) edges |= 1 << E;
+    if ((cells[0] & 1L) != 0) edges |= 1 << NW;
+    if ((cells[WORDS_PER_ROW - 1] >>> 63) != 0) edges |= 1 << NE;
+    if ((cells[last] & 1L) != 0) edges |= 1 << SW;
+    if ((cells[last + WORDS_PER_ROW - 1] >>> 63) != 0) edges |= 1 << SE;
+    return edges;
+  }
+}
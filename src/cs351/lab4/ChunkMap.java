@@ -0,0 +1,166 @@
+package cs351.lab4;
+
+/**
+ * Hash map from a chunk's packed (x, y) key to the chunk, used by the ChunkedEngine.
+ * Keys are stored in a plain long[] with open addressing and linear probing, so
+ * looking a chunk up never boxes its key and the whole table is two flat arrays.
+ * A slot is in use when its chunk is not null, which leaves every long free to be
+ * a key. Removal shifts the rest of the probe run back instead of leaving a marker
+ * behind, and the table shrinks again once most of its chunks are gone.
+ *
+ * This class is not thread-safe. The engine only changes it while no chunks are
+ * being stepped, and any number of threads can call get while it isn't changing.
+ *
+ * @author Justin Hall
+ */
+public final class ChunkMap
+{
+  private static final int MIN_CAPACITY = 16;
+  private long[] keys = new long[MIN_CAPACITY];
+  private Chunk[] chunks = new Chunk[MIN_CAPACITY];
+  private int size;
+
+  /**
+   * Packs a pair of chunk coordinates into a key.
+   *
+   * @param chunkX x-location of the chunk (in chunks)
+   * @param chunkY y-location of the chunk (in chunks)
+   * @return key for the chunk
+   */
+  public static long key(int chunkX, int chunkY)
+  {
+    return ((long)chunkX << 32) | (chunkY & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Gets the chunk with the given key.
+   *
+   * @param key key from ChunkMap.key
+   * @return chunk or null if there is none
+   */
+  public Chunk get(long key)
+  {
+    final int mask = keys.length - 1;
+    for (int slot = slot(key, mask); chunks[slot] != null; slot = (slot + 1) & mask)
+    {
+      if (keys[slot] == key) return chunks[slot];
+    }
+    return null;
+  }
+
+  /**
+   * Adds a chunk under the given key, replacing any chunk that was already there.
+   *
+   * @param key key from ChunkMap.key
+   * @param chunk chunk to add (not null)
+   */
+  public void put(long key, Chunk chunk)
+  {
+    int mask = keys.length - 1;
+    int slot = slot(key, mask);
+    while (chunks[slot] != null && keys[slot] != key) slot = (slot + 1) & mask;
+    if (chunks[slot] == null) ++size;
+    keys[slot] = key;
+    chunks[slot] = chunk;
+    // kept at most half full so the probe runs stay short
+    if (size * 2 > keys.length) resize(keys.length << 1);
+  }
+
+  /**
+   * Removes the chunk with the given key.
+   *
+   * @param key key from ChunkMap.key
+   * @return chunk that was removed or null if there was none
+   */
+  public Chunk remove(long key)
+  {
+    final int mask = keys.length - 1;
+    int slot = slot(key, mask);
+    while (chunks[slot] != null && keys[slot] != key) slot = (slot + 1) & mask;
+    Chunk removed = chunks[slot];
+    if (removed == null) return null;
+    // move every later entry of the run that would no longer be found back into the hole
+    for (int next = (slot + 1) & mask; chunks[next] != null; next = (next + 1) & mask)
+    {
+      int home = slot(keys[next], mask);
+      if (((next - home) & mask) >= ((next - slot) & mask))
+      {
+        keys[slot] = keys[next];
+        chunks[slot] = chunks[next];
+        slot = next;
+      }
+    }
+    chunks[slot] = null;
+    --size;
+    if (size * 8 < keys.length && keys.length > MIN_CAPACITY) resize(keys.length >> 1);
+    return removed;
+  }
+
+  /**
+   * Gets the number of chunks in the map.
+   *
+   * @return chunk count
+   */
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * Copies every chunk in the map into a new array (in no particular order).
+   *
+   * @return array of size() chunks
+   */
+  public Chunk[] toArray()
+  {
+    Chunk[] all = new Chunk[size];
+    int next = 0;
+    for (Chunk chunk : chunks) if (chunk != null) all[next++] = chunk;
+    return all;
+  }
+
+  /**
+   * Removes every chunk and shrinks the table back to its starting size.
+   */
+  public void clear()
+  {
+    keys = new long[MIN_CAPACITY];
+    chunks = new Chunk[MIN_CAPACITY];
+    size = 0;
+  }
+
+  /**
+   * Moves every entry into a table of the given capacity (a power of two).
+   */
+  private void resize(int capacity)
+  {
+    long[] oldKeys = keys;
+    Chunk[] oldChunks = chunks;
+    keys = new long[capacity];
+    chunks = new Chunk[capacity];
+    final int mask = capacity - 1;
+    for (int i = 0; i < oldKeys.length; i++)
+    {
+      if (oldChunks[i] == null) continue;
+      int slot = slot(oldKeys[i], mask);
+      while (chunks[slot] != null) slot = (slot + 1) & mask;
+      keys[slot] = oldKeys[i];
+      chunks[slot] = oldChunks[i];
+    }
+  }
+
+  /**
+   * Finds the first slot to probe for a key. Neighboring chunks have keys that only
+   * differ in their low bits, so the key is mixed (the 64-bit finalizer from
+   * MurmurHash3) before it is masked.
+   */
+  private static int slot(long key, int mask)
+  {
+    key ^= key >>> 33;
+    key *= 0xFF51AFD7ED558CCDL;
+    key ^= key >>> 33;
+    key *= 0xC4CEB9FE1A85EC53L;
+    key ^= key >>> 33;
+    return (int)key & mask;
+  }
+}
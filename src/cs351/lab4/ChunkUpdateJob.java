@@ -0,0 +1,58 @@
+package cs351.lab4;
+
+import cs351.job.Job;
+
+/**
+ * Job used by the ChunkedEngine to step a slice of its chunks one generation. It
+ * looks up each chunk's 8 neighbors (the chunk map is not changed while the jobs
+ * run, so the lookups need no locking) and then writes the chunk's next generation
+ * into its second array. None of the chunks are swapped until every job is done.
+ *
+ * @author Justin Hall
+ */
+public class ChunkUpdateJob extends Job
+{
+  private final ChunkMap CHUNKS;
+  private final Chunk[] SLICE;
+  private final int START, END;
+  private final Rule RULE;
+  // scratch rows for Chunk.step
+  private final long[] ROWS = new long[3 * (Chunk.WORDS_PER_ROW + 2)];
+
+  /**
+   * Creates the job for one generation.
+   *
+   * @param chunks map the neighbors are looked up in
+   * @param slice array of chunks to step
+   * @param start first element of the array to step (inclusive)
+   * @param end element of the array to stop at (exclusive)
+   * @param rule rule to run (without dying states)
+   */
+  public ChunkUpdateJob(ChunkMap chunks, Chunk[] slice, int start, int end, Rule rule)
+  {
+    CHUNKS = chunks;
+    SLICE = slice;
+    START = start;
+    END = end;
+    RULE = rule;
+  }
+
+  /**
+   * Steps every chunk in the slice.
+   *
+   * @param threadID integer id for the thread the job is being executed on
+   */
+  @Override
+  public void run(int threadID)
+  {
+    for (int i = START; i < END; i++)
+    {
+      Chunk chunk = SLICE[i];
+      for (int d = 0; d < 8; d++)
+      {
+        chunk.NEIGHBORS[d] = CHUNKS.get(ChunkMap.key(chunk.CHUNK_X + Chunk.NEIGHBOR_X[d], chunk.CHUNK_Y + Chunk.NEIGHBOR_Y[d]));
+      }
+      chunk.step(RULE, ROWS);
+    }
+  }
+}
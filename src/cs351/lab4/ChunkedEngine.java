@@ -0,0 +1,459 @@
+package cs351.lab4;
+
+import cs351.job.Job;
+import cs351.job.JobScheduler;
+import cs351.job.JobSystem;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Unbounded version of the simulation. The world is cut into Chunk.SIZE x Chunk.SIZE
+ * chunks that are only allocated where there is something alive, and they are kept
+ * in a ChunkMap keyed by their packed coordinates. Before each generation every
+ * chunk with live cells on an edge gets the neighbor across that edge (if it doesn't
+ * have one yet), then all of the chunks are stepped in parallel on a JobSystem, and
+ * finally chunks that have been empty for a while (and have nothing alive next to
+ * them) are released. Memory use follows the number of chunks with live cells in
+ * them instead of the area the pattern has spread over, which is what lets patterns
+ * grow without ever hitting an edge.
+ *
+ * Cells are addressed with long coordinates, but chunk coordinates have to fit in an
+ * int, so the world runs from -2^39 to 2^39 - 1 in both directions. Like the
+ * HashlifeEngine, any region can be copied into a SimulationEngine so that the
+ * GameUI can render it (see ChunkedViewport).
+ *
+ * @author Justin Hall
+ */
+public class ChunkedEngine
+{
+  // chunks that stay empty for this many generations are released unless a neighbor faces them with live cells
+  public static final int DEFAULT_RELEASE_AFTER = 8;
+  // each thread gets this many slices of the chunks so a slow slice doesn't hold up the generation
+  private static final int JOBS_PER_THREAD = 4;
+  private static final long MIN_COORDINATE = (long)Integer.MIN_VALUE << Chunk.SHIFT;
+  private static final long MAX_COORDINATE = ((long)Integer.MAX_VALUE << Chunk.SHIFT) | (Chunk.SIZE - 1);
+  private final ReentrantLock LOCK = new ReentrantLock();
+  private final ChunkMap CHUNKS = new ChunkMap();
+  private Rule rule = Rule.CONWAY;
+  private int releaseAfter = DEFAULT_RELEASE_AFTER;
+  private JobScheduler jobSystem;
+  private int numThreads;
+  private boolean isStarted = false;
+  private long generation = 0;
+  private long population = 0;
+
+  /**
+   * Starts the job system the chunks are stepped on.
+   *
+   * @param numThreads number of threads to ask the job system to create
+   */
+  public void init(int numThreads)
+  {
+    LOCK.lock();
+    try
+    {
+      if (isStarted) throw new RuntimeException("Engine was already started");
+      isStarted = true;
+      this.numThreads = numThreads;
+      jobSystem = new JobSystem(numThreads);
+      jobSystem.start();
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Stops the job system.
+   */
+  public void shutdown()
+  {
+    LOCK.lock();
+    try
+    {
+      if (!isStarted) throw new RuntimeException("Engine was not started");
+      isStarted = false;
+      jobSystem.stop(false);
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Sets the rule the world is run with.
+   *
+   * @param rule rule to run
+   * @throws IllegalArgumentException if the rule has dying states (chunks only store one bit per cell)
+   */
+  public void setRule(Rule rule)
+  {
+    if (rule.getDyingStates() > 0) throw new IllegalArgumentException("Generations rules (" + rule + ") are not supported by chunked worlds");
+    LOCK.lock();
+    try
+    {
+      this.rule = rule;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Gets the rule the world is run with.
+   *
+   * @return current rule
+   */
+  public Rule getRule()
+  {
+    LOCK.lock();
+    try
+    {
+      return rule;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Sets how many generations in a row a chunk has to be empty before it is
+   * released. Keeping empty chunks around for a few generations saves reallocating
+   * them when an oscillator or a passing spaceship keeps reaching into them.
+   *
+   * @param releaseAfter number of empty generations (at least 1)
+   */
+  public void setReleaseAfter(int releaseAfter)
+  {
+    LOCK.lock();
+    try
+    {
+      this.releaseAfter = Math.max(releaseAfter, 1);
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of generations the world has been advanced.
+   *
+   * @return generation count
+   */
+  public long getGeneration()
+  {
+    LOCK.lock();
+    try
+    {
+      return generation;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of live cells in the world.
+   *
+   * @return population
+   */
+  public long getPopulation()
+  {
+    LOCK.lock();
+    try
+    {
+      return population;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of chunks that are allocated. Each one holds two generations
+   * of Chunk.SIZE * Chunk.SIZE bits (16 KB for 256 x 256 chunks).
+   *
+   * @return allocated chunk count
+   */
+  public int getNumChunks()
+  {
+    LOCK.lock();
+    try
+    {
+      return CHUNKS.size();
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Sets a single cell. The chunk holding it is allocated if the cell is made alive
+   * and there isn't one yet.
+   *
+   * @param x x-location
+   * @param y y-location
+   * @param alive true to make the cell alive and false to kill it
+   * @throws IllegalArgumentException if (x, y) is outside of the world
+   */
+  public void setCell(long x, long y, boolean alive)
+  {
+    checkCoordinates(x, y);
+    LOCK.lock();
+    try
+    {
+      Chunk chunk = CHUNKS.get(ChunkMap.key((int)(x >> Chunk.SHIFT), (int)(y >> Chunk.SHIFT)));
+      if (chunk == null && !alive) return;
+      else if (chunk == null)
+      {
+        chunk = new Chunk((int)(x >> Chunk.SHIFT), (int)(y >> Chunk.SHIFT));
+        CHUNKS.put(chunk.KEY, chunk);
+      }
+      population += chunk.setAlive((int)x & (Chunk.SIZE - 1), (int)y & (Chunk.SIZE - 1), alive);
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Checks if the cell at (x, y) is alive.
+   *
+   * @param x x-location
+   * @param y y-location
+   * @return true if alive and false if not (or if (x, y) is outside of the world)
+   */
+  public boolean isAlive(long x, long y)
+  {
+    if (x < MIN_COORDINATE || x > MAX_COORDINATE || y < MIN_COORDINATE || y > MAX_COORDINATE) return false;
+    LOCK.lock();
+    try
+    {
+      Chunk chunk = CHUNKS.get(ChunkMap.key((int)(x >> Chunk.SHIFT), (int)(y >> Chunk.SHIFT)));
+      return chunk != null && chunk.isAlive((int)x & (Chunk.SIZE - 1), (int)y & (Chunk.SIZE - 1));
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Releases every chunk and resets the generation count.
+   */
+  public void clear()
+  {
+    LOCK.lock();
+    try
+    {
+      CHUNKS.clear();
+      generation = 0;
+      population = 0;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Advances the world by the given number of generations and blocks until they
+   * are done.
+   *
+   * @param generations number of generations to run
+   * @throws InterruptedException if the calling thread is interrupted while waiting
+   */
+  public void step(long generations) throws InterruptedException
+  {
+    LOCK.lock();
+    try
+    {
+      if (!isStarted) throw new RuntimeException("Engine not started");
+      for (long i = 0; i < generations; i++) stepChunks();
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Copies a width x height region with its upper-left corner at (x, y) into the given
+   * array (row-major, 1 for alive and 0 for dead). Only the chunks that overlap the
+   * region are looked at.
+   *
+   * @param x left edge of the region
+   * @param y top edge of the region
+   * @param width width of the region
+   * @param height height of the region
+   * @param out array of at least width * height elements
+   */
+  public void exportRegion(long x, long y, int width, int height, byte[] out)
+  {
+    LOCK.lock();
+    try
+    {
+      Arrays.fill(out, 0, width * height, (byte)0);
+      if (width <= 0 || height <= 0) return;
+      long firstX = Math.max(x, MIN_COORDINATE), lastX = Math.min(x + width - 1, MAX_COORDINATE);
+      long firstY = Math.max(y, MIN_COORDINATE), lastY = Math.min(y + height - 1, MAX_COORDINATE);
+      for (long chunkY = firstY >> Chunk.SHIFT; chunkY <= lastY >> Chunk.SHIFT; chunkY++)
+      {
+        for (long chunkX = firstX >> Chunk.SHIFT; chunkX <= lastX >> Chunk.SHIFT; chunkX++)
+        {
+          Chunk chunk = CHUNKS.get(ChunkMap.key((int)chunkX, (int)chunkY));
+          if (chunk != null && chunk.getPopulation() > 0) exportChunk(chunk, x, y, width, height, out);
+        }
+      }
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Copies the region of the world starting at (viewX, viewY) into the given engine
+   * so that it can be rendered. The engine must be locked and paused.
+   *
+   * @param engine SimulationEngine to copy into
+   * @param viewX world x-value that maps to engine x = 0
+   * @param viewY world y-value that maps to engine y = 0
+   */
+  public void exportTo(SimulationEngine engine, long viewX, long viewY)
+  {
+    final int BAND_HEIGHT = 256;
+    int width = engine.getWorldWidth();
+    int height = engine.getWorldHeight();
+    byte[] band = new byte[width * Math.min(BAND_HEIGHT, height)];
+    for (int yStart = 0; yStart < height; yStart += BAND_HEIGHT)
+    {
+      int rows = Math.min(BAND_HEIGHT, height - yStart);
+      exportRegion(viewX, viewY + yStart, width, rows, band);
+      engine.copyRectIn(0, yStart, width, rows, band, 0, width);
+    }
+  }
+
+  /**
+   * Replaces the world with the live cells of the given engine, with engine (0, 0)
+   * placed at world (0, 0). The engine must be locked.
+   *
+   * @param engine SimulationEngine to copy from
+   */
+  public void importFrom(SimulationEngine engine)
+  {
+    final int width = engine.getWorldWidth();
+    byte[] row = new byte[width];
+    LOCK.lock();
+    try
+    {
+      clear();
+      for (int y = 0; y < engine.getWorldHeight(); y++)
+      {
+        engine.copyRectOut(0, y, width, 1, row, 0, width);
+        for (int x = 0; x < width; x++)
+        {
+          if (row[x] > 0) setCell(x, y, true);
+        }
+      }
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Runs one generation: grows the world where live cells reach the edge of a chunk,
+   * steps every chunk in parallel, swaps them all, and then releases the chunks that
+   * have stayed empty.
+   */
+  private void stepChunks() throws InterruptedException
+  {
+    for (Chunk chunk : CHUNKS.toArray()) growAround(chunk);
+    Chunk[] chunks = CHUNKS.toArray();
+    if (chunks.length > 0)
+    {
+      int numJobs = Math.min(chunks.length, numThreads * JOBS_PER_THREAD);
+      Job[] jobs = new Job[numJobs];
+      for (int i = 0; i < numJobs; i++)
+      {
+        int start = (int)((long)chunks.length * i / numJobs);
+        int end = (int)((long)chunks.length * (i + 1) / numJobs);
+        jobs[i] = new ChunkUpdateJob(CHUNKS, chunks, start, end, rule);
+      }
+      jobSystem.runAndWait(jobs);
+    }
+    population = 0;
+    for (Chunk chunk : chunks)
+    {
+      chunk.swap();
+      population += chunk.getPopulation();
+    }
+    for (Chunk chunk : chunks)
+    {
+      if (chunk.finishStep(releaseAfter)) CHUNKS.remove(chunk.KEY);
+    }
+    ++generation;
+  }
+
+  /**
+   * Allocates the neighbors that a chunk's live edge cells could cause births in.
+   */
+  private void growAround(Chunk chunk)
+  {
+    int edges = chunk.getEdges();
+    for (int d = 0; d < 8; d++)
+    {
+      if ((edges & (1 << d)) == 0) continue;
+      int chunkX = chunk.CHUNK_X + Chunk.NEIGHBOR_X[d], chunkY = chunk.CHUNK_Y + Chunk.NEIGHBOR_Y[d];
+      // the world ends where the chunk coordinates would overflow
+      if (chunkX != (long)chunk.CHUNK_X + Chunk.NEIGHBOR_X[d] || chunkY != (long)chunk.CHUNK_Y + Chunk.NEIGHBOR_Y[d]) continue;
+      long key = ChunkMap.key(chunkX, chunkY);
+      if (CHUNKS.get(key) == null) CHUNKS.put(key, new Chunk(chunkX, chunkY));
+    }
+  }
+
+  /**
+   * Copies the live cells of one chunk that fall inside a region into the region's array.
+   */
+  private void exportChunk(Chunk chunk, long x, long y, int width, int height, byte[] out)
+  {
+    final long[] cells = chunk.getCells();
+    final long chunkLeft = (long)chunk.CHUNK_X << Chunk.SHIFT, chunkTop = (long)chunk.CHUNK_Y << Chunk.SHIFT;
+    int rowStart = (int)(Math.max(y, chunkTop) - chunkTop), rowEnd = (int)(Math.min(y + height, chunkTop + Chunk.SIZE) - chunkTop);
+    int cellStart = (int)(Math.max(x, chunkLeft) - chunkLeft), cellEnd = (int)(Math.min(x + width, chunkLeft + Chunk.SIZE) - chunkLeft);
+    for (int row = rowStart; row < rowEnd; row++)
+    {
+      int index = (int)((chunkTop + row - y) * width + (chunkLeft - x));
+      for (int w = cellStart >>> 6; w <= (cellEnd - 1) >>> 6; w++)
+      {
+        for (long bits = cells[row * Chunk.WORDS_PER_ROW + w]; bits != 0; bits &= bits - 1)
+        {
+          int cell = w * BitGrid.BITS_PER_WORD + Long.numberOfTrailingZeros(bits);
+          if (cell >= cellStart && cell < cellEnd) out[index + cell] = 1;
+        }
+      }
+    }
+  }
+
+  /**
+   * Makes sure (x, y) is inside the world.
+   */
+  private static void checkCoordinates(long x, long y)
+  {
+    if (x < MIN_COORDINATE || x > MAX_COORDINATE || y < MIN_COORDINATE || y > MAX_COORDINATE)
+    {
+      throw new IllegalArgumentException("(" + x + ", " + y + ") is outside of the world");
+    }
+  }
+}
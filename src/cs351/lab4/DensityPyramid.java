@@ -0,0 +1,187 @@
+package cs351.lab4;
+
+/**
+ * Live-cell counts for square blocks of cells at every power of two from
+ * 2^BASE_SHIFT up to a single block covering the whole board. Each byte buffer in
+ * the SimulationEngine has one of these. The levels up to the tile size are
+ * recomputed by the update jobs for each tile they write, and the coarser levels
+ * are rebuilt from the tile level once the frame is done. Drawing the board
+ * zoomed out then costs one lookup per pixel no matter how many cells each
+ * pixel covers.
+ *
+ * @author Justin Hall
+ */
+public class DensityPyramid
+{
+  public static final int BASE_SHIFT = 3;
+  private final int WIDTH, HEIGHT;
+  private final int TILE_SHIFT;
+  private final int MAX_SHIFT;
+  // COUNTS[shift - BASE_SHIFT] holds the counts for 2^shift x 2^shift blocks in row-major order
+  private final int[][] COUNTS;
+  private final int[] LEVEL_WIDTHS, LEVEL_HEIGHTS;
+
+  /**
+   * Creates an empty pyramid (every count is 0).
+   *
+   * @param width width of the board
+   * @param height height of the board
+   * @param tileShift log2 of the engine's tile size (must be at least BASE_SHIFT)
+   */
+  public DensityPyramid(int width, int height, int tileShift)
+  {
+    if (tileShift < BASE_SHIFT) throw new IllegalArgumentException("Tiles must be at least " + (1 << BASE_SHIFT) + " cells wide");
+    WIDTH = width;
+    HEIGHT = height;
+    TILE_SHIFT = tileShift;
+    int maxShift = TILE_SHIFT;
+    while ((1 << maxShift) < Math.max(width, height)) maxShift++;
+    MAX_SHIFT = maxShift;
+    int numLevels = MAX_SHIFT - BASE_SHIFT + 1;
+    COUNTS = new int[numLevels][];
+    LEVEL_WIDTHS = new int[numLevels];
+    LEVEL_HEIGHTS = new int[numLevels];
+    for (int i = 0; i < numLevels; i++)
+    {
+      int blockSize = 1 << (i + BASE_SHIFT);
+      LEVEL_WIDTHS[i] = (width + blockSize - 1) / blockSize;
+      LEVEL_HEIGHTS[i] = (height + blockSize - 1) / blockSize;
+      COUNTS[i] = new int[LEVEL_WIDTHS[i] * LEVEL_HEIGHTS[i]];
+    }
+  }
+
+  /**
+   * Gets log2 of the size of the block at the top of the pyramid.
+   *
+   * @return largest valid shift
+   */
+  public int getMaxShift()
+  {
+    return MAX_SHIFT;
+  }
+
+  /**
+   * Gets the number of blocks across one level.
+   *
+   * @param shift log2 of the block size (BASE_SHIFT to getMaxShift())
+   * @return number of blocks per row
+   */
+  public int getLevelWidth(int shift)
+  {
+    return LEVEL_WIDTHS[shift - BASE_SHIFT];
+  }
+
+  /**
+   * Gets the number of blocks down one level.
+   *
+   * @param shift log2 of the block size (BASE_SHIFT to getMaxShift())
+   * @return number of block rows
+   */
+  public int getLevelHeight(int shift)
+  {
+    return LEVEL_HEIGHTS[shift - BASE_SHIFT];
+  }
+
+  /**
+   * Gets the number of live cells in a block. The block coordinates are not checked.
+   *
+   * @param shift log2 of the block size (BASE_SHIFT to getMaxShift())
+   * @param bx block column
+   * @param by block row
+   * @return live cells in the block
+   */
+  public int getCount(int shift, int bx, int by)
+  {
+    return COUNTS[shift - BASE_SHIFT][by * LEVEL_WIDTHS[shift - BASE_SHIFT] + bx];
+  }
+
+  /**
+   * Recomputes the levels from BASE_SHIFT up to the tile size for one tile.
+   *
+   * @param cells row-major buffer with a one cell border of padding
+   * @param tx tile column
+   * @param ty tile row
+   */
+  public void updateTile(byte[] cells, int tx, int ty)
+  {
+    final int stride = WIDTH + 2;
+    final int blockSize = 1 << BASE_SHIFT;
+    final int[] base = COUNTS[0];
+    final int baseWidth = LEVEL_WIDTHS[0];
+    int xStart = tx << TILE_SHIFT, yStart = ty << TILE_SHIFT;
+    int xEnd = Math.min(xStart + (1 << TILE_SHIFT), WIDTH);
+    int yEnd = Math.min(yStart + (1 << TILE_SHIFT), HEIGHT);
+    for (int by = yStart >> BASE_SHIFT; by << BASE_SHIFT < yEnd; by++)
+    {
+      int rowEnd = Math.min((by + 1) << BASE_SHIFT, yEnd);
+      for (int bx = xStart >> BASE_SHIFT; bx << BASE_SHIFT < xEnd; bx++)
+      {
+        int colStart = bx << BASE_SHIFT;
+        int colEnd = Math.min(colStart + blockSize, xEnd);
+        int count = 0;
+        for (int y = by << BASE_SHIFT; y < rowEnd; y++)
+        {
+          for (int index = (y + 1) * stride + colStart + 1, end = index + colEnd - colStart; index < end; index++)
+          {
+            count += (-cells[index]) >>> 31;
+          }
+        }
+        base[by * baseWidth + bx] = count;
+      }
+    }
+    for (int shift = BASE_SHIFT + 1; shift <= TILE_SHIFT && shift <= MAX_SHIFT; shift++)
+    {
+      sumChildren(shift, xStart >> shift, yStart >> shift, ((xEnd - 1) >> shift) + 1, ((yEnd - 1) >> shift) + 1);
+    }
+  }
+
+  /**
+   * Makes this pyramid an exact copy of another pyramid for a board of the same size.
+   *
+   * @param other pyramid to copy
+   */
+  public void copyFrom(DensityPyramid other)
+  {
+    for (int i = 0; i < COUNTS.length; i++) System.arraycopy(other.COUNTS[i], 0, COUNTS[i], 0, COUNTS[i].length);
+  }
+
+  /**
+   * Rebuilds every level above the tile size from the tile level.
+   */
+  public void updateCoarseLevels()
+  {
+    for (int shift = TILE_SHIFT + 1; shift <= MAX_SHIFT; shift++)
+    {
+      sumChildren(shift, 0, 0, getLevelWidth(shift), getLevelHeight(shift));
+    }
+  }
+
+  /**
+   * Sets each block in [bxStart, bxEnd) x [byStart, byEnd) of a level to the sum of
+   * its (up to) four children in the level below.
+   */
+  private void sumChildren(int shift, int bxStart, int byStart, int bxEnd, int byEnd)
+  {
+    final int[] parent = COUNTS[shift - BASE_SHIFT];
+    final int[] child = COUNTS[shift - BASE_SHIFT - 1];
+    final int parentWidth = LEVEL_WIDTHS[shift - BASE_SHIFT];
+    final int childWidth = LEVEL_WIDTHS[shift - BASE_SHIFT - 1];
+    final int childHeight = LEVEL_HEIGHTS[shift - BASE_SHIFT - 1];
+    for (int by = byStart; by < byEnd; by++)
+    {
+      int cy = by << 1;
+      for (int bx = bxStart; bx < bxEnd; bx++)
+      {
+        int cx = bx << 1;
+        int sum = child[cy * childWidth + cx];
+        if (cx + 1 < childWidth) sum += child[cy * childWidth + cx + 1];
+        if (cy + 1 < childHeight)
+        {
+          sum += child[(cy + 1) * childWidth + cx];
+          if (cx + 1 < childWidth) sum += child[(cy + 1) * childWidth + cx + 1];
+        }
+        parent[by * parentWidth + bx] = sum;
+      }
+    }
+  }
+}
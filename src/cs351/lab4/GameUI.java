@@ -1,6 +1,7 @@
 package cs351.lab4;
 
 import javafx.collections.ObservableList;
+import javafx.geometry.Pos;
 import javafx.scene.Group;
 import javafx.scene.Scene;
 import javafx.scene.canvas.Canvas;
@@ -9,11 +10,14 @@ import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
 import javafx.scene.control.TextField;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
+import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.stage.Stage;
@@ -29,6 +33,8 @@ public class GameUI
   private int windowWidth, windowHeight;
   private int canvasWidth, canvasHeight;
   private int zoom;
+  // once zoom is at its minimum, scrolling out further shows 2^zoomOutShift cells per pixel
+  private int zoomOutShift = 0;
   private final int MIN_VIEW_OFFSET = 0;
   private int viewXOffset = MIN_VIEW_OFFSET, viewYOffset = MIN_VIEW_OFFSET;
   private int prevX, prevY;
@@ -39,8 +45,17 @@ public class GameUI
   private final HBox BUTTON_ROW_HORIZONTAL = new HBox();
   private final SimulationEngine ENGINE;
   private final ObservableList<World> PRESETS;
-  private Color[] availableColors = null;
+  // null until setRenderingColorsBasedOnAge is called
+  private ViewportRasterizer rasterizer = null;
+  private WritableImage image = null;
   private volatile boolean needsUpdate = true;
+  // last snapshot drawn - a pulse with nothing new to show and no view changes draws nothing
+  private GridSnapshot renderedSnapshot = null;
+  // the gens/sec and fps readout is recomputed over windows of this length
+  private final long RATE_WINDOW_NANOS = 500_000_000L;
+  private final Label RATE_LABEL = new Label("0 gens/s  0 fps");
+  private long rateWindowStart = 0, rateWindowGeneration = 0;
+  private int rateWindowFrames = 0;
   private boolean mouseDragged = false;
   // holds all of the presets after the UI is initialized
   private final ListView<World> PRESET_LIST = new ListView<>();
@@ -71,6 +86,7 @@ public class GameUI
     STAGE.setOnCloseRequest((e) -> signalClose());
 
     BUTTON_ROW_HORIZONTAL.setSpacing(STANDARD_BUTTON_SPACING);
+    BUTTON_ROW_HORIZONTAL.setAlignment(Pos.CENTER_LEFT);
     BorderPane layout = new BorderPane();
     Group root = new Group();
     canvas = new Canvas(width, height);
@@ -93,17 +109,30 @@ public class GameUI
   /**
    * This is the main entry point for this class and should be called as much as
    * possible (up to screen refresh rate) for the UI to have a responsive feel.
+   * The engine runs generations on its own threads and never waits for the UI, so
+   * each call just draws whichever generation finished last - any that finished
+   * since the previous call are skipped - and draws nothing if neither the board
+   * nor the view changed.
    */
   public void update()
   {
-    // if prevFrameComplete is true at the start of this, the engine has already
-    // swapped its buffers so that the renderer will see the latest version and it
-    // can stop updating after this rendering call
-    boolean prevFrameComplete = ENGINE.previousFrameCompleted();
     adjustWindowDimensions();
     adjustViewOffsetsToZoom();
-    render(canvas.getGraphicsContext2D());
-    setNeedsUpdate(!prevFrameComplete);
+    GridSnapshot snapshot = ENGINE.getSnapshot();
+    if (snapshot != renderedSnapshot || needsUpdate)
+    {
+      setNeedsUpdate(false);
+      snapshot = ENGINE.pinSnapshot();
+      try
+      {
+        render(canvas.getGraphicsContext2D(), snapshot);
+      }
+      finally
+      {
+        ENGINE.releaseSnapshot(snapshot);
+      }
+    }
+    updateRateLabel(snapshot);
   }
 
   /**
@@ -125,7 +154,9 @@ public class GameUI
    */
   public void setRenderingColorsBasedOnAge(Color[] colors)
   {
-    availableColors = colors;
+    int[] palette = new int[colors.length];
+    for (int i = 0; i < colors.length; i++) palette[i] = toArgb(colors[i]);
+    rasterizer = new ViewportRasterizer(palette, toArgb(Color.WHITE), toArgb(Color.GRAY));
   }
 
   /**
@@ -157,53 +188,80 @@ public class GameUI
 
   /**
    * Takes a GraphicsContext object and tries to render the current state
-   * of the simulation. If the zoom is 5 and up, grid lines are drawn. If not
-   * it just draws the cells with their current age/death color.
+   * of the simulation. The visible cells are rasterized into an image (with
+   * grid lines if the zoom is 5 and up, or as a density map when zoomed out
+   * past one cell per pixel) which is then drawn in a single call.
    *
    * @param context GraphicsContext object to use for draw calls
+   * @param snapshot generation to draw (pinned)
    */
-  private void render(GraphicsContext context)
+  private void render(GraphicsContext context, GridSnapshot snapshot)
   {
-    if (ENGINE.isPaused() && !needsUpdate) return;
-    else if (availableColors == null) return;
-    context.setFill(Color.WHITE);
-    context.fillRect(0, 0, windowWidth, windowHeight);
-    context.setFill(Color.BLACK);
-    ENGINE.lock();
+    if (snapshot == null || rasterizer == null || canvasWidth <= 0 || canvasHeight <= 0) return;
+    if (image == null || (int)image.getWidth() != canvasWidth || (int)image.getHeight() != canvasHeight)
+    {
+      image = new WritableImage(canvasWidth, canvasHeight);
+    }
+    // the snapshot is pinned rather than the engine locked so the simulation keeps
+    // running while the frame is drawn
+    int[] pixels;
     try
     {
-      int numCellsX = windowWidth / zoom;
-      int numCellsY = windowHeight / zoom;
-      int totalWidth = viewXOffset + numCellsX < ENGINE.getWorldWidth() ? viewXOffset + numCellsX : ENGINE.getWorldWidth();
-      int totalHeight = viewYOffset + numCellsY < ENGINE.getWorldHeight() ? viewYOffset + numCellsY : ENGINE.getWorldHeight();
-      for (int x = viewXOffset; x < totalWidth; x++)
+      if (zoomOutShift > 0)
       {
-        for (int y = viewYOffset; y < totalHeight; y++)
-        {
-          int currX = (x - viewXOffset) * zoom - 1;
-          int currY = (y - viewYOffset) * zoom - 1;
-          int age = ENGINE.getAge(x, y);
-          if (zoom >= 5)
-          {
-            context.setFill(Color.GRAY);
-            context.fillRect(currX, currY, zoom, zoom);
-            context.setFill(availableColors[age]);
-            context.fillRect(currX + 1, currY + 1, zoom - 1, zoom - 1);
-          }
-          else if (age > 0)
-          {
-            context.setFill(availableColors[age]);
-            context.fillRect(currX, currY, zoom, zoom);
-          }
-        }
+        pixels = rasterizer.rasterizeZoomedOut(snapshot, canvasWidth, canvasHeight, zoomOutShift, viewXOffset, viewYOffset, ENGINE);
       }
+      else pixels = rasterizer.rasterize(snapshot, canvasWidth, canvasHeight, zoom, viewXOffset, viewYOffset, ENGINE);
     }
-    finally
+    catch (InterruptedException e)
     {
-      ENGINE.unlock();
+      Thread.currentThread().interrupt();
+      return;
+    }
+    image.getPixelWriter().setPixels(0, 0, canvasWidth, canvasHeight, PixelFormat.getIntArgbInstance(), pixels, 0, canvasWidth);
+    context.drawImage(image, 0, 0);
+    renderedSnapshot = snapshot;
+    ++rateWindowFrames;
+  }
+
+  /**
+   * Shows how many generations the engine finished and how many frames were drawn per
+   * second over the last RATE_WINDOW_NANOS. When the engine outruns the display the
+   * difference is the number of generations that were never drawn.
+   *
+   * @param snapshot latest snapshot
+   */
+  private void updateRateLabel(GridSnapshot snapshot)
+  {
+    long now = System.nanoTime();
+    long generation = snapshot == null ? 0 : snapshot.getGeneration();
+    if (rateWindowStart == 0 || now - rateWindowStart >= RATE_WINDOW_NANOS)
+    {
+      if (rateWindowStart != 0)
+      {
+        double seconds = (now - rateWindowStart) / 1_000_000_000.0;
+        // loading a preset can move the generation backwards
+        long generations = Math.max(generation - rateWindowGeneration, 0);
+        RATE_LABEL.setText(String.format("%.0f gens/s  %.0f fps", generations / seconds, rateWindowFrames / seconds));
+      }
+      rateWindowStart = now;
+      rateWindowGeneration = generation;
+      rateWindowFrames = 0;
     }
   }
 
+  /**
+   * Converts a color to a packed 0xAARRGGBB int.
+   *
+   * @param color color to convert
+   * @return packed ARGB value
+   */
+  private static int toArgb(Color color)
+  {
+    return (int)Math.round(color.getOpacity() * 255) << 24 | (int)Math.round(color.getRed() * 255) << 16 |
+           (int)Math.round(color.getGreen() * 255) << 8 | (int)Math.round(color.getBlue() * 255);
+  }
+
   /**
    * Sets up the play, pause, next, reset and settings buttons and then initializes
    * the settings panel by calling initSettings().
@@ -216,6 +274,8 @@ public class GameUI
     final Button NEXT = addButton("Next");
     final Button RESET = addButton("Reset");
     final Button SETTINGS = addButton("Settings");
+    RATE_LABEL.setMinWidth(Region.USE_PREF_SIZE);
+    BUTTON_ROW_HORIZONTAL.getChildren().add(RATE_LABEL);
     initSettings(SETTINGS);
 
     PLAY.setOnAction((e) ->
@@ -261,7 +321,7 @@ public class GameUI
   private void initSettings(Button settings)
   {
     final int WIDTH = 250;
-    final int HEIGHT = 265;
+    final int HEIGHT = 300;
     SETTINGS_STAGE.setTitle("Settings");
     SETTINGS_STAGE.setWidth(WIDTH);
     SETTINGS_STAGE.setHeight(HEIGHT);
@@ -269,13 +329,17 @@ public class GameUI
 
     final Label THREAD_LABEL = new Label("Threads ");
     final TextField THREAD_TEXT = new TextField();
+    final Label TARGET_RATE_LABEL = new Label("Gens/sec (0 = max) ");
+    final TextField TARGET_RATE_TEXT = new TextField();
     PRESET_LIST.setItems(PRESETS);
     PRESET_LIST.getSelectionModel().select(0); // set the default selection to the first element
     HBox threadRow = new HBox();
+    HBox rateRow = new HBox();
     VBox settingsCol = new VBox();
     settingsCol.setSpacing(STANDARD_BUTTON_SPACING);
     threadRow.getChildren().addAll(THREAD_LABEL, THREAD_TEXT);
-    settingsCol.getChildren().addAll(threadRow, new Label("Presets"), PRESET_LIST);
+    rateRow.getChildren().addAll(TARGET_RATE_LABEL, TARGET_RATE_TEXT);
+    settingsCol.getChildren().addAll(threadRow, rateRow, new Label("Presets"), PRESET_LIST);
 
     final Button apply = new Button("Apply");
     HBox applyButton = new HBox();
@@ -295,22 +359,26 @@ public class GameUI
     settings.setOnAction((e) ->
     {
       THREAD_TEXT.setText(Integer.toString(ENGINE.getNumThreads()));
+      TARGET_RATE_TEXT.setText(String.format("%.0f", ENGINE.getTargetGenerationsPerSecond()));
       SETTINGS_STAGE.hide();
       SETTINGS_STAGE.show();
     });
     apply.setOnAction((e) ->
     {
       int newNumThreads = 0;
+      double newRate = 0;
       SETTINGS_STAGE.hide();
       try
       {
         newNumThreads = Integer.parseInt(THREAD_TEXT.getText());
-        if (newNumThreads > 8) return;
+        newRate = Double.parseDouble(TARGET_RATE_TEXT.getText());
+        if (newNumThreads > 8 || newRate < 0) return;
       }
       catch (NumberFormatException ex)
       {
         return;
       }
+      ENGINE.setTargetGenerationsPerSecond(newRate);
       STAGE.hide();
       if (!ENGINE.isPaused()) ENGINE.togglePause(true, false);
       ENGINE.shutdown();
@@ -369,7 +437,7 @@ public class GameUI
    */
   private void mousePressedAndReleased(MouseEvent e)
   {
-    if (mouseDragged) return;
+    if (mouseDragged || zoomOutShift > 0) return;
     ENGINE.lock();
     try
     {
@@ -395,8 +463,8 @@ public class GameUI
   private void mouseDragged(MouseEvent e)
   {
     mouseDragged = true;
-    viewXOffset += prevX - (int)e.getX();
-    viewYOffset += prevY - (int)e.getY();
+    viewXOffset += (prevX - (int)e.getX()) << zoomOutShift;
+    viewYOffset += (prevY - (int)e.getY()) << zoomOutShift;
     adjustViewOffsetsToZoom();
     prevX = (int)e.getX();
     prevY = (int)e.getY();
@@ -405,7 +473,9 @@ public class GameUI
 
   /**
    * Whenever the mouse wheel is used, this function adjusts
-   * the zoom and viewing offsets so the user can zoom in and out.
+   * the zoom and viewing offsets so the user can zoom in and out. Past the
+   * minimum zoom each step out doubles the number of cells per pixel until the
+   * whole board fits on the canvas.
    *
    * @param e generated mouse event
    */
@@ -415,7 +485,15 @@ public class GameUI
     final int MIN_ZOOM = 1;
     int scrollAmnt = (int)(e.getDeltaY() / e.getDeltaY());
     if (e.getDeltaY() < 0) scrollAmnt *= -1;
-    zoom += scrollAmnt;
+    if (zoomOutShift > 0 || (zoom == MIN_ZOOM && scrollAmnt < 0))
+    {
+      zoomOutShift -= scrollAmnt;
+      int maxShift = 0;
+      while ((canvasWidth << maxShift) < ENGINE.getWorldWidth() || (canvasHeight << maxShift) < ENGINE.getWorldHeight()) maxShift++;
+      if (zoomOutShift > maxShift) zoomOutShift = maxShift;
+      else if (zoomOutShift < 0) zoomOutShift = 0;
+    }
+    else zoom += scrollAmnt;
     if (zoom > MAX_ZOOM) zoom = MAX_ZOOM;
     else if (zoom < MIN_ZOOM) zoom = MIN_ZOOM;
     adjustViewOffsetsToZoom();
@@ -428,12 +506,14 @@ public class GameUI
    */
   private void adjustViewOffsetsToZoom()
   {
-    final int MAX_VIEWX_OFFSET = (ENGINE.getWorldWidth() - canvasWidth / zoom);
-    final int MAX_VIEWY_OFFSET = (ENGINE.getWorldHeight() - canvasHeight / zoom);
-    if (viewXOffset < 0) viewXOffset = MIN_VIEW_OFFSET;
-    if (viewYOffset < 0) viewYOffset = MIN_VIEW_OFFSET;
+    final int VISIBLE_CELLS_X = zoomOutShift > 0 ? canvasWidth << zoomOutShift : canvasWidth / zoom;
+    final int VISIBLE_CELLS_Y = zoomOutShift > 0 ? canvasHeight << zoomOutShift : canvasHeight / zoom;
+    final int MAX_VIEWX_OFFSET = (ENGINE.getWorldWidth() - VISIBLE_CELLS_X);
+    final int MAX_VIEWY_OFFSET = (ENGINE.getWorldHeight() - VISIBLE_CELLS_Y);
     if (viewXOffset > MAX_VIEWX_OFFSET) viewXOffset = MAX_VIEWX_OFFSET;
     if (viewYOffset > MAX_VIEWY_OFFSET) viewYOffset = MAX_VIEWY_OFFSET;
+    if (viewXOffset < 0) viewXOffset = MIN_VIEW_OFFSET;
+    if (viewYOffset < 0) viewYOffset = MIN_VIEW_OFFSET;
   }
 
   /**
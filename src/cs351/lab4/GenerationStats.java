@@ -0,0 +1,112 @@
+package cs351.lab4;
+
+/**
+ * Population counts for one generation. The update jobs count the cells they change
+ * while writing the back buffer and the engine folds those counts into the totals
+ * from the previous generation when the frame finishes, so none of this needs a
+ * separate pass over the board.
+ *
+ * @author Justin Hall
+ */
+public class GenerationStats
+{
+  // cells this old or older all go in the last bucket of the histogram
+  public static final int MAX_AGE = 10;
+  private final long GENERATION;
+  private final long POPULATION;
+  private final long BIRTHS, DEATHS;
+  private final long[] AGE_HISTOGRAM;
+
+  /**
+   * Creates the stats for a generation.
+   *
+   * @param generation generation the counts are for
+   * @param population number of live cells
+   * @param births cells that came alive since the previous generation
+   * @param deaths cells that died since the previous generation
+   * @param ageHistogram number of cells of each age from 0 to MAX_AGE (copied)
+   */
+  public GenerationStats(long generation, long population, long births, long deaths, long[] ageHistogram)
+  {
+    GENERATION = generation;
+    POPULATION = population;
+    BIRTHS = births;
+    DEATHS = deaths;
+    AGE_HISTOGRAM = ageHistogram.clone();
+  }
+
+  /**
+   * Gets the generation these stats are for.
+   *
+   * @return generation number
+   */
+  public long getGeneration()
+  {
+    return GENERATION;
+  }
+
+  /**
+   * Gets the number of live cells.
+   *
+   * @return population
+   */
+  public long getPopulation()
+  {
+    return POPULATION;
+  }
+
+  /**
+   * Gets the number of cells that came alive in this generation. This is 0 if the
+   * board was edited since the previous generation.
+   *
+   * @return births
+   */
+  public long getBirths()
+  {
+    return BIRTHS;
+  }
+
+  /**
+   * Gets the number of cells that died in this generation. This is 0 if the
+   * board was edited since the previous generation.
+   *
+   * @return deaths
+   */
+  public long getDeaths()
+  {
+    return DEATHS;
+  }
+
+  /**
+   * Gets the number of cells with a given age (0 for dead cells). Bit-packed boards
+   * without an age plane report every live cell as age 1.
+   *
+   * @param age age from 0 to MAX_AGE (MAX_AGE includes anything older)
+   * @return number of cells with that age
+   */
+  public long getAgeCount(int age)
+  {
+    return AGE_HISTOGRAM[age];
+  }
+
+  /**
+   * Gets a copy of the age histogram.
+   *
+   * @return MAX_AGE + 1 counts where element i is the number of cells with age i
+   */
+  public long[] getAgeHistogram()
+  {
+    return AGE_HISTOGRAM.clone();
+  }
+
+  /**
+   * Makes this class usable in print statements and log lines.
+   *
+   * @return one line summary of the counts
+   */
+  @Override
+  public String toString()
+  {
+    return "generation " + GENERATION + ": population " + POPULATION + ", births " + BIRTHS + ", deaths " + DEATHS;
+  }
+}
@@ -0,0 +1,146 @@
+package cs351.lab4;
+
+/**
+ * Read-only view of one completed generation. The SimulationEngine publishes a new
+ * snapshot every time a frame finishes. A snapshot taken with pinSnapshot can be read
+ * without taking the engine's lock or going through getAge's checks: the engine
+ * won't compute a later generation into the buffer behind it until it is released
+ * with releaseSnapshot. Edits made to the board while the engine is paused still
+ * write the buffers in place.
+ *
+ * @author Justin Hall
+ */
+public class GridSnapshot
+{
+  private final long GENERATION;
+  private final int WIDTH, HEIGHT;
+  private final int STRIDE;
+  // exactly one of these is non-null depending on how the engine stores its board
+  private final byte[] CELLS;
+  private final BitGrid GRID;
+  // only kept for byte-per-cell buffers
+  private final DensityPyramid PYRAMID;
+
+  /**
+   * Creates a snapshot of a byte-per-cell buffer.
+   *
+   * @param generation generation the buffer holds
+   * @param width width of the board (without border padding)
+   * @param height height of the board (without border padding)
+   * @param cells row-major buffer with a one cell border of padding
+   * @param pyramid density counts for the buffer
+   */
+  public GridSnapshot(long generation, int width, int height, byte[] cells, DensityPyramid pyramid)
+  {
+    GENERATION = generation;
+    WIDTH = width;
+    HEIGHT = height;
+    STRIDE = width + 2;
+    CELLS = cells;
+    GRID = null;
+    PYRAMID = pyramid;
+  }
+
+  /**
+   * Creates a snapshot of a bit-packed grid.
+   *
+   * @param generation generation the grid holds
+   * @param grid bit-packed grid
+   */
+  public GridSnapshot(long generation, BitGrid grid)
+  {
+    GENERATION = generation;
+    WIDTH = grid.getWidth();
+    HEIGHT = grid.getHeight();
+    STRIDE = 0;
+    CELLS = null;
+    GRID = grid;
+    PYRAMID = null;
+  }
+
+  /**
+   * Gets the generation this snapshot was taken at.
+   *
+   * @return generation number
+   */
+  public long getGeneration()
+  {
+    return GENERATION;
+  }
+
+  /**
+   * Gets the width of the board.
+   *
+   * @return width in cells
+   */
+  public int getWidth()
+  {
+    return WIDTH;
+  }
+
+  /**
+   * Gets the height of the board.
+   *
+   * @return height in cells
+   */
+  public int getHeight()
+  {
+    return HEIGHT;
+  }
+
+  /**
+   * Gets the buffer the cells are read from, which is what the engine pins.
+   *
+   * @return byte buffer or bit-packed grid
+   */
+  Object getBuffer()
+  {
+    return GRID != null ? GRID : CELLS;
+  }
+
+  /**
+   * Gets the live-cell counts for blocks of cells in this generation.
+   *
+   * @return density pyramid or null if the engine uses a bit-packed board
+   */
+  public DensityPyramid getDensityPyramid()
+  {
+    return PYRAMID;
+  }
+
+  /**
+   * Gets the age of a cell. The coordinates are not checked.
+   *
+   * @param x x-location (0-based)
+   * @param y y-location (0-based)
+   * @return age of the cell (0 if dead)
+   */
+  public int getAge(int x, int y)
+  {
+    if (GRID != null) return GRID.getAge(x, y);
+    return CELLS[(y + 1) * STRIDE + x + 1];
+  }
+
+  /**
+   * Copies the ages of one row of cells.
+   *
+   * @param y row to copy (0-based)
+   * @param out array of at least getWidth() elements to copy the ages into
+   */
+  public void getRow(int y, byte[] out)
+  {
+    if (CELLS != null)
+    {
+      System.arraycopy(CELLS, (y + 1) * STRIDE + 1, out, 0, WIDTH);
+      return;
+    }
+    else if (GRID.isTrackingAges())
+    {
+      System.arraycopy(GRID.getAges(), y * WIDTH, out, 0, WIDTH);
+      return;
+    }
+    long[] words = GRID.getCells();
+    int row = (y + 1) * GRID.getWordsPerRow();
+    for (int x = 0; x < WIDTH; x++) out[x] = (byte)((words[row + (x >>> 6)] >>> (x & 63)) & 1L);
+  }
+}
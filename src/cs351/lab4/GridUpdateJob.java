@@ -1,46 +1,76 @@
 package cs351.lab4;
 
 import cs351.job.Job;
+import java.util.Arrays;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * This is the only job class that the SimulationEngine uses. It updates
- * its section of the board one time and then lets the engine know it's
- * done.
+ * This is the only job class that the SimulationEngine uses for byte-per-cell
+ * boards. Each frame it is handed a slice of the engine's active tile list,
+ * updates those tiles one time (one row at a time with the engine's RowKernel),
+ * records which of them changed and then lets the engine know it's done. On a
+ * board that wraps around, every tile on an edge of the board also copies its
+ * edge cells into the padding across the opposite edge (see wrapEdges), so the
+ * padding is refreshed in parallel with the rest of the frame and the row kernels
+ * never need to know about the topology.
  *
  * @author Justin Hall
  */
 public class GridUpdateJob extends Job
 {
   private final ReentrantLock LOCK = new ReentrantLock();
-  private int START_X, END_X;
-  private int START_Y, END_Y;
-  private byte[][] frontBuffer; // never writes to this (guaranteed)
-  private byte[][] backBuffer;
-  private final int[] MAP_X = { -1, -1, -1, 0, 0, 1, 1, 1 };
-  private final int[] MAP_Y = { -1, 0, 1, -1, 1, -1, 0, 1 };
+  private final int TILE_SIZE;
+  private final int TILES_PER_ROW;
+  private final int WORLD_WIDTH, WORLD_HEIGHT;
+  private final int STRIDE;
+  private final RowKernel KERNEL;
+  private final int TOPOLOGY;
+  // WRAPS for a torus or Klein bottle, MIRROR for the flipped top/bottom edges of a Klein bottle
+  private final boolean WRAPS, MIRROR;
+  private byte[] frontBuffer; // never writes to this (guaranteed)
+  private byte[] backBuffer;
+  private int[] tiles;
+  private int startTile, endTile;
+  private boolean[] changedTiles;
+  // density counts for the back buffer
+  private DensityPyramid backPyramid;
+  // births, deaths and the ages the dead cells had for the current frame (handed to the
+  // engine when the job is done - every other live cell just got one generation older)
+  private final boolean COUNT_STATISTICS;
+  private long births, deaths;
+  private final int[] DEATHS_BY_AGE = new int[GenerationStats.MAX_AGE + 1];
   private final SimulationEngine ENGINE;
 
   /**
    * Creates the update job with a set of constant parameters.
    *
    * @param engine SimulationEngine object for callbacks
-   * @param startX the x-value it should start with for updating (inclusive)
-   * @param endX the x-value it should stop with for updating (exclusive)
-   * @param startY the y-value it should start with for updating (inclusive)
-   * @param endY the y-value it should stop with for updating (exclusive)
+   * @param tileSize width/height of a tile in cells
+   * @param tilesPerRow number of tiles across the board
+   * @param worldWidth width of the board (without border padding)
+   * @param worldHeight height of the board (without border padding)
+   * @param countStatistics true to count births and deaths for the engine's statistics
+   * @param kernel kernel used to update each row
+   * @param topology one of the SimulationEngine TOPOLOGY constants
    */
-  public GridUpdateJob(SimulationEngine engine, int startX, int endX, int startY, int endY)
+  public GridUpdateJob(SimulationEngine engine, int tileSize, int tilesPerRow, int worldWidth, int worldHeight,
+                       boolean countStatistics, RowKernel kernel, int topology)
   {
     ENGINE = engine;
-    START_X = startX;
-    END_X = endX;
-    START_Y = startY;
-    END_Y = endY;
+    COUNT_STATISTICS = countStatistics;
+    TILE_SIZE = tileSize;
+    TILES_PER_ROW = tilesPerRow;
+    WORLD_WIDTH = worldWidth;
+    WORLD_HEIGHT = worldHeight;
+    STRIDE = worldWidth + 2;
+    KERNEL = kernel;
+    TOPOLOGY = topology;
+    WRAPS = topology != SimulationEngine.TOPOLOGY_BOUNDED;
+    MIRROR = topology == SimulationEngine.TOPOLOGY_KLEIN_BOTTLE;
   }
 
   /**
-   * Runs through its section of the board exactly once, writing the value for
+   * Runs through each of its tiles exactly once, writing the value for
    * each cell to the backBuffer and reading from the frontBuffer.
    *
    * @param threadID integer id for the thread the job is being executed on
@@ -48,58 +78,213 @@ public class GridUpdateJob extends Job
   @Override
   public void run(int threadID)
   {
-    final byte MAX_CELL_AGE = 10;
+    updateTiles();
+    ENGINE.notifyEngineOfThreadCompletion();
+  }
+
+  /**
+   * Updates every tile in the job's slice and hands the engine the counts for the
+   * cells it changed (if it is counting them), without notifying the engine that it is done. This is what
+   * the engine's barrier workers call directly since the barrier tells the engine
+   * when the frame is done.
+   */
+  public void updateTiles()
+  {
     LOCK.lock();
     try
     {
-      for (int x = START_X; x < END_X; ++x)
+      for (int i = startTile; i < endTile; i++)
       {
-        for (int y = START_Y; y < END_Y; ++y)
-        {
-          int alive = 0;
-          for (int i = 0; i < MAP_X.length; i++)
-          {
-            if (frontBuffer[x + MAP_X[i]][y + MAP_Y[i]] > 0)
-            {
-              alive++;
-              if (alive > 3) break;
-            }
-          }
-          if (frontBuffer[x][y] > 0 && alive >= 2 && alive <= 3)
-          {
-            ++backBuffer[x][y];
-            if (backBuffer[x][y] > MAX_CELL_AGE) --backBuffer[x][y];
-          }
-          else if (alive == 3) backBuffer[x][y] = 1;
-          else backBuffer[x][y] = 0;
-        }
+        int tile = tiles[i];
+        int xStart = (tile % TILES_PER_ROW) * TILE_SIZE + 1;
+        int yStart = (tile / TILES_PER_ROW) * TILE_SIZE + 1;
+        int xEnd = Math.min(xStart + TILE_SIZE, WORLD_WIDTH + 1);
+        int yEnd = Math.min(yStart + TILE_SIZE, WORLD_HEIGHT + 1);
+        changedTiles[tile] = updateTile(xStart, xEnd, yStart, yEnd);
+        if (WRAPS) wrapEdges(backBuffer, WORLD_WIDTH, WORLD_HEIGHT, MIRROR, xStart, xEnd, yStart, yEnd);
+        backPyramid.updateTile(backBuffer, tile % TILES_PER_ROW, tile / TILES_PER_ROW);
       }
+      if (COUNT_STATISTICS) ENGINE.recordFrameStatistics(births, deaths, DEATHS_BY_AGE);
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Gives the second half of this job's tiles to a new job (the engine is told about
+   * the extra job before it can possibly finish).
+   *
+   * @return job with the second half of the tiles or null if there is only one tile left
+   */
+  @Override
+  public Job split()
+  {
+    LOCK.lock();
+    try
+    {
+      if (endTile - startTile < 2) return null;
+      int middle = (startTile + endTile) >>> 1;
+      GridUpdateJob other = new GridUpdateJob(ENGINE, TILE_SIZE, TILES_PER_ROW, WORLD_WIDTH, WORLD_HEIGHT, COUNT_STATISTICS, KERNEL, TOPOLOGY);
+      other.initFrame(frontBuffer, backBuffer, tiles, middle, endTile, changedTiles, backPyramid);
+      endTile = middle;
+      ENGINE.notifyEngineOfJobSplit();
+      return other;
     }
     finally
     {
       LOCK.unlock();
     }
-    ENGINE.notifyEngineOfThreadCompletion();
   }
 
   /**
    * This is called to let the job know which reference to use
-   * for the front and back buffers.
+   * for the front and back buffers and which tiles it is responsible for.
    *
-   * @param frontBuffer front grid to read from (previous frame)
-   * @param backBuffer back grid to write to (current frame)
+   * @param frontBuffer front grid to read from (previous frame, row-major with border padding)
+   * @param backBuffer back grid to write to (current frame, row-major with border padding)
+   * @param tiles list of active tile indices
+   * @param startTile first element of the list to update (inclusive)
+   * @param endTile element of the list to stop at (exclusive)
+   * @param changedTiles flags to write whether or not each tile changed
+   * @param backPyramid density counts to update for each tile written to the back buffer
    */
-  public void initFrame(byte[][] frontBuffer, byte[][] backBuffer)
+  public void initFrame(byte[] frontBuffer, byte[] backBuffer, int[] tiles, int startTile, int endTile, boolean[] changedTiles,
+                        DensityPyramid backPyramid)
   {
     LOCK.lock();
     try
     {
       this.frontBuffer = frontBuffer;
       this.backBuffer = backBuffer;
+      this.tiles = tiles;
+      this.startTile = startTile;
+      this.endTile = endTile;
+      this.changedTiles = changedTiles;
+      this.backPyramid = backPyramid;
+      births = 0;
+      deaths = 0;
+      Arrays.fill(DEATHS_BY_AGE, 0);
     }
     finally
     {
       LOCK.unlock();
     }
   }
+
+  /**
+   * Copies the cells of a rectangle that lie on an edge of the board into the
+   * padding cells that stand for them across the opposite edge. The left and right
+   * edges always wrap straight across. The top and bottom edges wrap straight
+   * across for a torus and flipped left to right (cell x lands at width + 1 - x)
+   * for a Klein bottle. Each padding cell is a copy of exactly one board cell, so
+   * jobs that write different tiles never write the same padding cell, and the
+   * work is proportional to the part of the rectangle's border that is on an edge.
+   *
+   * @param buffer buffer to update (row-major with border padding)
+   * @param width width of the board (without border padding)
+   * @param height height of the board (without border padding)
+   * @param mirror true to flip the top and bottom edges
+   * @param xStart first column of the rectangle (inclusive, padded coordinates so from 1)
+   * @param xEnd column to stop at (exclusive, at most width + 1)
+   * @param yStart first row of the rectangle (inclusive, from 1)
+   * @param yEnd row to stop at (exclusive, at most height + 1)
+   */
+  public static void wrapEdges(byte[] buffer, int width, int height, boolean mirror, int xStart, int xEnd, int yStart, int yEnd)
+  {
+    if (xStart > 1 && xEnd <= width && yStart > 1 && yEnd <= height) return;
+    final int stride = width + 2;
+    for (int y = yStart; y < yEnd; y++)
+    {
+      int row = y * stride;
+      if (xStart == 1) buffer[row + width + 1] = buffer[row + 1];
+      if (xEnd == width + 1) buffer[row] = buffer[row + width];
+    }
+    if (yStart == 1) wrapRow(buffer, width, mirror, stride, (height + 1) * stride, xStart, xEnd);
+    if (yEnd == height + 1) wrapRow(buffer, width, mirror, height * stride, 0, xStart, xEnd);
+  }
+
+  /**
+   * Copies the cells [xStart, xEnd) of a row into a padding row, along with the
+   * padding row's corner cell if the run reaches the left or right edge.
+   */
+  private static void wrapRow(byte[] buffer, int width, boolean mirror, int from, int to, int xStart, int xEnd)
+  {
+    if (!mirror) System.arraycopy(buffer, from + xStart, buffer, to + xStart, xEnd - xStart);
+    else for (int x = xStart; x < xEnd; x++) buffer[to + width + 1 - x] = buffer[from + x];
+    // the corners wrap both ways: across the left/right edge and then across the top/bottom edge
+    if (xStart == 1) buffer[to + (mirror ? 0 : width + 1)] = buffer[from + 1];
+    if (xEnd == width + 1) buffer[to + (mirror ? width + 1 : 0)] = buffer[from + width];
+  }
+
+  /**
+   * Updates a single tile one row at a time.
+   *
+   * @return true if any cell in the tile is different from the previous frame
+   */
+  private boolean updateTile(int xStart, int xEnd, int yStart, int yEnd)
+  {
+    boolean changed = false;
+    for (int y = yStart; y < yEnd; ++y)
+    {
+      changed |= updateRow(y * STRIDE, xStart, xEnd);
+    }
+    return changed;
+  }
+
+  /**
+   * Updates the cells [xStart, xEnd) of one row with the kernel. Rows that changed
+   * are then passed to countRow if the engine is tracking statistics.
+   *
+   * @param mid index of the start of the row in the buffers
+   * @return true if any of the cells changed
+   */
+  private boolean updateRow(int mid, int xStart, int xEnd)
+  {
+    boolean changed = KERNEL.updateRow(frontBuffer, backBuffer, mid, STRIDE, xStart, xEnd);
+    if (changed && COUNT_STATISTICS) countRow(mid, xStart, xEnd);
+    return changed;
+  }
+
+  /**
+   * Counts the births and deaths in a row that was just updated (and the ages the
+   * dead cells had). This is a second loop over the row rather than part of
+   * the row kernel so that the update loop stays as tight as possible - the row is
+   * still in the cache at this point. Deaths are split up by age without branching
+   * by adding them to 6-bit counters packed into one long (one counter for each
+   * age from 1 to MAX_AGE), which is emptied every PACKED_CELLS cells before any
+   * counter can overflow.
+   *
+   * @param mid index of the start of the row in the buffers
+   */
+  private void countRow(int mid, int xStart, int xEnd)
+  {
+    final int MAX_AGE = GenerationStats.MAX_AGE;
+    final int PACKED_CELLS = 63;
+    final byte[] src = frontBuffer;
+    final byte[] dst = backBuffer;
+    int rowBirths = 0;
+    for (int start = xStart; start < xEnd; start += PACKED_CELLS)
+    {
+      long packedDeaths = 0;
+      for (int x = start, end = Math.min(start + PACKED_CELLS, xEnd); x < end; ++x)
+      {
+        int before = src[mid + x];
+        int after = dst[mid + x];
+        // (n - 1) >>> 31 is 1 when n is 0 and (-n) >>> 31 is 1 when n is above 0
+        rowBirths += ((before - 1) >>> 31) & ((-after) >>> 31);
+        long died = ((-before) >>> 31) & ((after - 1) >>> 31);
+        // the shift is negative for dead cells but then died is 0 anyway
+        packedDeaths += died << (6 * (Math.min(before, MAX_AGE) - 1));
+      }
+      for (int age = 1; packedDeaths != 0; age++, packedDeaths >>>= 6)
+      {
+        int count = (int)(packedDeaths & 63);
+        DEATHS_BY_AGE[age] += count;
+        deaths += count;
+      }
+    }
+    births += rowBirths;
+  }
 }
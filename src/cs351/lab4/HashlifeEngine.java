@@ -0,0 +1,735 @@
+package cs351.lab4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hashlife version of the simulation. The universe is stored as a canonicalized
+ * quadtree centered on (0, 0) and each node memoizes its RESULT so that repeated
+ * or empty regions are only ever computed once. This lets it step 2^k generations
+ * at a time on boards far larger than the SimulationEngine's grid.
+ *
+ * The node cache is bounded - whenever a new node would take it past its limit, the
+ * nodes that are no longer reachable from the current root are dropped. Nodes that
+ * are still part of the tree keep their memoized results (and the nodes those results
+ * are made of), so the next step picks up where the last one left off. Whole boards
+ * are copied in and out a band of rows at a time, and any region can be copied back
+ * into a SimulationEngine so that the GameUI can render it.
+ *
+ * @author Justin Hall
+ */
+public class HashlifeEngine
+{
+  // the root never shrinks below this level so that the center-quarter checks work
+  private static final int MIN_ROOT_LEVEL = 3;
+  // levels past this would overflow the long coordinates
+  private static final int MAX_ROOT_LEVEL = 62;
+  private static final int DEFAULT_MAX_NODES = 4_000_000;
+  // boards are copied in and out in bands of this many rows (and built from blocks this wide)
+  private static final int BAND_SHIFT = 8;
+  private final ReentrantLock LOCK = new ReentrantLock();
+  private final QuadNode DEAD = new QuadNode(false);
+  private final QuadNode ALIVE = new QuadNode(true);
+  private final int MAX_NODES;
+  private QuadNode[] table;
+  private int numNodes;
+  // the cache is collected once it reaches this many nodes - MAX_NODES unless the tree
+  // that is still in use is so big that collecting at MAX_NODES would free next to nothing
+  private int collectAt;
+  private int collectionMark = 0;
+  // every 4x4 node indexed by its cells (bit y * 4 + x), filled in as they are needed
+  private QuadNode[] leafNodes = new QuadNode[1 << 16];
+  private QuadNode[] emptyNodes = new QuadNode[MAX_ROOT_LEVEL + 2];
+  private QuadNode root;
+  private long generation;
+  private int stepLog;
+
+  /**
+   * Creates an empty universe with the default node cache size.
+   */
+  public HashlifeEngine()
+  {
+    this(DEFAULT_MAX_NODES);
+  }
+
+  /**
+   * Creates an empty universe.
+   *
+   * @param maxNodes number of nodes the cache can hold before it is collected
+   */
+  public HashlifeEngine(int maxNodes)
+  {
+    MAX_NODES = maxNodes;
+    collectAt = maxNodes;
+    table = new QuadNode[1 << 16];
+    root = getEmpty(MIN_ROOT_LEVEL);
+  }
+
+  /**
+   * Sets how many generations each call to step advances (2^stepLog). A stepLog of 0
+   * behaves like the SimulationEngine; larger values skip ahead exponentially.
+   *
+   * @param stepLog log base 2 of the step size
+   */
+  public void setStepLog(int stepLog)
+  {
+    LOCK.lock();
+    try
+    {
+      if (stepLog < 0 || stepLog > MAX_ROOT_LEVEL - 3) throw new IllegalArgumentException("Invalid step size: 2^" + stepLog);
+      this.stepLog = stepLog;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Gets the log base 2 of the step size.
+   *
+   * @return step log
+   */
+  public int getStepLog()
+  {
+    LOCK.lock();
+    try
+    {
+      return stepLog;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of generations the universe has been advanced.
+   *
+   * @return generation count
+   */
+  public long getGeneration()
+  {
+    LOCK.lock();
+    try
+    {
+      return generation;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of live cells in the universe.
+   *
+   * @return population
+   */
+  public long getPopulation()
+  {
+    LOCK.lock();
+    try
+    {
+      return root.POPULATION;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of canonical nodes currently in the cache.
+   *
+   * @return cached node count
+   */
+  public int getNumCachedNodes()
+  {
+    LOCK.lock();
+    try
+    {
+      return numNodes;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Sets a single cell. The universe grows as needed to contain (x, y).
+   *
+   * @param x x-location
+   * @param y y-location
+   * @param alive true to make the cell alive and false to kill it
+   */
+  public void setCell(long x, long y, boolean alive)
+  {
+    LOCK.lock();
+    try
+    {
+      while (!contains(root, x, y)) root = expand(root);
+      long half = root.getSize() >> 1;
+      root = setCell(root, x + half, y + half, alive);
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Checks if the cell at (x, y) is alive.
+   *
+   * @param x x-location
+   * @param y y-location
+   * @return true if alive and false if not
+   */
+  public boolean isAlive(long x, long y)
+  {
+    LOCK.lock();
+    try
+    {
+      if (!contains(root, x, y)) return false;
+      long half = root.getSize() >> 1;
+      return isAlive(root, x + half, y + half);
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Clears the universe and resets the generation count.
+   */
+  public void clear()
+  {
+    LOCK.lock();
+    try
+    {
+      root = getEmpty(MIN_ROOT_LEVEL);
+      generation = 0;
+      collect();
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Advances the universe by 2^getStepLog() generations. The root is first padded
+   * with empty space until the whole pattern sits in its center quarter and it is
+   * large enough for the requested step, which guarantees nothing can escape the
+   * region that the RESULT covers.
+   */
+  public void step()
+  {
+    LOCK.lock();
+    try
+    {
+      while (root.LEVEL < stepLog + MIN_ROOT_LEVEL || !isCentered(root))
+      {
+        if (root.LEVEL >= MAX_ROOT_LEVEL) throw new RuntimeException("Universe grew past the maximum size");
+        root = expand(root);
+      }
+      root = successor(root, stepLog);
+      generation += 1L << stepLog;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Copies a width x height region with its upper-left corner at (x, y) into the given
+   * array (row-major, 1 for alive and 0 for dead). Empty subtrees are skipped entirely.
+   *
+   * @param x left edge of the region
+   * @param y top edge of the region
+   * @param width width of the region
+   * @param height height of the region
+   * @param out array of at least width * height elements
+   */
+  public void exportRegion(long x, long y, int width, int height, byte[] out)
+  {
+    LOCK.lock();
+    try
+    {
+      Arrays.fill(out, 0, width * height, (byte)0);
+      long half = root.getSize() >> 1;
+      exportRegion(root, -half, -half, x, y, width, height, out);
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Copies the region of the universe starting at (viewX, viewY) into the given engine
+   * so that it can be rendered. The engine must be locked and paused.
+   *
+   * @param engine SimulationEngine to copy into
+   * @param viewX universe x-value that maps to engine x = 0
+   * @param viewY universe y-value that maps to engine y = 0
+   */
+  public void exportTo(SimulationEngine engine, long viewX, long viewY)
+  {
+    final int BAND_HEIGHT = 256;
+    int width = engine.getWorldWidth();
+    int height = engine.getWorldHeight();
+    byte[] band = new byte[width * Math.min(BAND_HEIGHT, height)];
+    for (int yStart = 0; yStart < height; yStart += BAND_HEIGHT)
+    {
+      int rows = Math.min(BAND_HEIGHT, height - yStart);
+      exportRegion(viewX, viewY + yStart, width, rows, band);
+      engine.copyRectIn(0, yStart, width, rows, band, 0, width);
+    }
+  }
+
+  /**
+   * Replaces the universe with the live cells of the given engine, with engine (0, 0)
+   * placed at universe (0, 0). The board is read a band of rows at a time and the tree
+   * is built from the bottom up: each band becomes a row of blocks, and the blocks are
+   * then joined into the node that covers the whole board. The engine must be locked.
+   *
+   * @param engine SimulationEngine to copy from
+   */
+  public void importFrom(SimulationEngine engine)
+  {
+    LOCK.lock();
+    try
+    {
+      clear();
+      final int width = engine.getWorldWidth(), height = engine.getWorldHeight();
+      int level = MIN_ROOT_LEVEL - 1;
+      while ((1L << level) < Math.max(width, height)) level++;
+      if (level >= MAX_ROOT_LEVEL) throw new RuntimeException("Board is too big for the universe");
+      final int blockShift = Math.min(BAND_SHIFT, level), blockSize = 1 << blockShift;
+      final int columns = (width + blockSize - 1) >> blockShift, rows = (height + blockSize - 1) >> blockShift;
+      QuadNode[] blocks = new QuadNode[columns * rows];
+      byte[] band = new byte[width * blockSize];
+      for (int by = 0; by < rows; by++)
+      {
+        int bandRows = Math.min(blockSize, height - (by << blockShift));
+        engine.copyRectOut(0, by << blockShift, width, bandRows, band, 0, width);
+        for (int bx = 0; bx < columns; bx++)
+        {
+          blocks[by * columns + bx] = buildFromBand(band, width, bandRows, bx << blockShift, 0, blockShift);
+        }
+      }
+      // the board fills the south-east quarter of the root so that engine (0, 0) is universe (0, 0)
+      QuadNode board = buildFromBlocks(blocks, columns, rows, 0, 0, level - blockShift);
+      QuadNode empty = getEmpty(level);
+      root = join(empty, empty, empty, board);
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Builds the node for a square of the band (cells past the edges of the board are dead).
+   *
+   * @param band rows read from the engine (row-major, width ages per row)
+   * @param width width of the board
+   * @param bandRows number of rows in the band
+   * @param x left edge of the square within the band
+   * @param y top edge of the square within the band
+   * @param level level of the node (2 or higher)
+   * @return canonical node
+   */
+  private QuadNode buildFromBand(byte[] band, int width, int bandRows, int x, int y, int level)
+  {
+    if (x >= width || y >= bandRows) return getEmpty(level);
+    if (level == 2)
+    {
+      int bits = 0;
+      for (int dy = 0; dy < 4 && y + dy < bandRows; dy++)
+      {
+        for (int dx = 0, row = (y + dy) * width; dx < 4 && x + dx < width; dx++)
+        {
+          if (band[row + x + dx] > 0) bits |= 1 << (dy * 4 + dx);
+        }
+      }
+      return getLeaf(bits);
+    }
+    int half = 1 << (level - 1);
+    return join(buildFromBand(band, width, bandRows, x, y, level - 1), buildFromBand(band, width, bandRows, x + half, y, level - 1),
+                buildFromBand(band, width, bandRows, x, y + half, level - 1), buildFromBand(band, width, bandRows, x + half, y + half, level - 1));
+  }
+
+  /**
+   * Joins the blocks built by importFrom into the node covering a square of them.
+   *
+   * @param blocks blocks in row-major order
+   * @param columns number of blocks per row
+   * @param rows number of rows of blocks
+   * @param bx column of the square's top-left block
+   * @param by row of the square's top-left block
+   * @param levelsAbove levels between the node and the blocks (0 returns the block itself)
+   * @return canonical node
+   */
+  private QuadNode buildFromBlocks(QuadNode[] blocks, int columns, int rows, int bx, int by, int levelsAbove)
+  {
+    if (bx >= columns || by >= rows) return getEmpty(blocks[0].LEVEL + levelsAbove);
+    if (levelsAbove == 0) return blocks[by * columns + bx];
+    int half = 1 << (levelsAbove - 1);
+    return join(buildFromBlocks(blocks, columns, rows, bx, by, levelsAbove - 1), buildFromBlocks(blocks, columns, rows, bx + half, by, levelsAbove - 1),
+                buildFromBlocks(blocks, columns, rows, bx, by + half, levelsAbove - 1), buildFromBlocks(blocks, columns, rows, bx + half, by + half, levelsAbove - 1));
+  }
+
+  /**
+   * Returns the canonical 4x4 node with the given cells.
+   *
+   * @param bits cell (x, y) is alive if bit y * 4 + x is set
+   * @return level 2 node
+   */
+  private QuadNode getLeaf(int bits)
+  {
+    QuadNode leaf = leafNodes[bits];
+    if (leaf == null)
+    {
+      leaf = join(getQuarter(bits, 0, 0), getQuarter(bits, 2, 0), getQuarter(bits, 0, 2), getQuarter(bits, 2, 2));
+      leafNodes[bits] = leaf;
+    }
+    return leaf;
+  }
+
+  /**
+   * Returns the 2x2 node with its upper-left cell at (x, y) of a 4x4 block packed into an int.
+   */
+  private QuadNode getQuarter(int bits, int x, int y)
+  {
+    return join(getCell(bits, x, y), getCell(bits, x + 1, y), getCell(bits, x, y + 1), getCell(bits, x + 1, y + 1));
+  }
+
+  /**
+   * Returns the level 0 node for the cell at (x, y) of a 4x4 block packed into an int.
+   */
+  private QuadNode getCell(int bits, int x, int y)
+  {
+    return (bits >>> (y * 4 + x) & 1) != 0 ? ALIVE : DEAD;
+  }
+
+  /**
+   * Returns the canonical node with the given children, creating it if it isn't
+   * in the cache yet.
+   *
+   * @return canonical node
+   */
+  private QuadNode join(QuadNode nw, QuadNode ne, QuadNode sw, QuadNode se)
+  {
+    if (numNodes >= collectAt) collect();
+    int hash = QuadNode.hash(nw, ne, sw, se);
+    int bucket = hash & (table.length - 1);
+    for (QuadNode node = table[bucket]; node != null; node = node.nextInBucket)
+    {
+      if (node.HASH == hash && node.hasChildren(nw, ne, sw, se)) return node;
+    }
+    QuadNode node = new QuadNode(nw, ne, sw, se);
+    node.nextInBucket = table[bucket];
+    table[bucket] = node;
+    if (++numNodes > table.length) resizeTable();
+    return node;
+  }
+
+  /**
+   * Doubles the number of buckets in the hash table.
+   */
+  private void resizeTable()
+  {
+    QuadNode[] newTable = new QuadNode[table.length << 1];
+    for (QuadNode head : table)
+    {
+      QuadNode node = head;
+      while (node != null)
+      {
+        QuadNode next = node.nextInBucket;
+        int bucket = node.HASH & (newTable.length - 1);
+        node.nextInBucket = newTable[bucket];
+        newTable[bucket] = node;
+        node = next;
+      }
+    }
+    table = newTable;
+  }
+
+  /**
+   * Drops every cached node that is no longer in use. The nodes reachable from the
+   * root (and the canonical empty nodes) are marked first, then the memoized results
+   * of those nodes and everything the results are made of. Whatever is left unmarked
+   * is unlinked from the table, and a marked node whose result was dropped forgets
+   * it. This can run in the middle of a step or an import: nodes those are still
+   * holding on to stay valid, they just aren't canonical any more, which only means
+   * that the same square might briefly be stored twice.
+   */
+  private void collect()
+  {
+    final int mark = ++collectionMark;
+    ArrayList<QuadNode> inUse = new ArrayList<>();
+    markTree(root, mark, inUse);
+    for (QuadNode empty : emptyNodes) if (empty != null) markTree(empty, mark, inUse);
+    // results are only followed one step - the results of those results are dropped
+    for (int i = 0, end = inUse.size(); i < end; i++)
+    {
+      QuadNode result = inUse.get(i).result;
+      if (result != null) markTree(result, mark, null);
+    }
+    numNodes = 0;
+    for (int bucket = 0; bucket < table.length; bucket++)
+    {
+      QuadNode kept = null;
+      for (QuadNode node = table[bucket], next; node != null; node = next)
+      {
+        next = node.nextInBucket;
+        if (node.mark != mark) continue;
+        if (node.result != null && node.result.LEVEL > 0 && node.result.mark != mark)
+        {
+          node.result = null;
+          node.resultStep = -1;
+        }
+        node.nextInBucket = kept;
+        kept = node;
+        numNodes++;
+      }
+      table[bucket] = kept;
+    }
+    Arrays.fill(leafNodes, null);
+    // if most of the cache is still in use, wait until it has doubled before trying again
+    collectAt = Math.max(MAX_NODES, numNodes * 2);
+  }
+
+  /**
+   * Marks every node of the subtree that isn't marked yet.
+   *
+   * @param node root of the subtree
+   * @param mark mark for this collection
+   * @param marked list to add the newly marked nodes to (null to not keep track)
+   */
+  private void markTree(QuadNode node, int mark, ArrayList<QuadNode> marked)
+  {
+    if (node.LEVEL == 0 || node.mark == mark) return;
+    node.mark = mark;
+    if (marked != null) marked.add(node);
+    markTree(node.NW, mark, marked);
+    markTree(node.NE, mark, marked);
+    markTree(node.SW, mark, marked);
+    markTree(node.SE, mark, marked);
+  }
+
+  /**
+   * Returns the canonical empty node of the given level.
+   *
+   * @param level level of the node
+   * @return empty node
+   */
+  private QuadNode getEmpty(int level)
+  {
+    if (level == 0) return DEAD;
+    if (emptyNodes[level] == null)
+    {
+      QuadNode child = getEmpty(level - 1);
+      emptyNodes[level] = join(child, child, child, child);
+    }
+    return emptyNodes[level];
+  }
+
+  /**
+   * Wraps the node in a node one level higher so that the original is centered.
+   *
+   * @param node node to expand
+   * @return node of level + 1
+   */
+  private QuadNode expand(QuadNode node)
+  {
+    QuadNode empty = getEmpty(node.LEVEL - 1);
+    return join(join(empty, empty, empty, node.NW), join(empty, empty, node.NE, empty),
+                join(empty, node.SW, empty, empty), join(node.SE, empty, empty, empty));
+  }
+
+  /**
+   * Checks if every live cell of the node is in its center quarter.
+   *
+   * @param node node to check (level 3 or higher)
+   * @return true if the outer area is empty and false if not
+   */
+  private boolean isCentered(QuadNode node)
+  {
+    return node.POPULATION == node.NW.SE.SE.POPULATION + node.NE.SW.SW.POPULATION +
+                              node.SW.NE.NE.POPULATION + node.SE.NW.NW.POPULATION;
+  }
+
+  /**
+   * Checks if (x, y) falls inside the square covered by the (centered) root node.
+   */
+  private boolean contains(QuadNode node, long x, long y)
+  {
+    long half = node.getSize() >> 1;
+    return x >= -half && x < half && y >= -half && y < half;
+  }
+
+  /**
+   * Returns a copy of the node with the cell at (x, y) changed (coordinates relative to
+   * the node's upper-left corner).
+   */
+  private QuadNode setCell(QuadNode node, long x, long y, boolean alive)
+  {
+    if (node.LEVEL == 0) return alive ? ALIVE : DEAD;
+    long half = node.getSize() >> 1;
+    if (x < half)
+    {
+      if (y < half) return join(setCell(node.NW, x, y, alive), node.NE, node.SW, node.SE);
+      return join(node.NW, node.NE, setCell(node.SW, x, y - half, alive), node.SE);
+    }
+    if (y < half) return join(node.NW, setCell(node.NE, x - half, y, alive), node.SW, node.SE);
+    return join(node.NW, node.NE, node.SW, setCell(node.SE, x - half, y - half, alive));
+  }
+
+  /**
+   * Looks up the cell at (x, y) relative to the node's upper-left corner.
+   */
+  private boolean isAlive(QuadNode node, long x, long y)
+  {
+    while (node.LEVEL > 0)
+    {
+      if (node.POPULATION == 0) return false;
+      long half = node.getSize() >> 1;
+      if (x < half) node = y < half ? node.NW : node.SW;
+      else node = y < half ? node.NE : node.SE;
+      if (x >= half) x -= half;
+      if (y >= half) y -= half;
+    }
+    return node.POPULATION > 0;
+  }
+
+  /**
+   * Writes the live cells of the node that overlap the requested region into out.
+   *
+   * @param node node being visited
+   * @param nodeX universe x-value of the node's left edge
+   * @param nodeY universe y-value of the node's top edge
+   */
+  private void exportRegion(QuadNode node, long nodeX, long nodeY, long x, long y, int width, int height, byte[] out)
+  {
+    if (node.POPULATION == 0) return;
+    long size = node.getSize();
+    if (nodeX >= x + width || nodeY >= y + height || nodeX + size <= x || nodeY + size <= y) return;
+    if (node.LEVEL == 0)
+    {
+      out[(int)(nodeY - y) * width + (int)(nodeX - x)] = 1;
+      return;
+    }
+    long half = size >> 1;
+    exportRegion(node.NW, nodeX, nodeY, x, y, width, height, out);
+    exportRegion(node.NE, nodeX + half, nodeY, x, y, width, height, out);
+    exportRegion(node.SW, nodeX, nodeY + half, x, y, width, height, out);
+    exportRegion(node.SE, nodeX + half, nodeY + half, x, y, width, height, out);
+  }
+
+  /**
+   * Computes the RESULT of the node: its centered level - 1 node advanced by
+   * 2^min(j, LEVEL - 2) generations. Results are memoized per node.
+   *
+   * @param node node of level 2 or higher
+   * @param j log base 2 of the requested number of generations
+   * @return centered node one level down
+   */
+  private QuadNode successor(QuadNode node, int j)
+  {
+    if (node.POPULATION == 0) return node.NW;
+    if (node.LEVEL == 2) j = 0;
+    else if (j > node.LEVEL - 2) j = node.LEVEL - 2;
+    if (node.result != null && node.resultStep == j) return node.result;
+    QuadNode result;
+    if (node.LEVEL == 2) result = baseSuccessor(node);
+    else
+    {
+      QuadNode n00 = node.NW, n01 = centeredHorizontal(node.NW, node.NE), n02 = node.NE;
+      QuadNode n10 = centeredVertical(node.NW, node.SW), n11 = centered(node), n12 = centeredVertical(node.NE, node.SE);
+      QuadNode n20 = node.SW, n21 = centeredHorizontal(node.SW, node.SE), n22 = node.SE;
+      // at full speed each sub-square is advanced on the way in as well as on the way out
+      boolean fullSpeed = j == node.LEVEL - 2;
+      QuadNode c00 = fullSpeed ? successor(n00, j) : centered(n00);
+      QuadNode c01 = fullSpeed ? successor(n01, j) : centered(n01);
+      QuadNode c02 = fullSpeed ? successor(n02, j) : centered(n02);
+      QuadNode c10 = fullSpeed ? successor(n10, j) : centered(n10);
+      QuadNode c11 = fullSpeed ? successor(n11, j) : centered(n11);
+      QuadNode c12 = fullSpeed ? successor(n12, j) : centered(n12);
+      QuadNode c20 = fullSpeed ? successor(n20, j) : centered(n20);
+      QuadNode c21 = fullSpeed ? successor(n21, j) : centered(n21);
+      QuadNode c22 = fullSpeed ? successor(n22, j) : centered(n22);
+      result = join(successor(join(c00, c01, c10, c11), j), successor(join(c01, c02, c11, c12), j),
+                    successor(join(c10, c11, c20, c21), j), successor(join(c11, c12, c21, c22), j));
+    }
+    node.result = result;
+    node.resultStep = j;
+    return result;
+  }
+
+  /**
+   * Advances the center 2x2 cells of a 4x4 node by one generation using B3/S23.
+   *
+   * @param node level 2 node
+   * @return level 1 node
+   */
+  private QuadNode baseSuccessor(QuadNode node)
+  {
+    int bits = 0;
+    for (int y = 0; y < 4; y++)
+    {
+      for (int x = 0; x < 4; x++)
+      {
+        if (isAlive(node, x, y)) bits |= 1 << (y * 4 + x);
+      }
+    }
+    return join(nextCell(bits, 1, 1), nextCell(bits, 2, 1), nextCell(bits, 1, 2), nextCell(bits, 2, 2));
+  }
+
+  /**
+   * Applies B3/S23 to the cell at (x, y) of a 4x4 block packed into an int.
+   */
+  private QuadNode nextCell(int bits, int x, int y)
+  {
+    int alive = 0;
+    for (int dy = -1; dy <= 1; dy++)
+    {
+      for (int dx = -1; dx <= 1; dx++)
+      {
+        if ((dx != 0 || dy != 0) && (bits >>> ((y + dy) * 4 + x + dx) & 1) != 0) alive++;
+      }
+    }
+    boolean self = (bits >>> (y * 4 + x) & 1) != 0;
+    return alive == 3 || (self && alive == 2) ? ALIVE : DEAD;
+  }
+
+  /**
+   * Returns the node made of the four innermost grandchildren.
+   */
+  private QuadNode centered(QuadNode node)
+  {
+    return join(node.NW.SE, node.NE.SW, node.SW.NE, node.SE.NW);
+  }
+
+  /**
+   * Returns the node straddling the border between two horizontally adjacent nodes.
+   */
+  private QuadNode centeredHorizontal(QuadNode west, QuadNode east)
+  {
+    return join(west.NE, east.NW, west.SE, east.SW);
+  }
+
+  /**
+   * Returns the node straddling the border between two vertically adjacent nodes.
+   */
+  private QuadNode centeredVertical(QuadNode north, QuadNode south)
+  {
+    return join(north.SW, north.SE, south.NW, south.NE);
+  }
+}
@@ -0,0 +1,236 @@
+package cs351.lab4;
+
+import cs351.metrics.Metrics;
+import cs351.metrics.MetricsReporter;
+import cs351.presets.PresetLibrary;
+import cs351.presets.RandomGrid;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Runs the simulation without any UI so that it can be used on machines that have
+ * no display or JavaFX runtime. It sets up a SimulationEngine with the chosen preset,
+ * runs a fixed number of generations as fast as the engine can go and then reports
+ * how long that took. Options (all optional):
+ *
+ *   --preset Random        name of the preset (see PresetLibrary)
+ *   --seed 42              seed for the Random preset (picked at random and printed if not given)
+ *   --density 0.5          chance of each cell starting alive for the Random preset
+ *   --size 10000           width and height of the board
+ *   --width W --height H   non-square boards
+ *   --threads 8            number of engine threads
+ *   --generations 1000     number of generations to run
+ *   --report-every 0       print progress every N generations (0 to disable)
+ *   --stats                count births and deaths every generation (shown in the progress lines)
+ *   --rule B3/S23          rule to run (B/S, S/B or Generations rulestrings such as B2/S/C3)
+ *   --topology bounded     what lies past the edges: bounded, torus or klein
+ *   --bitpacked            use the bit-packed board
+ *   --chunked              copy the preset into an unbounded ChunkedEngine and run that instead
+ *   --no-ages              with --bitpacked, don't keep an age plane
+ *   --gens-per-frame 1     with --bitpacked --no-ages, generations each job runs per frame (temporal blocking)
+ *   --tile-size 64         width/height of the tiles a byte board is split into (power of two)
+ *   --tile-order rows      order tiles are handed to the jobs in: rows, columns or morton
+ *   --jobs-per-thread 1    slices of the active tiles each thread gets per generation
+ *   --scalar               don't use the Vector API kernel even if it is available
+ *   --spin 0               polls an idle worker makes before parking
+ *   --work-stealing        use the work-stealing job system
+ *   --barrier              step generations on persistent barrier threads
+ *   --load board.gols      start from a snapshot file instead of the preset
+ *   --save board.gols      write a snapshot file once the run is done
+ *   --metrics-every 0      print the metrics every N milliseconds (0 to only print them at the end)
+ *
+ * Metrics (job run times, queue depth, worker busy/idle time, engine lock waits and
+ * generation latency) are only collected when the JVM is started with
+ * -Dcs351.metrics=true. They are also committed as JFR events, so running with
+ * -XX:StartFlightRecording as well puts them in the recording.
+ *
+ * @author Justin Hall
+ */
+public class HeadlessRunner
+{
+  /**
+   * Entry.
+   *
+   * @param args command line arguments (see the class comment)
+   */
+  public static void main(String[] args) throws InterruptedException, IOException
+  {
+    String preset = "Random";
+    int width = 10_000, height = 10_000;
+    int numThreads = Runtime.getRuntime().availableProcessors();
+    long generations = 1000, reportEvery = 0, metricsEvery = 0;
+    int spinIterations = 0;
+    int tileSize = SimulationEngine.DEFAULT_TILE_SIZE, tileOrder = SimulationEngine.TILE_ORDER_ROWS, jobsPerThread = 1;
+    int generationsPerFrame = 1;
+    boolean bitPacked = false, trackAges = true, workStealing = false, barrier = false;
+    boolean trackStatistics = false, vectorKernel = true;
+    String loadFile = null, saveFile = null;
+    long seed = new Random().nextLong();
+    double density = RandomGrid.DEFAULT_DENSITY;
+    Rule rule = Rule.CONWAY;
+    boolean chunked = false;
+    int topology = SimulationEngine.TOPOLOGY_BOUNDED;
+    for (int i = 0; i < args.length; i++)
+    {
+      switch (args[i])
+      {
+        case "--preset": preset = args[++i]; break;
+        case "--seed": seed = Long.parseLong(args[++i]); break;
+        case "--density": density = Double.parseDouble(args[++i]); break;
+        case "--size": width = height = Integer.parseInt(args[++i]); break;
+        case "--width": width = Integer.parseInt(args[++i]); break;
+        case "--height": height = Integer.parseInt(args[++i]); break;
+        case "--threads": numThreads = Integer.parseInt(args[++i]); break;
+        case "--generations": generations = Long.parseLong(args[++i]); break;
+        case "--report-every": reportEvery = Long.parseLong(args[++i]); break;
+        case "--stats": trackStatistics = true; break;
+        case "--rule": rule = Rule.parse(args[++i]); break;
+        case "--topology": topology = SimulationEngine.parseTopology(args[++i]); break;
+        case "--bitpacked": bitPacked = true; break;
+        case "--chunked": chunked = true; break;
+        case "--no-ages": trackAges = false; break;
+        case "--gens-per-frame": generationsPerFrame = Integer.parseInt(args[++i]); break;
+        case "--tile-size": tileSize = Integer.parseInt(args[++i]); break;
+        case "--tile-order": tileOrder = SimulationEngine.parseTileOrder(args[++i]); break;
+        case "--jobs-per-thread": jobsPerThread = Integer.parseInt(args[++i]); break;
+        case "--scalar": vectorKernel = false; break;
+        case "--spin": spinIterations = Integer.parseInt(args[++i]); break;
+        case "--work-stealing": workStealing = true; break;
+        case "--barrier": barrier = true; break;
+        case "--load": loadFile = args[++i]; break;
+        case "--save": saveFile = args[++i]; break;
+        case "--metrics-every": metricsEvery = Long.parseLong(args[++i]); break;
+        default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+      }
+    }
+
+    SimulationEngine engine = new SimulationEngine(width, height, bitPacked, trackAges, tileSize);
+    engine.setTileOrder(tileOrder);
+    engine.setJobsPerThread(jobsPerThread);
+    engine.setGenerationsPerFrame(generationsPerFrame);
+    engine.setVectorKernel(vectorKernel);
+    engine.setRule(rule);
+    engine.setTopology(topology);
+    engine.setSpinIterations(spinIterations);
+    engine.setWorkStealing(workStealing);
+    engine.setBarrierWorkers(barrier);
+    engine.setStatisticsTracking(trackStatistics);
+    engine.init(numThreads);
+    MetricsReporter reporter = new MetricsReporter(metricsEvery, true);
+    if (metricsEvery > 0) reporter.start();
+    try
+    {
+      long setupStart = System.nanoTime();
+      if (loadFile != null)
+      {
+        engine.loadSnapshot(Paths.get(loadFile));
+        System.out.printf("Snapshot %s loaded in %.1f ms (generation %d, population %d)%n", loadFile,
+                          (System.nanoTime() - setupStart) / 1e6, engine.getGeneration(), engine.getPopulation());
+      }
+      else
+      {
+        World world = new World(preset, PresetLibrary.create(preset, seed, density), engine);
+        world.initEngine();
+        System.out.printf("Preset %s applied in %.1f ms (population %d)%n", world,
+                          (System.nanoTime() - setupStart) / 1e6, engine.getPopulation());
+        if (preset.equalsIgnoreCase("random")) System.out.println("Seed: " + seed);
+      }
+
+      if (chunked)
+      {
+        runChunked(engine, rule, numThreads, generations, reportEvery);
+        return;
+      }
+      long start = System.nanoTime();
+      long remaining = generations;
+      while (remaining > 0)
+      {
+        long batch = reportEvery > 0 ? Math.min(reportEvery, remaining) : remaining;
+        engine.step(batch);
+        remaining -= batch;
+        if (reportEvery > 0)
+        {
+          double seconds = (System.nanoTime() - start) / 1e9;
+          GenerationStats stats = engine.getStatistics();
+          System.out.printf("  generation %d: %.2f gens/s (population %d", generations - remaining,
+                            (generations - remaining) / seconds, stats.getPopulation());
+          if (trackStatistics) System.out.printf(", births %d, deaths %d", stats.getBirths(), stats.getDeaths());
+          System.out.println(")");
+        }
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.printf("Board:        %d x %d (%s)%n", width, height, bitPacked ? "bit-packed" : "byte per cell, " + engine.getRowKernelName() + " kernel");
+      System.out.printf("Rule:         %s%n", engine.getRule());
+      System.out.printf("Threads:      %d%n", numThreads);
+      if (generationsPerFrame > 1) System.out.printf("Gens/frame:   %d%n", generationsPerFrame);
+      System.out.printf("Generations:  %d%n", generations);
+      System.out.printf("Wall time:    %.3f s%n", seconds);
+      System.out.printf("Gens/sec:     %.2f%n", generations / seconds);
+      System.out.printf("Cells/sec:    %.0f%n", generations / seconds * width * height);
+      System.out.printf("Population:   %d%n", engine.getStatistics().getPopulation());
+      if (saveFile != null)
+      {
+        engine.saveSnapshot(Paths.get(saveFile), trackAges || !bitPacked);
+        System.out.println("Snapshot written to " + saveFile);
+      }
+    }
+    finally
+    {
+      reporter.stop();
+      engine.shutdown();
+    }
+    if (Metrics.ENABLED && metricsEvery <= 0) reporter.report();
+  }
+
+  /**
+   * Copies the engine's board into a ChunkedEngine and runs the generations there,
+   * so patterns keep growing past the edges of the board.
+   */
+  private static void runChunked(SimulationEngine engine, Rule rule, int numThreads, long generations, long reportEvery)
+    throws InterruptedException
+  {
+    ChunkedEngine chunked = new ChunkedEngine();
+    chunked.setRule(rule);
+    chunked.init(numThreads);
+    try
+    {
+      engine.lock();
+      try
+      {
+        chunked.importFrom(engine);
+      }
+      finally
+      {
+        engine.unlock();
+      }
+      long start = System.nanoTime();
+      long remaining = generations;
+      while (remaining > 0)
+      {
+        long batch = reportEvery > 0 ? Math.min(reportEvery, remaining) : remaining;
+        chunked.step(batch);
+        remaining -= batch;
+        if (reportEvery > 0)
+        {
+          double seconds = (System.nanoTime() - start) / 1e9;
+          System.out.printf("  generation %d: %.2f gens/s (population %d, chunks %d)%n", generations - remaining,
+                            (generations - remaining) / seconds, chunked.getPopulation(), chunked.getNumChunks());
+        }
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.printf("World:        unbounded, %d x %d chunks%n", Chunk.SIZE, Chunk.SIZE);
+      System.out.printf("Rule:         %s%n", chunked.getRule());
+      System.out.printf("Threads:      %d%n", numThreads);
+      System.out.printf("Generations:  %d%n", generations);
+      System.out.printf("Wall time:    %.3f s%n", seconds);
+      System.out.printf("Gens/sec:     %.2f%n", generations / seconds);
+      System.out.printf("Population:   %d%n", chunked.getPopulation());
+      System.out.printf("Chunks:       %d (%d KB)%n", chunked.getNumChunks(), chunked.getNumChunks() * (long)Chunk.SIZE * Chunk.SIZE / 4 / 1024);
+    }
+    finally
+    {
+      chunked.shutdown();
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package cs351.lab4;
+
+/**
+ * Immutable quadtree node used by the HashlifeEngine. A node at level n covers
+ * a 2^n x 2^n square of cells and is made up of four level n-1 children (level 0
+ * nodes are single cells). Nodes are canonicalized by the engine so that two nodes
+ * with the same contents are always the same object, which lets the children be
+ * compared by reference.
+ *
+ * @author Justin Hall
+ */
+public final class QuadNode
+{
+  public final QuadNode NW, NE, SW, SE;
+  public final int LEVEL;
+  public final long POPULATION;
+  final int HASH;
+  // memoized RESULT (centered level - 1 node advanced 2^resultStep generations)
+  QuadNode result;
+  int resultStep = -1;
+  // next node in the same bucket of the engine's hash table
+  QuadNode nextInBucket;
+  // last collection that found the node still in use (see HashlifeEngine.collect)
+  int mark;
+
+  /**
+   * Creates a single cell (level 0 node).
+   *
+   * @param alive true if the cell is alive and false if not
+   */
+  QuadNode(boolean alive)
+  {
+    NW = NE = SW = SE = null;
+    LEVEL = 0;
+    POPULATION = alive ? 1 : 0;
+    HASH = alive ? 1 : 0;
+  }
+
+  /**
+   * Creates a node out of four children of the same level.
+   *
+   * @param nw north-west child
+   * @param ne north-east child
+   * @param sw south-west child
+   * @param se south-east child
+   */
+  QuadNode(QuadNode nw, QuadNode ne, QuadNode sw, QuadNode se)
+  {
+    NW = nw;
+    NE = ne;
+    SW = sw;
+    SE = se;
+    LEVEL = nw.LEVEL + 1;
+    POPULATION = nw.POPULATION + ne.POPULATION + sw.POPULATION + se.POPULATION;
+    HASH = hash(nw, ne, sw, se);
+  }
+
+  /**
+   * Structural hash of four children - equal subtrees always hash the same way
+   * since canonical children have equal hashes.
+   *
+   * @return hash for a node with the given children
+   */
+  static int hash(QuadNode nw, QuadNode ne, QuadNode sw, QuadNode se)
+  {
+    int h = nw.HASH;
+    h = h * 1_000_003 + ne.HASH;
+    h = h * 1_000_003 + sw.HASH;
+    h = h * 1_000_003 + se.HASH;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Checks if this node has exactly the given children (by reference).
+   *
+   * @return true if the children match and false if not
+   */
+  boolean hasChildren(QuadNode nw, QuadNode ne, QuadNode sw, QuadNode se)
+  {
+    return NW == nw && NE == ne && SW == sw && SE == se;
+  }
+
+  /**
+   * Returns the side length of the square this node covers.
+   *
+   * @return 2^LEVEL
+   */
+  public long getSize()
+  {
+    return 1L << LEVEL;
+  }
+}
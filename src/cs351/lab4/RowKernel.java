@@ -0,0 +1,34 @@
+package cs351.lab4;
+
+/**
+ * Computes the next generation for one row of a tile on a byte-per-cell board.
+ * GridUpdateJob does the tile bookkeeping and hands each row to one of these, so
+ * the cell update itself can be swapped out (see ScalarRowKernel and
+ * VectorRowKernel).
+ *
+ * @author Justin Hall
+ */
+public interface RowKernel
+{
+  /**
+   * Writes the next age of the cells [xStart, xEnd) of one row to dst. Ages go up
+   * by one every generation a cell survives (capped at 10), newborn cells get age
+   * 1 and dead cells age 0.
+   *
+   * @param src buffer holding the current generation (row-major with border padding)
+   * @param dst buffer to write the next generation to (same layout as src)
+   * @param mid index of the start of the row in the buffers
+   * @param stride length of a row in the buffers (board width + 2)
+   * @param xStart first cell to update (inclusive, at least 1)
+   * @param xEnd cell to stop at (exclusive, at most stride - 1)
+   * @return true if any of the cells changed
+   */
+  boolean updateRow(byte[] src, byte[] dst, int mid, int stride, int xStart, int xEnd);
+
+  /**
+   * Gets a short name for the kernel (for logs and benchmark results).
+   *
+   * @return kernel name
+   */
+  String getName();
+}
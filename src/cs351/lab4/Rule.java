@@ -0,0 +1,197 @@
+package cs351.lab4;
+
+/**
+ * An outer-totalistic cellular automaton rule: the set of live-neighbor counts that
+ * bring a dead cell to life, the set that keep a live cell alive and (for
+ * Generations rules) how many states a cell goes through while it is dying. Rules
+ * are immutable and are usually created with parse, which understands the usual
+ * rulestring forms:
+ *
+ *   B3/S23, B36/S23, B3678/S34678    birth/survival
+ *   23/3, 23/36                      survival/birth (the older notation)
+ *   B2/S/C3, B2/S345/C4              Generations with the number of states
+ *   345/2/4                          Generations as survival/birth/states
+ *
+ * A Generations rule with C states has one live state and C - 2 dying states.
+ * A dying cell counts as dead for its neighbors and can't be born again until it
+ * has gone through every dying state. C = 2 is an ordinary rule.
+ *
+ * @author Justin Hall
+ */
+public class Rule
+{
+  public static final Rule CONWAY = new Rule(1 << 3, (1 << 2) | (1 << 3), 2);
+  // dying states are stored as negative ages on the byte board so there can't be more than 128
+  public static final int MAX_STATES = 128;
+  // bit n is set if a cell with n live neighbors is born / survives
+  private final int BIRTH, SURVIVAL;
+  private final int STATES;
+
+  /**
+   * Creates a rule from its neighbor count sets.
+   *
+   * @param birth bit n set if a dead cell with n live neighbors comes alive (n from 1 to 8)
+   * @param survival bit n set if a live cell with n live neighbors stays alive (n from 0 to 8)
+   * @param states number of states a cell can be in (2 for an ordinary rule, up to MAX_STATES)
+   * @throws IllegalArgumentException if the sets or the number of states are not valid
+   */
+  public Rule(int birth, int survival, int states)
+  {
+    if ((birth & ~0x1FE) != 0) throw new IllegalArgumentException("Birth counts must be from 1 to 8 (B0 rules are not supported)");
+    else if ((survival & ~0x1FF) != 0) throw new IllegalArgumentException("Survival counts must be from 0 to 8");
+    else if (states < 2 || states > MAX_STATES) throw new IllegalArgumentException("Rules must have from 2 to " + MAX_STATES + " states");
+    BIRTH = birth;
+    SURVIVAL = survival;
+    STATES = states;
+  }
+
+  /**
+   * Parses a rulestring (see the class comment for the forms it accepts). Letters
+   * can be upper or lower case.
+   *
+   * @param rulestring rule to parse
+   * @return parsed rule
+   * @throws IllegalArgumentException if the rulestring is not valid
+   */
+  public static Rule parse(String rulestring)
+  {
+    String[] parts = rulestring.trim().toUpperCase().split("/", -1);
+    if (parts.length < 2 || parts.length > 3) throw new IllegalArgumentException("Invalid rulestring: " + rulestring);
+    int birth = 0, survival = 0, states = 2;
+    boolean tagged = parts[0].startsWith("B") || parts[0].startsWith("S");
+    for (int i = 0; i < parts.length; i++)
+    {
+      String part = parts[i];
+      // untagged rulestrings are survival/birth(/states)
+      char tag = tagged ? (part.isEmpty() ? ' ' : part.charAt(0)) : "SBC".charAt(i);
+      String value = tagged ? part.substring(Math.min(1, part.length())) : part;
+      if (tag == 'B') birth = parseCounts(value, rulestring);
+      else if (tag == 'S') survival = parseCounts(value, rulestring);
+      else if (tag == 'C' || (tagged && tag >= '0' && tag <= '9' && i == 2))
+      {
+        try
+        {
+          states = Integer.parseInt(tag == 'C' ? value : part);
+        }
+        catch (NumberFormatException e)
+        {
+          throw new IllegalArgumentException("Invalid number of states in rulestring: " + rulestring);
+        }
+      }
+      else throw new IllegalArgumentException("Invalid rulestring: " + rulestring);
+    }
+    return new Rule(birth, survival, states);
+  }
+
+  /**
+   * Gets the neighbor counts that bring a dead cell to life.
+   *
+   * @return bit n set if n live neighbors cause a birth
+   */
+  public int getBirthMask()
+  {
+    return BIRTH;
+  }
+
+  /**
+   * Gets the neighbor counts that keep a live cell alive.
+   *
+   * @return bit n set if a live cell with n live neighbors survives
+   */
+  public int getSurvivalMask()
+  {
+    return SURVIVAL;
+  }
+
+  /**
+   * Gets the number of states a cell can be in, counting dead and alive.
+   *
+   * @return 2 for ordinary rules and more for Generations rules
+   */
+  public int getStates()
+  {
+    return STATES;
+  }
+
+  /**
+   * Gets the number of dying states a cell goes through after it stops surviving.
+   * On the byte board these are stored as ages -1 down to -getDyingStates().
+   *
+   * @return STATES - 2
+   */
+  public int getDyingStates()
+  {
+    return STATES - 2;
+  }
+
+  /**
+   * Checks if this is Conway's Game of Life (B3/S23).
+   *
+   * @return true if it is and false if not
+   */
+  public boolean isConway()
+  {
+    return equals(CONWAY);
+  }
+
+  /**
+   * Checks if two rules behave the same.
+   *
+   * @param other object to compare to
+   * @return true if other is a rule with the same counts and states
+   */
+  @Override
+  public boolean equals(Object other)
+  {
+    if (!(other instanceof Rule)) return false;
+    Rule rule = (Rule)other;
+    return BIRTH == rule.BIRTH && SURVIVAL == rule.SURVIVAL && STATES == rule.STATES;
+  }
+
+  /**
+   * Hashes the counts and states.
+   *
+   * @return hash code
+   */
+  @Override
+  public int hashCode()
+  {
+    return (BIRTH * 31 + SURVIVAL) * 31 + STATES;
+  }
+
+  /**
+   * Gets the rule in B/S notation (with /C for Generations rules), e.g. "B36/S23".
+   *
+   * @return rulestring that parse turns back into this rule
+   */
+  @Override
+  public String toString()
+  {
+    String rule = "B" + countsToString(BIRTH) + "/S" + countsToString(SURVIVAL);
+    return STATES > 2 ? rule + "/C" + STATES : rule;
+  }
+
+  /**
+   * Turns a string of digits into a set of neighbor counts.
+   */
+  private static int parseCounts(String digits, String rulestring)
+  {
+    int counts = 0;
+    for (char c : digits.toCharArray())
+    {
+      if (c < '0' || c > '8') throw new IllegalArgumentException("Invalid neighbor count '" + c + "' in rulestring: " + rulestring);
+      counts |= 1 << (c - '0');
+    }
+    return counts;
+  }
+
+  /**
+   * Turns a set of neighbor counts into a string of digits.
+   */
+  private static String countsToString(int counts)
+  {
+    StringBuilder digits = new StringBuilder();
+    for (int n = 0; n <= 8; n++) if ((counts & (1 << n)) != 0) digits.append(n);
+    return digits.toString();
+  }
+}
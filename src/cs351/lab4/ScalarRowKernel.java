@@ -0,0 +1,77 @@
+package cs351.lab4;
+
+/**
+ * The plain Java row kernel. It works on any JVM and is what the engine falls back
+ * to when the Vector API is not available. The rule is turned into an 18-bit
+ * lookup table when the kernel is created (one bit for each live-neighbor count of
+ * a dead cell and then of a live cell), so every rule costs the same as Conway's.
+ *
+ * @author Justin Hall
+ */
+public class ScalarRowKernel implements RowKernel
+{
+  private static final int MAX_CELL_AGE = 10;
+  // bit (alive * 9 + neighbors) is set if the cell is alive in the next generation
+  private final int NEXT_ALIVE;
+  // age a live cell gets when it stops surviving (-1 for Generations rules, 0 otherwise)
+  private final int FIRST_DYING_AGE;
+  // age of the last dying state (the cell is dead in the generation after it)
+  private final int LAST_DYING_AGE;
+
+  /**
+   * Builds the lookup table for a rule.
+   *
+   * @param rule rule to run
+   */
+  public ScalarRowKernel(Rule rule)
+  {
+    NEXT_ALIVE = rule.getBirthMask() | (rule.getSurvivalMask() << 9);
+    FIRST_DYING_AGE = rule.getDyingStates() > 0 ? -1 : 0;
+    LAST_DYING_AGE = -rule.getDyingStates();
+  }
+
+  /**
+   * Updates the cells [xStart, xEnd) of one row by sliding a three-column window
+   * across the row above, the row itself and the row below. Each step only has to
+   * load the three cells of the new right-hand column since the sums for the
+   * other two columns carry over from the previous cell. Dying cells (negative
+   * ages) count as dead neighbors and just move on to their next state.
+   */
+  @Override
+  public boolean updateRow(byte[] src, byte[] dst, int mid, int stride, int xStart, int xEnd)
+  {
+    final int up = mid - stride;
+    final int down = mid + stride;
+    boolean changed = false;
+    // (-age) >>> 31 is 1 for a live cell and 0 for a dead (or dying) one without branching
+    int left = ((-src[up + xStart - 1]) >>> 31) + ((-src[mid + xStart - 1]) >>> 31) + ((-src[down + xStart - 1]) >>> 31);
+    int center = ((-src[up + xStart]) >>> 31) + ((-src[mid + xStart]) >>> 31) + ((-src[down + xStart]) >>> 31);
+    for (int x = xStart; x < xEnd; ++x)
+    {
+      int right = ((-src[up + x + 1]) >>> 31) + ((-src[mid + x + 1]) >>> 31) + ((-src[down + x + 1]) >>> 31);
+      int age = src[mid + x];
+      int isAlive = (-age) >>> 31;
+      int neighbors = left + center + right - isAlive;
+      int next;
+      if (age < 0) next = age > LAST_DYING_AGE ? age - 1 : 0;
+      else if (((NEXT_ALIVE >>> (isAlive * 9 + neighbors)) & 1) != 0) next = Math.min(age + 1, MAX_CELL_AGE);
+      else next = isAlive != 0 ? FIRST_DYING_AGE : 0;
+      dst[mid + x] = (byte)next;
+      changed |= next != age;
+      left = center;
+      center = right;
+    }
+    return changed;
+  }
+
+  /**
+   * Gets the kernel's name.
+   *
+   * @return "scalar"
+   */
+  @Override
+  public String getName()
+  {
+    return "scalar";
+  }
+}
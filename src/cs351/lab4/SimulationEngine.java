@@ -1,6 +1,23 @@
 package cs351.lab4;
 
+import cs351.job.Job;
+import cs351.job.JobScheduler;
 import cs351.job.JobSystem;
+import cs351.job.WorkStealingJobSystem;
+import cs351.metrics.GenerationEvent;
+import cs351.metrics.InstrumentedLock;
+import cs351.metrics.LatencyHistogram;
+import cs351.metrics.Metrics;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -12,21 +29,142 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 public class SimulationEngine
 {
-  private final ReentrantLock LOCK = new ReentrantLock();
-  private byte[][] frontBuffer;
-  private byte[][] backBuffer;
+  // rule the update jobs run (written to snapshot files and switched to when one is loaded)
+  private Rule rule = Rule.CONWAY;
+  // records how long threads wait for it when metrics are enabled
+  private final ReentrantLock LOCK = new InstrumentedLock("engine.lock");
+  // signaled every time a frame finishes (or the engine finds the board is stable)
+  private final Condition FRAME_FINISHED = LOCK.newCondition();
+  // wakes the pacing thread when a paced frame is scheduled or the target rate changes
+  private final Condition PACER_WAKE = LOCK.newCondition();
+  // row-major with a one cell border of padding: cell (x, y) is at y * (worldWidth + 2) + x.
+  // The padding is dead on a bounded board and a copy of the cells across the opposite
+  // edge on a board that wraps around
+  private byte[] frontBuffer;
+  private byte[] backBuffer;
+  // the front buffer from the previous frame - it is kept out of the rotation for one
+  // frame, and for longer if a reader still has it pinned (see swapBuffers)
+  private byte[] spareBuffer;
+  // live-cell counts for each of the three byte buffers (used to draw the board zoomed out)
+  private DensityPyramid frontPyramid;
+  private DensityPyramid backPyramid;
+  private DensityPyramid sparePyramid;
+  // only used when the engine was created with a bit-packed board
+  private BitGrid frontGrid;
+  private BitGrid backGrid;
+  private BitGrid spareGrid;
+  // latest completed generation (replaced every time the buffers are swapped)
+  private volatile GridSnapshot snapshot;
+  // number of pins on each buffer (byte[] or BitGrid) a reader is holding with
+  // pinSnapshot - swapBuffers never makes a pinned buffer the back buffer. This has its
+  // own lock so that readers never wait on a frame
+  private final ReentrantLock PIN_LOCK = new ReentrantLock();
+  private final Map<Object, Integer> PINNED_BUFFERS = new IdentityHashMap<>();
+  // true once a swap passed over the spare buffer, after which it is more than one
+  // generation behind the front buffer and has to be brought up to date before it can
+  // be used as a back buffer again
+  private boolean spareIsStale = false;
+  private final boolean BIT_PACKED;
   private int worldWidth, worldHeight;
   private GridUpdateJob[] jobs;
+  private BitGridUpdateJob[] bitJobs;
+  // byte boards are split into TILE_SIZE x TILE_SIZE tiles and only the tiles that
+  // changed last frame (or have a neighbor that did) are updated
+  public static final int DEFAULT_TILE_SIZE = 64;
+  public static final int MIN_TILE_SIZE = 1 << DensityPyramid.BASE_SHIFT;
+  public static final int MAX_TILE_SIZE = 1024;
+  private final int TILE_SHIFT;
+  private final int TILE_SIZE;
+  private int tilesPerRow, tilesPerColumn;
+  // orders the active tile list is built in - each job gets a contiguous piece of the list,
+  // so this decides the shape of the area a job covers
+  public static final int TILE_ORDER_ROWS = 0;
+  public static final int TILE_ORDER_COLUMNS = 1;
+  public static final int TILE_ORDER_MORTON = 2;
+  private int tileOrder = TILE_ORDER_ROWS;
+  // every tile index in the order findActiveTiles visits them
+  private int[] orderedTiles;
+  // what lies past the edges of the board: dead cells (bounded), the opposite edge
+  // (torus) or the opposite edge for left/right and the opposite edge flipped left to
+  // right for top/bottom (Klein bottle)
+  public static final int TOPOLOGY_BOUNDED = 0;
+  public static final int TOPOLOGY_TORUS = 1;
+  public static final int TOPOLOGY_KLEIN_BOTTLE = 2;
+  private int topology = TOPOLOGY_BOUNDED;
+  // the active tiles are cut into this many slices per thread
+  private int jobsPerThread = 1;
+  // generations each frame of a bit-packed board covers (see setGenerationsPerFrame) and
+  // the number the current (or last) frame covers, which is less when step is almost done
+  private int generationsPerFrame = 1;
+  private int frameGenerations = 1;
+  // the byte board's update jobs use the Vector API kernel when this is set and it can be loaded
+  private boolean useVectorKernel = true;
+  private RowKernel rowKernel;
+  private boolean[] changedTiles;
+  // changed flags from the frame before - the back buffer is two generations old, so a
+  // tile can only be skipped if it hasn't changed in either of the last two frames
+  private boolean[] prevChangedTiles;
+  // tiles edited with setAge whose density counts haven't been recomputed yet
+  private boolean[] dirtyTiles;
+  private boolean hasDirtyTiles = false;
+  private int[] activeTiles;
   private boolean isStarted = false;
   private boolean isPaused = true;
   private boolean prevFrameFinished = true;
   private boolean needsToSwapBuffers = true;
+  // true when the last call to runFrame found no active tiles
+  private boolean isStable = false;
+  private long generation = 0;
+  // the engine pauses itself once it reaches this generation (-1 to never pause)
+  private long pauseAtGeneration = -1;
+  // minimum time from the start of one frame to the start of the next while running
+  // freely (0 to run as fast as possible) - with a target set, finished frames are
+  // published right away and the pacing thread starts the next one once it is due
+  private long targetNanosPerGeneration = 0;
+  private Thread pacer;
+  private boolean pacedFrameScheduled = false;
+  // when the current frame was due - paced frames are due a fixed time apart so slow frames
+  // are made up for by the ones after them, unless the engine falls this far behind
+  private long frameDueNanos;
+  private static final long MAX_PACING_LAG_NANOS = 250_000_000L;
   private int numThreads;
   private int numActiveThreads;
-  private JobSystem jobSystem;
+  private int spinIterations = 0;
+  private boolean useWorkStealing = false;
+  private JobScheduler jobSystem;
+  // persistent threads that step generations on a barrier instead of going through the job system
+  private boolean useBarrierWorkers = false;
+  private BarrierWorkerPool barrierWorkers;
+  private Runnable[] barrierTasks;
+  // population counts for the latest generation - the jobs hand in the changes they
+  // made each frame and those are added on top when the frame finishes
+  private GenerationStats statistics;
+  private long population = 0;
+  // cells of each age with anything older than GenerationStats.MAX_AGE counted as MAX_AGE
+  private final long[] AGE_COUNTS = new long[GenerationStats.MAX_AGE + 1];
+  private long frameBirths, frameDeaths;
+  private final long[] FRAME_DEATHS_BY_AGE = new long[GenerationStats.MAX_AGE + 1];
+  // set by every edit (and every frame when the jobs aren't counting) so that the counts are
+  // rebuilt from the front buffer before they are used again
+  private boolean statisticsNeedRecount = false;
+  private boolean trackStatistics = false;
+  // time from handing out a generation's jobs to the last one finishing (only kept with metrics enabled)
+  private static final LatencyHistogram GENERATION_TIMES = Metrics.histogram("engine.generationNanos");
+  private long frameStartNanos;
+  private GenerationEvent generationEvent;
+  // bulk edits of at least this many cells are split into bands and run on the job system
+  private static final int MIN_PARALLEL_CELLS = 1 << 18;
 
   /**
-   * Creates the front abd back buffers with the given width/height
+   * Work done by the bulk edits for one band of rows.
+   */
+  private interface RowTask
+  {
+    void run(int startRow, int endRow);
+  }
+
+  /**
+   * Creates the front, back and spare buffers with the given width/height
    * values (with +2 for border padding).
    *
    * @param worldWidth width of the grid in pixels
@@ -34,10 +172,73 @@ public class SimulationEngine
    */
   public SimulationEngine(int worldWidth, int worldHeight)
   {
+    this(worldWidth, worldHeight, false, true);
+  }
+
+  /**
+   * Creates either the byte-per-cell buffers or three bit-packed grids that store
+   * 64 cells per long. With a bit-packed board the cell ages are only stored if
+   * trackAges is true (otherwise getAge reports 1 for every live cell).
+   *
+   * @param worldWidth width of the grid in pixels
+   * @param worldHeight height of the grid in pixels
+   * @param bitPacked true to store one bit per cell and false for one byte per cell
+   * @param trackAges only used for bit-packed boards - true if an age plane should be kept
+   */
+  public SimulationEngine(int worldWidth, int worldHeight, boolean bitPacked, boolean trackAges)
+  {
+    this(worldWidth, worldHeight, bitPacked, trackAges, DEFAULT_TILE_SIZE);
+  }
+
+  /**
+   * Same as SimulationEngine(worldWidth, worldHeight, bitPacked, trackAges) but with
+   * the size of the tiles a byte-per-cell board is split into. Smaller tiles skip
+   * more of a sparse board and keep each tile's rows in the L1 cache; larger tiles
+   * cost less bookkeeping per cell. Bit-packed boards ignore this.
+   *
+   * @param worldWidth width of the grid in pixels
+   * @param worldHeight height of the grid in pixels
+   * @param bitPacked true to store one bit per cell and false for one byte per cell
+   * @param trackAges only used for bit-packed boards - true if an age plane should be kept
+   * @param tileSize width/height of a tile - a power of two from MIN_TILE_SIZE to MAX_TILE_SIZE
+   * @throws IllegalArgumentException if the tile size is not valid
+   */
+  public SimulationEngine(int worldWidth, int worldHeight, boolean bitPacked, boolean trackAges, int tileSize)
+  {
+    if (Integer.bitCount(tileSize) != 1 || tileSize < MIN_TILE_SIZE || tileSize > MAX_TILE_SIZE)
+    {
+      throw new IllegalArgumentException("Tile size must be a power of two from " + MIN_TILE_SIZE + " to " + MAX_TILE_SIZE);
+    }
     this.worldWidth = worldWidth;
     this.worldHeight = worldHeight;
-    frontBuffer = new byte[worldWidth + 2][worldHeight + 2];
-    backBuffer = new byte[worldWidth + 2][worldHeight + 2];
+    BIT_PACKED = bitPacked;
+    TILE_SIZE = tileSize;
+    TILE_SHIFT = Integer.numberOfTrailingZeros(tileSize);
+    if (BIT_PACKED)
+    {
+      frontGrid = new BitGrid(worldWidth, worldHeight, trackAges);
+      backGrid = new BitGrid(worldWidth, worldHeight, trackAges);
+      spareGrid = new BitGrid(worldWidth, worldHeight, trackAges);
+    }
+    else
+    {
+      frontBuffer = new byte[(worldWidth + 2) * (worldHeight + 2)];
+      backBuffer = new byte[(worldWidth + 2) * (worldHeight + 2)];
+      spareBuffer = new byte[(worldWidth + 2) * (worldHeight + 2)];
+      tilesPerRow = (worldWidth + TILE_SIZE - 1) / TILE_SIZE;
+      tilesPerColumn = (worldHeight + TILE_SIZE - 1) / TILE_SIZE;
+      changedTiles = new boolean[tilesPerRow * tilesPerColumn];
+      prevChangedTiles = new boolean[tilesPerRow * tilesPerColumn];
+      dirtyTiles = new boolean[tilesPerRow * tilesPerColumn];
+      frontPyramid = new DensityPyramid(worldWidth, worldHeight, TILE_SHIFT);
+      backPyramid = new DensityPyramid(worldWidth, worldHeight, TILE_SHIFT);
+      sparePyramid = new DensityPyramid(worldWidth, worldHeight, TILE_SHIFT);
+      activeTiles = new int[tilesPerRow * tilesPerColumn];
+      Arrays.fill(changedTiles, true);
+    }
+    AGE_COUNTS[0] = (long)worldWidth * worldHeight;
+    statistics = new GenerationStats(0, 0, 0, 0, AGE_COUNTS);
+    publishSnapshot();
   }
 
   /**
@@ -56,19 +257,31 @@ public class SimulationEngine
       System.out.println("Initializing engine ...");
       isStarted = true;
       this.numThreads = numThreads;
-      jobs = new GridUpdateJob[numThreads];
-      int xOffset = worldWidth / numThreads;
-      for (int i = 0; i < numThreads; i++)
-      {
-        int xStart = i * xOffset + 1;
-        int xEnd = xStart + xOffset;
-        // when worldWidth / numThreads doesn't divide evenly, this prevents it
-        // from leaving dead cells at the end of the board
-        if (i + 1 >= numThreads) xEnd = worldWidth + 1;
-        jobs[i] = new GridUpdateJob(this, xStart, xEnd, 1, worldHeight + 1);
-      }
-      jobSystem = new JobSystem(numThreads);
+      if (BIT_PACKED) createBitJobs();
+      else
+      {
+        createJobs();
+        orderTiles();
+      }
+      if (useWorkStealing) jobSystem = new WorkStealingJobSystem(numThreads);
+      else jobSystem = new JobSystem(numThreads, spinIterations);
       jobSystem.start();
+      pacer = new Thread(this::paceFrames, "EnginePacer");
+      pacer.setDaemon(true);
+      pacer.start();
+      if (useBarrierWorkers)
+      {
+        barrierTasks = new Runnable[numThreads];
+        for (int i = 0; i < numThreads; i++)
+        {
+          final int THREAD = i;
+          // the jobs are looked up every frame since setRule replaces them
+          if (BIT_PACKED) barrierTasks[i] = () -> bitJobs[THREAD].updateRows();
+          else barrierTasks[i] = () -> { for (int j = THREAD; j < jobs.length; j += numThreads) jobs[j].updateTiles(); };
+        }
+        barrierWorkers = new BarrierWorkerPool(numThreads, this::notifyEngineOfBarrier);
+        barrierWorkers.start();
+      }
       System.out.println("Engine initialized");
     }
     finally
@@ -78,17 +291,111 @@ public class SimulationEngine
   }
 
   /**
-   * Gets the number of threads the engine is currently using.
+   * Creates jobsPerThread GridUpdateJobs per thread. The tiles each of them updates
+   * are handed out by runFrame based on which tiles are active that frame.
+   */
+  private void createJobs()
+  {
+    rowKernel = useVectorKernel ? loadVectorKernel(rule) : null;
+    if (rowKernel == null) rowKernel = new ScalarRowKernel(rule);
+    System.out.println("Using the " + rowKernel.getName() + " row kernel");
+    jobs = new GridUpdateJob[numThreads * jobsPerThread];
+    for (int i = 0; i < jobs.length; i++)
+    {
+      jobs[i] = new GridUpdateJob(this, TILE_SIZE, tilesPerRow, worldWidth, worldHeight, trackStatistics, rowKernel, topology);
+    }
+  }
+
+  /**
+   * Loads VectorRowKernel by name so that the engine still works on JVMs that were
+   * started without the jdk.incubator.vector module.
    *
-   * @return number of threads
+   * @param rule rule the kernel should run
+   * @return the vector kernel or null if the Vector API is not available
    */
-  public int getNumThreads()
+  private static RowKernel loadVectorKernel(Rule rule)
+  {
+    try
+    {
+      return (RowKernel)Class.forName("cs351.lab4.VectorRowKernel").getDeclaredConstructor(Rule.class).newInstance(rule);
+    }
+    catch (ReflectiveOperationException | LinkageError e)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Fills orderedTiles with every tile index in the chosen tile order. Rows gives
+   * each job a band of whole tile rows, columns gives each job a full-height strip
+   * of tile columns, and Morton (Z-order) gives each job a roughly square block of
+   * tiles so that it shares as few tile edges with the other jobs as possible.
+   */
+  private void orderTiles()
+  {
+    orderedTiles = new int[tilesPerRow * tilesPerColumn];
+    int next = 0;
+    if (tileOrder == TILE_ORDER_COLUMNS)
+    {
+      for (int tx = 0; tx < tilesPerRow; tx++)
+      {
+        for (int ty = 0; ty < tilesPerColumn; ty++) orderedTiles[next++] = ty * tilesPerRow + tx;
+      }
+    }
+    else if (tileOrder == TILE_ORDER_MORTON)
+    {
+      // walk the Z-order curve over the smallest power of two square that covers the board
+      int side = Integer.highestOneBit(Math.max(tilesPerRow, tilesPerColumn) - 1) << 1;
+      for (long z = 0, end = (long)Math.max(side, 1) * Math.max(side, 1); z < end; z++)
+      {
+        int tx = compactBits(z), ty = compactBits(z >>> 1);
+        if (tx < tilesPerRow && ty < tilesPerColumn) orderedTiles[next++] = ty * tilesPerRow + tx;
+      }
+    }
+    else
+    {
+      for (int tile = 0; tile < orderedTiles.length; tile++) orderedTiles[next++] = tile;
+    }
+  }
+
+  /**
+   * Gathers the even bits of a Morton code into a single coordinate.
+   */
+  private static int compactBits(long z)
+  {
+    int value = 0;
+    for (int bit = 0; z != 0; bit++, z >>>= 2) value |= (int)(z & 1) << bit;
+    return value;
+  }
+
+  /**
+   * Splits the bit-packed board into numThreads horizontal bands of rows, one
+   * BitGridUpdateJob per band.
+   */
+  private void createBitJobs()
+  {
+    bitJobs = new BitGridUpdateJob[numThreads];
+    int yOffset = worldHeight / numThreads;
+    for (int i = 0; i < numThreads; i++)
+    {
+      int yStart = i * yOffset;
+      int yEnd = i + 1 >= numThreads ? worldHeight : yStart + yOffset;
+      bitJobs[i] = new BitGridUpdateJob(this, yStart, yEnd, trackStatistics, rule, topology);
+    }
+  }
+
+  /**
+   * Sets how many times idle job system threads poll for work before parking. This
+   * takes effect the next time init is called.
+   *
+   * @param spinIterations number of polls (0 to park immediately)
+   */
+  public void setSpinIterations(int spinIterations)
   {
     LOCK.lock();
     try
     {
-      if (!isStarted) throw new RuntimeException("Engine not started");
-      return numThreads;
+      this.spinIterations = spinIterations;
     }
     finally
     {
@@ -97,23 +404,18 @@ public class SimulationEngine
   }
 
   /**
-   * When this is called the engine will either wake back up or stop active
-   * execution. startNextFrame is a flag that lets the engine be unpaused
-   * without starting the next frame (forces a buffer swap without continuing
-   * execution).
+   * Chooses between the default JobSystem and the WorkStealingJobSystem (which splits
+   * expensive update jobs while other threads are idle). This takes effect the next
+   * time init is called.
    *
-   * @param value true if paused and false if resumed
-   * @param startNextFrame if true the next frame is run (which spawns future frames),
-   *                       but if false it just swaps the buffers
+   * @param useWorkStealing true for the work-stealing job system and false for the default
    */
-  public void togglePause(boolean value, boolean startNextFrame)
+  public void setWorkStealing(boolean useWorkStealing)
   {
     LOCK.lock();
     try
     {
-      isPaused = value;
-      if (!isPaused && startNextFrame) runFrame();
-      else if (!isPaused) swapBuffers();
+      this.useWorkStealing = useWorkStealing;
     }
     finally
     {
@@ -122,16 +424,20 @@ public class SimulationEngine
   }
 
   /**
-   * Checks if the engine is paused.
+   * Chooses between running the update jobs through the job system (one submit per
+   * job per generation and a completion callback from each job) and a set of
+   * persistent threads that loop over generations and meet at a barrier whose
+   * action swaps the buffers and starts the next generation. This takes effect
+   * the next time init is called.
    *
-   * @return true if paused and false if not
+   * @param useBarrierWorkers true for the persistent barrier threads and false for the job system
    */
-  public boolean isPaused()
+  public void setBarrierWorkers(boolean useBarrierWorkers)
   {
     LOCK.lock();
     try
     {
-      return isPaused;
+      this.useBarrierWorkers = useBarrierWorkers;
     }
     finally
     {
@@ -140,16 +446,20 @@ public class SimulationEngine
   }
 
   /**
-   * If the previous frame it was working on is done, this will return true.
+   * Sets the order the tiles of a byte-per-cell board are listed in before the list
+   * is cut into one contiguous slice per job (TILE_ORDER_ROWS, TILE_ORDER_COLUMNS or
+   * TILE_ORDER_MORTON). This takes effect the next time init is called.
    *
-   * @return true if yes and false if not
+   * @param tileOrder one of the TILE_ORDER constants
+   * @throws IllegalArgumentException if the order is not one of the constants
    */
-  public boolean previousFrameCompleted()
+  public void setTileOrder(int tileOrder)
   {
+    if (tileOrder < TILE_ORDER_ROWS || tileOrder > TILE_ORDER_MORTON) throw new IllegalArgumentException("Unknown tile order: " + tileOrder);
     LOCK.lock();
     try
     {
-      return prevFrameFinished;
+      this.tileOrder = tileOrder;
     }
     finally
     {
@@ -158,17 +468,21 @@ public class SimulationEngine
   }
 
   /**
-   * Shuts down the job system so that the program can exit cleanly.
+   * Sets how many slices of the active tiles each thread gets per generation on a
+   * byte-per-cell board. With more than one, the slices are spread out over the
+   * threads so that a thread that draws a busy part of the board also gets slices
+   * from quieter parts, and the work-stealing job system has more jobs to move
+   * between threads.
+   * This takes effect the next time init is called.
+   *
+   * @param jobsPerThread slices per thread (at least 1)
    */
-  public void shutdown()
+  public void setJobsPerThread(int jobsPerThread)
   {
     LOCK.lock();
     try
     {
-      if (!isStarted) throw new RuntimeException("Engine was not started");
-      System.out.println("Engine shutdown");
-      isStarted = false;
-      jobSystem.stop(false);
+      this.jobsPerThread = Math.max(jobsPerThread, 1);
     }
     finally
     {
@@ -177,138 +491,222 @@ public class SimulationEngine
   }
 
   /**
-   * Returns the world width.
+   * Makes every frame of a bit-packed board cover the given number of generations
+   * (temporal blocking). Each update job reads that many extra rows above and below
+   * its band and runs them forward itself before writing its band, so the grids are
+   * read and written, and the jobs handed out and waited on, once per frame instead
+   * of once per generation. The extra rows are stepped by both jobs that need them,
+   * which costs more the bigger the count gets compared to the height of the bands.
+   * The generation count and snapshots move forward a whole frame at a time (step
+   * still stops on the exact generation), and births and deaths aren't counted during
+   * a frame that covers more than one generation - the statistics are recounted from
+   * the board instead. This takes effect on the next frame.
    *
-   * @return world width in pixels (minus the border padding)
+   * @param generationsPerFrame generations per frame (1 to run one at a time)
+   * @throws IllegalArgumentException if generationsPerFrame is less than 1, or it is more
+   *                                  than 1 and the board isn't bit-packed or keeps an age plane
    */
-  public int getWorldWidth()
+  public void setGenerationsPerFrame(int generationsPerFrame)
   {
-    return worldWidth;
+    LOCK.lock();
+    try
+    {
+      if (generationsPerFrame < 1) throw new IllegalArgumentException("Generations per frame must be at least 1");
+      else if (generationsPerFrame > 1 && (!BIT_PACKED || frontGrid.isTrackingAges()))
+      {
+        throw new IllegalArgumentException("Only bit-packed boards without ages can run more than one generation per frame");
+      }
+      this.generationsPerFrame = generationsPerFrame;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
   }
 
   /**
-   * Returns the world height.
+   * Caps how fast the engine runs while it is unpaused. Frames still start as soon as
+   * the last one finishes when the engine is behind, so this only ever slows it down.
+   * It can be changed while the engine is running and does not apply to step, which
+   * always runs as fast as possible.
    *
-   * @return world height in pixels (minus the border padding)
+   * @param generationsPerSecond target rate (0 or less to run as fast as possible)
    */
-  public int getWorldHeight()
+  public void setTargetGenerationsPerSecond(double generationsPerSecond)
   {
-    return worldHeight;
+    LOCK.lock();
+    try
+    {
+      targetNanosPerGeneration = generationsPerSecond > 0 ? Math.max((long)(1_000_000_000L / generationsPerSecond), 1) : 0;
+      PACER_WAKE.signalAll();
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
   }
 
   /**
-   * Checks if the given (x, y) pair is valid.
+   * Gets the rate the engine is capped at while it is unpaused.
    *
-   * @param x x-value
-   * @param y y-value
-   * @return true if valid and false if not
-   * @throws IllegalStateException if SimulationEngine.lock() is not called before this
+   * @return target generations per second (0 if uncapped)
    */
-  public boolean isValid(int x, int y) throws IllegalStateException
+  public double getTargetGenerationsPerSecond()
   {
-    if (!LOCK.isHeldByCurrentThread()) throw new IllegalStateException("SimulationEngine.lock() not called before isValid");
-    return x >= 1 && x < getWorldWidth() + 1 && y >= 1 && y < getWorldHeight() + 1;
+    LOCK.lock();
+    try
+    {
+      return targetNanosPerGeneration == 0 ? 0 : 1_000_000_000.0 / targetNanosPerGeneration;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
   }
 
   /**
-   * Sets the age of the cell at the given (x, y) location.
+   * Switches the rule the board is run with. Before init this just picks the rule
+   * the update jobs are created with; after init the engine has to be paused and
+   * the jobs are rebuilt for the new rule. Every tile is marked as changed since
+   * patterns that were stable under the old rule might not be under the new one.
    *
-   * @param x x-location
-   * @param y-location
-   * @param age age of the cell in generations (0 - 10)
-   * @throws RuntimeException if SimulationEngine.lock() is not called before this or if the (x, y) pair is invalid
+   * @param rule rule to run
+   * @throws IllegalStateException if the engine is running
+   * @throws IllegalArgumentException if the rule has dying states and the board is bit-packed
    */
-  public void setAge(int x, int y, int age) throws RuntimeException
+  public void setRule(Rule rule)
   {
-    if (!LOCK.isHeldByCurrentThread()) throw new IllegalStateException("Call SimulationEngine.lock() before calls to setAge");
-    // x and y values start at 1 due to border but getWorldWidth/Height
-    // functions report the size without the border
-    x++;
-    y++;
-    if (!isValid(x, y)) throw new RuntimeException("Invalid (x, y) coordinates to setAge");
-    else if (!isPaused || !prevFrameFinished) return;
-    frontBuffer[x][y] = (byte)age;
-    backBuffer[x][y] = (byte)age;
+    LOCK.lock();
+    try
+    {
+      if (isStarted && (!isPaused || !prevFrameFinished)) throw new IllegalStateException("Engine must be paused before changing the rule");
+      else if (BIT_PACKED && rule.getDyingStates() > 0)
+      {
+        throw new IllegalArgumentException("Generations rules (" + rule + ") need a byte-per-cell board");
+      }
+      else if (rule.equals(this.rule)) return;
+      this.rule = rule;
+      isStable = false;
+      if (!BIT_PACKED)
+      {
+        Arrays.fill(changedTiles, true);
+        Arrays.fill(prevChangedTiles, true);
+      }
+      if (!isStarted) return;
+      if (BIT_PACKED) createBitJobs();
+      else createJobs();
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
   }
 
   /**
-   * Gets the age of the cell at the given (x, y) coordinates.
+   * Gets the rule the board is run with.
    *
-   * @param x x-location
-   * @param y y-location
-   * @return age of the cell
-   * @throws RuntimeException if SimulationEngine.lock() is not called before this or if the given (x, y) pair is invalid
+   * @return current rule
    */
-  public int getAge(int x, int y) throws RuntimeException
+  public Rule getRule()
   {
-    x++;
-    y++;
-    if (!LOCK.isHeldByCurrentThread()) throw new IllegalStateException("Call SimulationEngine.lock() before calls to getAge");
-    else if (!isValid(x, y)) throw new RuntimeException("Invalid (x, y) coordinates to getAge");
-    return frontBuffer[x][y];
+    LOCK.lock();
+    try
+    {
+      return rule;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
   }
 
   /**
-   * This is called by the jobs when they are finished - when the number of working
-   * threads hits 0 the engine knows it needs to start the next frame.
+   * Chooses what lies past the edges of the board (TOPOLOGY_BOUNDED, TOPOLOGY_TORUS or
+   * TOPOLOGY_KLEIN_BOTTLE). On a torus, patterns that leave one edge come back in at
+   * the opposite edge; a Klein bottle does the same but flips them left to right when
+   * they cross the top or bottom edge. Like setRule this can be called before init
+   * or while the engine is paused, and every tile is marked as changed.
+   *
+   * @param topology one of the TOPOLOGY constants
+   * @throws IllegalArgumentException if the topology is not one of the constants
+   * @throws IllegalStateException if the engine is running
    */
-  public void notifyEngineOfThreadCompletion()
+  public void setTopology(int topology)
   {
+    if (topology < TOPOLOGY_BOUNDED || topology > TOPOLOGY_KLEIN_BOTTLE) throw new IllegalArgumentException("Unknown topology: " + topology);
     LOCK.lock();
-    boolean startNextFrame = false;
     try
     {
-      --numActiveThreads;
-      if (numActiveThreads == 0)
+      if (isStarted && (!isPaused || !prevFrameFinished)) throw new IllegalStateException("Engine must be paused before changing the topology");
+      else if (topology == this.topology) return;
+      this.topology = topology;
+      isStable = false;
+      if (topology == TOPOLOGY_BOUNDED) clearPadding();
+      else wrapEdges(0, 0, worldWidth, worldHeight);
+      if (!BIT_PACKED)
       {
-        prevFrameFinished = true;
-        needsToSwapBuffers = true;
-        startNextFrame = !isPaused;
+        Arrays.fill(changedTiles, true);
+        Arrays.fill(prevChangedTiles, true);
       }
+      if (!isStarted) return;
+      if (BIT_PACKED) createBitJobs();
+      else createJobs();
     }
     finally
     {
       LOCK.unlock();
     }
-    if (startNextFrame) runFrame();
-    else swapBuffers();
   }
 
   /**
-   * Locks the engine for synchronization (lock is maintained until unlock() is called).
+   * Gets what lies past the edges of the board.
+   *
+   * @return one of the TOPOLOGY constants
    */
-  public void lock()
+  public int getTopology()
   {
     LOCK.lock();
+    try
+    {
+      return topology;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
   }
 
   /**
-   * Unlocks the engine.
+   * Converts the name of a topology ("bounded", "torus" or "klein") to its constant.
+   *
+   * @param name name of the topology (case doesn't matter)
+   * @return matching TOPOLOGY constant
+   * @throws IllegalArgumentException if the name is not one of the topologies
    */
-  public void unlock()
+  public static int parseTopology(String name)
   {
-    LOCK.unlock();
+    switch (name.toLowerCase())
+    {
+      case "bounded": return TOPOLOGY_BOUNDED;
+      case "torus": return TOPOLOGY_TORUS;
+      case "klein": return TOPOLOGY_KLEIN_BOTTLE;
+      default: throw new IllegalArgumentException("Unknown topology: " + name);
+    }
   }
 
   /**
-   * Starts the next frame by swapping the buffers, re-adding the jobs with updated
-   * buffers, and then dispatching the jobs.
+   * Chooses whether a byte-per-cell board is updated with VectorRowKernel (when the
+   * JVM was started with --add-modules jdk.incubator.vector) or always with
+   * ScalarRowKernel. This takes effect the next time init is called.
+   *
+   * @param useVectorKernel true to use the Vector API if it is available
    */
-  private void runFrame()
+  public void setVectorKernel(boolean useVectorKernel)
   {
     LOCK.lock();
     try
     {
-      if (!isStarted || !prevFrameFinished) return;
-      numActiveThreads = numThreads;
-      swapBuffers();
-      for (GridUpdateJob job : jobs)
-      {
-        job.initFrame(frontBuffer, backBuffer);
-        jobSystem.submitJob(job);
-      }
-      jobSystem.dispatchJobs();
-      prevFrameFinished = false;
+      this.useVectorKernel = useVectorKernel;
     }
     finally
     {
@@ -317,22 +715,1471 @@ public class SimulationEngine
   }
 
   /**
-   * Swaps the front and back buffers with each other.
+   * Gets the name of the row kernel the byte-per-cell board is updated with.
+   *
+   * @return kernel name or null if the engine has not been initialized (or is bit-packed)
    */
-  private void swapBuffers()
+  public String getRowKernelName()
   {
     LOCK.lock();
     try
     {
-      if (!isStarted || !needsToSwapBuffers) return;
-      byte[][] swap = frontBuffer;
-      frontBuffer = backBuffer;
-      backBuffer = swap;
-      needsToSwapBuffers = false;
+      return rowKernel == null ? null : rowKernel.getName();
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Converts the name of a tile order ("rows", "columns" or "morton") to its constant.
+   *
+   * @param name name of the order (case doesn't matter)
+   * @return matching TILE_ORDER constant
+   * @throws IllegalArgumentException if the name is not one of the orders
+   */
+  public static int parseTileOrder(String name)
+  {
+    switch (name.toLowerCase())
+    {
+      case "rows": return TILE_ORDER_ROWS;
+      case "columns": return TILE_ORDER_COLUMNS;
+      case "morton": return TILE_ORDER_MORTON;
+      default: throw new IllegalArgumentException("Unknown tile order: " + name);
+    }
+  }
+
+  /**
+   * Gets the width/height of the tiles a byte-per-cell board is split into.
+   *
+   * @return tile size in cells
+   */
+  public int getTileSize()
+  {
+    return TILE_SIZE;
+  }
+
+  /**
+   * Chooses whether the update jobs count births and deaths as they write each
+   * generation so that getStatistics is always current without scanning the board.
+   * Counting costs every changed row of a byte-per-cell board a second (cached) pass,
+   * so it is off by default, in which case getStatistics scans the board once the
+   * engine is paused. This takes effect the next time init is called.
+   *
+   * @param trackStatistics true to keep the statistics up to date every generation
+   */
+  public void setStatisticsTracking(boolean trackStatistics)
+  {
+    LOCK.lock();
+    try
+    {
+      this.trackStatistics = trackStatistics;
     }
     finally
     {
       LOCK.unlock();
     }
   }
+
+  /**
+   * Checks if the board is stored with one bit per cell.
+   *
+   * @return true if bit-packed and false if one byte per cell
+   */
+  public boolean isBitPacked()
+  {
+    return BIT_PACKED;
+  }
+
+  /**
+   * Gets the number of threads the engine is currently using.
+   *
+   * @return number of threads
+   */
+  public int getNumThreads()
+  {
+    LOCK.lock();
+    try
+    {
+      if (!isStarted) throw new RuntimeException("Engine not started");
+      return numThreads;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * When this is called the engine will either wake back up or stop active
+   * execution. startNextFrame is a flag that lets the engine be unpaused
+   * without starting the next frame (forces a buffer swap without continuing
+   * execution).
+   *
+   * @param value true if paused and false if resumed
+   * @param startNextFrame if true the next frame is run (which spawns future frames),
+   *                       but if false it just swaps the buffers
+   */
+  public void togglePause(boolean value, boolean startNextFrame)
+  {
+    LOCK.lock();
+    try
+    {
+      isPaused = value;
+      if (!isPaused && startNextFrame) runFrame();
+      else if (!isPaused) swapBuffers();
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Checks if the engine is paused.
+   *
+   * @return true if paused and false if not
+   */
+  public boolean isPaused()
+  {
+    LOCK.lock();
+    try
+    {
+      return isPaused;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * If the previous frame it was working on is done, this will return true.
+   *
+   * @return true if yes and false if not
+   */
+  public boolean previousFrameCompleted()
+  {
+    LOCK.lock();
+    try
+    {
+      return prevFrameFinished;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Shuts down the job system so that the program can exit cleanly.
+   */
+  public void shutdown()
+  {
+    LOCK.lock();
+    try
+    {
+      if (!isStarted) throw new RuntimeException("Engine was not started");
+      System.out.println("Engine shutdown");
+      isStarted = false;
+      jobSystem.stop(false);
+      if (barrierWorkers != null) barrierWorkers.stop();
+      // the pacing thread exits once it sees that it has been replaced
+      pacer = null;
+      pacedFrameScheduled = false;
+      PACER_WAKE.signalAll();
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Returns the world width.
+   *
+   * @return world width in pixels (minus the border padding)
+   */
+  public int getWorldWidth()
+  {
+    return worldWidth;
+  }
+
+  /**
+   * Returns the world height.
+   *
+   * @return world height in pixels (minus the border padding)
+   */
+  public int getWorldHeight()
+  {
+    return worldHeight;
+  }
+
+  /**
+   * Checks if the given (x, y) pair is valid.
+   *
+   * @param x x-value
+   * @param y y-value
+   * @return true if valid and false if not
+   * @throws IllegalStateException if SimulationEngine.lock() is not called before this
+   */
+  public boolean isValid(int x, int y) throws IllegalStateException
+  {
+    if (!LOCK.isHeldByCurrentThread()) throw new IllegalStateException("SimulationEngine.lock() not called before isValid");
+    return x >= 1 && x < getWorldWidth() + 1 && y >= 1 && y < getWorldHeight() + 1;
+  }
+
+  /**
+   * Sets the age of the cell at the given (x, y) location.
+   *
+   * @param x x-location
+   * @param y-location
+   * @param age age of the cell in generations (0 - 10)
+   * @throws RuntimeException if SimulationEngine.lock() is not called before this or if the (x, y) pair is invalid
+   */
+  public void setAge(int x, int y, int age) throws RuntimeException
+  {
+    if (!LOCK.isHeldByCurrentThread()) throw new IllegalStateException("Call SimulationEngine.lock() before calls to setAge");
+    // x and y values start at 1 due to border but getWorldWidth/Height
+    // functions report the size without the border
+    x++;
+    y++;
+    if (!isValid(x, y)) throw new RuntimeException("Invalid (x, y) coordinates to setAge");
+    else if (!isPaused || !prevFrameFinished) return;
+    statisticsNeedRecount = true;
+    if (BIT_PACKED)
+    {
+      frontGrid.setAge(x - 1, y - 1, age);
+      backGrid.setAge(x - 1, y - 1, age);
+      spareGrid.setAge(x - 1, y - 1, age);
+      wrapEdges(x - 1, y - 1, 1, 1);
+      return;
+    }
+    frontBuffer[y * (worldWidth + 2) + x] = (byte)age;
+    backBuffer[y * (worldWidth + 2) + x] = (byte)age;
+    spareBuffer[y * (worldWidth + 2) + x] = (byte)age;
+    wrapEdges(x - 1, y - 1, 1, 1);
+    int tile = ((y - 1) / TILE_SIZE) * tilesPerRow + (x - 1) / TILE_SIZE;
+    changedTiles[tile] = true;
+    dirtyTiles[tile] = true;
+    hasDirtyTiles = true;
+  }
+
+  /**
+   * Sets the age of a horizontal run of cells. This does the same thing as calling
+   * setAge for each cell but fills each buffer with a single call, so it is what
+   * large patterns should be loaded with.
+   *
+   * @param x x-location of the first cell in the run
+   * @param y y-location of the run
+   * @param length number of cells in the run (nothing happens if this is 0 or less)
+   * @param age age of the cells in generations (0 - 10)
+   * @throws RuntimeException if SimulationEngine.lock() is not called before this or if the run is not on the board
+   */
+  public void setRun(int x, int y, int length, int age) throws RuntimeException
+  {
+    if (!LOCK.isHeldByCurrentThread()) throw new IllegalStateException("Call SimulationEngine.lock() before calls to setRun");
+    else if (length <= 0) return;
+    else if (x < 0 || y < 0 || y >= worldHeight || x + length > worldWidth) throw new RuntimeException("Invalid run to setRun");
+    else if (!isPaused || !prevFrameFinished) return;
+    statisticsNeedRecount = true;
+    if (BIT_PACKED)
+    {
+      frontGrid.setRun(x, y, length, age);
+      backGrid.setRun(x, y, length, age);
+      spareGrid.setRun(x, y, length, age);
+      wrapEdges(x, y, length, 1);
+      return;
+    }
+    int start = (y + 1) * (worldWidth + 2) + x + 1;
+    Arrays.fill(frontBuffer, start, start + length, (byte)age);
+    Arrays.fill(backBuffer, start, start + length, (byte)age);
+    Arrays.fill(spareBuffer, start, start + length, (byte)age);
+    wrapEdges(x, y, length, 1);
+    for (int tx = x / TILE_SIZE; tx <= (x + length - 1) / TILE_SIZE; tx++)
+    {
+      int tile = (y / TILE_SIZE) * tilesPerRow + tx;
+      changedTiles[tile] = true;
+      dirtyTiles[tile] = true;
+    }
+    hasDirtyTiles = true;
+  }
+
+  /**
+   * Sets the age of every cell in a rectangle. The rectangle is checked once and
+   * large rectangles are filled in parallel on the job system.
+   *
+   * @param x x-location of the top-left cell
+   * @param y y-location of the top-left cell
+   * @param width width of the rectangle (nothing happens if this or height is 0 or less)
+   * @param height height of the rectangle
+   * @param age age of the cells in generations (0 - 10)
+   * @throws RuntimeException if SimulationEngine.lock() is not called before this or if the rectangle is not on the board
+   */
+  public void fillRect(int x, int y, int width, int height, int age) throws RuntimeException
+  {
+    if (!checkRect("fillRect", x, y, width, height)) return;
+    final int stride = worldWidth + 2;
+    writeRect(x, y, width, height, (startRow, endRow) ->
+    {
+      for (int row = startRow; row < endRow; row++)
+      {
+        if (BIT_PACKED) frontGrid.setRun(x, row, width, age);
+        else
+        {
+          int start = (row + 1) * stride + x + 1;
+          Arrays.fill(frontBuffer, start, start + width, (byte)age);
+        }
+      }
+    });
+  }
+
+  /**
+   * Sets every cell on the board to dead.
+   *
+   * @throws RuntimeException if SimulationEngine.lock() is not called before this
+   */
+  public void clear() throws RuntimeException
+  {
+    fillRect(0, 0, worldWidth, worldHeight, 0);
+  }
+
+  /**
+   * Fills the board with random cells. Every row gets its own SplittableRandom split
+   * off of one generator seeded with the given seed, so the rows can be filled in
+   * parallel and the same seed always gives the same board no matter how many
+   * threads the engine has.
+   *
+   * @param seed seed for the board
+   * @param density chance of each cell being alive (0 - 1)
+   * @throws RuntimeException if SimulationEngine.lock() is not called before this or if the density is invalid
+   */
+  public void fillRandom(long seed, double density) throws RuntimeException
+  {
+    if (!(density >= 0 && density <= 1)) throw new RuntimeException("Invalid density to fillRandom: " + density);
+    else if (!checkRect("fillRandom", 0, 0, worldWidth, worldHeight)) return;
+    final SplittableRandom[] rowRandoms = new SplittableRandom[worldHeight];
+    SplittableRandom seedRandom = new SplittableRandom(seed);
+    for (int y = 0; y < worldHeight; y++) rowRandoms[y] = seedRandom.split();
+    final int stride = worldWidth + 2;
+    writeRect(0, 0, worldWidth, worldHeight, (startRow, endRow) ->
+    {
+      byte[] ages = new byte[worldWidth];
+      for (int row = startRow; row < endRow; row++)
+      {
+        SplittableRandom random = rowRandoms[row];
+        for (int x = 0; x < worldWidth; x++) ages[x] = (byte)(random.nextDouble() < density ? 1 : 0);
+        if (BIT_PACKED) frontGrid.setRun(0, row, worldWidth, ages, 0);
+        else System.arraycopy(ages, 0, frontBuffer, (row + 1) * stride + 1, worldWidth);
+      }
+    });
+  }
+
+  /**
+   * Copies the ages of a rectangle of cells in from an array. Cell (x + i, y + j)
+   * gets the age at ages[offset + j * stride + i].
+   *
+   * @param x x-location of the top-left cell
+   * @param y y-location of the top-left cell
+   * @param width width of the rectangle (nothing happens if this or height is 0 or less)
+   * @param height height of the rectangle
+   * @param ages ages to copy in (0 - 10)
+   * @param offset index in ages of the top-left cell
+   * @param stride distance in ages between the start of one row and the next (at least width)
+   * @throws RuntimeException if SimulationEngine.lock() is not called before this, if the rectangle
+   *                          is not on the board or if the array is too small
+   */
+  public void copyRectIn(int x, int y, int width, int height, byte[] ages, int offset, int stride) throws RuntimeException
+  {
+    checkArray("copyRectIn", width, height, ages.length, offset, stride);
+    if (!checkRect("copyRectIn", x, y, width, height)) return;
+    final int bufferStride = worldWidth + 2;
+    writeRect(x, y, width, height, (startRow, endRow) ->
+    {
+      for (int row = startRow; row < endRow; row++)
+      {
+        int index = offset + (row - y) * stride;
+        if (BIT_PACKED) frontGrid.setRun(x, row, width, ages, index);
+        else System.arraycopy(ages, index, frontBuffer, (row + 1) * bufferStride + x + 1, width);
+      }
+    });
+  }
+
+  /**
+   * Copies the ages of a rectangle of cells out into an array. Cell (x + i, y + j)
+   * goes to ages[offset + j * stride + i]. Unlike the other bulk calls this does not
+   * need the engine to be paused.
+   *
+   * @param x x-location of the top-left cell
+   * @param y y-location of the top-left cell
+   * @param width width of the rectangle (nothing happens if this or height is 0 or less)
+   * @param height height of the rectangle
+   * @param ages array to copy the ages into
+   * @param offset index in ages for the top-left cell
+   * @param stride distance in ages between the start of one row and the next (at least width)
+   * @throws RuntimeException if SimulationEngine.lock() is not called before this, if the rectangle
+   *                          is not on the board or if the array is too small
+   */
+  public void copyRectOut(int x, int y, int width, int height, byte[] ages, int offset, int stride) throws RuntimeException
+  {
+    if (!LOCK.isHeldByCurrentThread()) throw new IllegalStateException("Call SimulationEngine.lock() before calls to copyRectOut");
+    else if (width <= 0 || height <= 0) return;
+    else if (x < 0 || y < 0 || x + width > worldWidth || y + height > worldHeight)
+    {
+      throw new RuntimeException("Invalid rectangle to copyRectOut");
+    }
+    checkArray("copyRectOut", width, height, ages.length, offset, stride);
+    final int bufferStride = worldWidth + 2;
+    runInBands(y, height, width, (startRow, endRow) ->
+    {
+      for (int row = startRow; row < endRow; row++)
+      {
+        int index = offset + (row - y) * stride;
+        if (BIT_PACKED) frontGrid.getRun(x, row, width, ages, index);
+        else System.arraycopy(frontBuffer, (row + 1) * bufferStride + x + 1, ages, index, width);
+      }
+    });
+  }
+
+  /**
+   * Sets every cell of a rectangle whose bit is set in a bitmap to the given age,
+   * leaving the cells whose bit is clear alone. The bitmap uses the same layout as
+   * BitGrid: cell (x + i, y + j) is bit (i & 63) of bitmap[j * wordsPerRow + (i >>> 6)].
+   *
+   * @param x x-location of the top-left cell
+   * @param y y-location of the top-left cell
+   * @param width width of the rectangle (nothing happens if this or height is 0 or less)
+   * @param height height of the rectangle
+   * @param bitmap packed bits marking the cells to set
+   * @param wordsPerRow number of longs in each row of the bitmap (at least ceil(width / 64))
+   * @param age age to give the marked cells (0 - 10)
+   * @throws RuntimeException if SimulationEngine.lock() is not called before this, if the rectangle
+   *                          is not on the board or if the bitmap is too small
+   */
+  public void applyBitmap(int x, int y, int width, int height, long[] bitmap, int wordsPerRow, int age) throws RuntimeException
+  {
+    if (width > 0 && height > 0 && ((long)wordsPerRow * BitGrid.BITS_PER_WORD < width || (long)height * wordsPerRow > bitmap.length))
+    {
+      throw new RuntimeException("Bitmap is too small for applyBitmap");
+    }
+    if (!checkRect("applyBitmap", x, y, width, height)) return;
+    final int stride = worldWidth + 2;
+    writeRect(x, y, width, height, (startRow, endRow) ->
+    {
+      for (int row = startRow; row < endRow; row++)
+      {
+        int start = (row - y) * wordsPerRow;
+        if (BIT_PACKED && age > 0)
+        {
+          frontGrid.stampRun(x, row, width, bitmap, start, age);
+          continue;
+        }
+        int index = (row + 1) * stride + x + 1;
+        for (int w = 0; w < (width + BitGrid.BITS_PER_WORD - 1) / BitGrid.BITS_PER_WORD; w++)
+        {
+          for (long bits = bitmap[start + w]; bits != 0; bits &= bits - 1)
+          {
+            int i = w * BitGrid.BITS_PER_WORD + Long.numberOfTrailingZeros(bits);
+            if (i >= width) break;
+            else if (BIT_PACKED) frontGrid.setAge(x + i, row, 0);
+            else frontBuffer[index + i] = (byte)age;
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Gets the age of the cell at the given (x, y) coordinates.
+   *
+   * @param x x-location
+   * @param y y-location
+   * @return age of the cell (negative for the dying states of a Generations rule)
+   * @throws RuntimeException if SimulationEngine.lock() is not called before this or if the given (x, y) pair is invalid
+   */
+  public int getAge(int x, int y) throws RuntimeException
+  {
+    x++;
+    y++;
+    if (!LOCK.isHeldByCurrentThread()) throw new IllegalStateException("Call SimulationEngine.lock() before calls to getAge");
+    else if (!isValid(x, y)) throw new RuntimeException("Invalid (x, y) coordinates to getAge");
+    if (BIT_PACKED) return frontGrid.getAge(x - 1, y - 1);
+    return frontBuffer[y * (worldWidth + 2) + x];
+  }
+
+  /**
+   * This is called by the jobs when they are finished - when the number of working
+   * threads hits 0 the engine knows it needs to start the next frame.
+   */
+  public void notifyEngineOfThreadCompletion()
+  {
+    LOCK.lock();
+    try
+    {
+      --numActiveThreads;
+      if (numActiveThreads == 0) finishFrame();
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Barrier action for the persistent barrier threads - it runs on the last thread
+   * to reach the barrier once every thread is done with the current frame.
+   */
+  private void notifyEngineOfBarrier()
+  {
+    LOCK.lock();
+    try
+    {
+      finishFrame();
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Called once all of the work for a frame is done. It advances the generation and
+   * either starts the next frame or swaps the buffers and stays paused.
+   */
+  private void finishFrame()
+  {
+    prevFrameFinished = true;
+    needsToSwapBuffers = true;
+    generation += frameGenerations;
+    if (Metrics.ENABLED) recordFrameTime();
+    if (!BIT_PACKED) backPyramid.updateCoarseLevels();
+    updateStatistics();
+    if (generation == pauseAtGeneration) isPaused = true;
+    // the swap happens before the lock is released so that anyone waiting on
+    // the frame never sees the old front buffer
+    if (!isPaused && (targetNanosPerGeneration == 0 || pauseAtGeneration >= 0)) runFrame();
+    else
+    {
+      swapBuffers();
+      if (!isPaused)
+      {
+        pacedFrameScheduled = true;
+        PACER_WAKE.signalAll();
+      }
+    }
+    FRAME_FINISHED.signalAll();
+  }
+
+  /**
+   * Loop for the pacing thread. It waits for finishFrame to schedule a frame and then
+   * starts it once it is due (targetNanosPerGeneration after the last one was due).
+   * Anything else that starts a frame first (unpausing, step) cancels the scheduled one.
+   */
+  private void paceFrames()
+  {
+    final Thread SELF = Thread.currentThread();
+    LOCK.lock();
+    try
+    {
+      while (pacer == SELF)
+      {
+        if (!pacedFrameScheduled) PACER_WAKE.await();
+        else
+        {
+          long wait = frameDueNanos + targetNanosPerGeneration * frameGenerations - System.nanoTime();
+          if (wait > 0) PACER_WAKE.awaitNanos(wait);
+          else if (!isPaused) runFrame();
+          else pacedFrameScheduled = false;
+        }
+      }
+    }
+    catch (InterruptedException e)
+    {
+      // nothing to clean up - the engine is being torn down
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Called by the update jobs once they have written their cells with the changes they
+   * made to the population. The engine adds these up over the frame.
+   *
+   * @param births cells the job brought to life
+   * @param deaths cells the job killed
+   * @param deathsByAge number of the killed cells that had each age (null if ages aren't tracked)
+   */
+  public void recordFrameStatistics(long births, long deaths, int[] deathsByAge)
+  {
+    LOCK.lock();
+    try
+    {
+      frameBirths += births;
+      frameDeaths += deaths;
+      if (deathsByAge == null) return;
+      for (int age = 0; age < deathsByAge.length; age++) FRAME_DEATHS_BY_AGE[age] += deathsByAge[age];
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Called by an update job when it splits off part of its work into a new job so
+   * that the engine waits for the new job as well.
+   */
+  public void notifyEngineOfJobSplit()
+  {
+    LOCK.lock();
+    try
+    {
+      ++numActiveThreads;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Runs the given number of generations as fast as possible and blocks until they
+   * are done. The engine must be paused before this is called and is paused again
+   * when it returns. If the board stops changing the remaining generations are
+   * skipped since they would all be identical.
+   *
+   * @param generations number of generations to run
+   * @throws InterruptedException if the calling thread is interrupted while waiting
+   */
+  public void step(long generations) throws InterruptedException
+  {
+    LOCK.lock();
+    try
+    {
+      if (!isStarted) throw new RuntimeException("Engine not started");
+      else if (!isPaused || !prevFrameFinished) throw new IllegalStateException("Engine must be paused before calling step");
+      else if (generations <= 0) return;
+      long target = generation + generations;
+      pauseAtGeneration = target;
+      isStable = false;
+      isPaused = false;
+      runFrame();
+      try
+      {
+        while (generation < target && !isStable) FRAME_FINISHED.await();
+      }
+      finally
+      {
+        if (generation < target && isStable)
+        {
+          generation = target;
+          // a stable board has no births or deaths
+          statistics = new GenerationStats(generation, population, 0, 0, AGE_COUNTS);
+          publishSnapshot();
+        }
+        isPaused = true;
+        pauseAtGeneration = -1;
+      }
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Runs extra work (such as rasterizing the view) on the engine's job system and
+   * blocks until it is done. The engine is not locked while waiting.
+   *
+   * @param jobs jobs to run
+   * @throws InterruptedException if the calling thread is interrupted while waiting
+   */
+  public void runJobsAndWait(Job[] jobs) throws InterruptedException
+  {
+    JobScheduler scheduler;
+    LOCK.lock();
+    try
+    {
+      if (!isStarted) throw new RuntimeException("Engine not started");
+      scheduler = jobSystem;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+    scheduler.runAndWait(jobs);
+  }
+
+  /**
+   * Gets the population counts for the latest generation. With statistics tracking
+   * on these are kept up to date by the update jobs as they step the board, so this
+   * only scans the board if it was edited since the last frame ran. Otherwise the
+   * front buffer is scanned the first time this is called for each generation.
+   *
+   * @return statistics for the current generation
+   */
+  public GenerationStats getStatistics()
+  {
+    LOCK.lock();
+    try
+    {
+      if (statisticsNeedRecount) recountStatistics();
+      return statistics;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Gets the most recently completed generation without pinning it. This does not
+   * lock the engine, which makes it cheap enough to poll for the generation number,
+   * but the engine may start writing the next generation into the buffer behind it as
+   * soon as two more frames have finished. Use pinSnapshot to read the cells while
+   * the engine keeps running.
+   *
+   * @return latest snapshot
+   */
+  public GridSnapshot getSnapshot()
+  {
+    return snapshot;
+  }
+
+  /**
+   * Gets the most recently completed generation and pins the buffer behind it so the
+   * engine won't compute any later generation into it until releaseSnapshot is called.
+   * Only the pin lock is taken, so this never waits on a running frame. Every call
+   * must be matched by a call to releaseSnapshot.
+   *
+   * @return latest snapshot (pinned)
+   */
+  public GridSnapshot pinSnapshot()
+  {
+    PIN_LOCK.lock();
+    try
+    {
+      GridSnapshot pinned = snapshot;
+      PINNED_BUFFERS.merge(pinned.getBuffer(), 1, Integer::sum);
+      return pinned;
+    }
+    finally
+    {
+      PIN_LOCK.unlock();
+    }
+  }
+
+  /**
+   * Releases a snapshot pinned by pinSnapshot. Its cells must not be read afterwards.
+   *
+   * @param pinned snapshot returned by pinSnapshot
+   * @throws IllegalStateException if the snapshot's buffer is not pinned
+   */
+  public void releaseSnapshot(GridSnapshot pinned) throws IllegalStateException
+  {
+    PIN_LOCK.lock();
+    try
+    {
+      Integer pins = PINNED_BUFFERS.get(pinned.getBuffer());
+      if (pins == null) throw new IllegalStateException("Snapshot is not pinned");
+      else if (pins == 1) PINNED_BUFFERS.remove(pinned.getBuffer());
+      else PINNED_BUFFERS.put(pinned.getBuffer(), pins - 1);
+    }
+    finally
+    {
+      PIN_LOCK.unlock();
+    }
+  }
+
+  /**
+   * Writes the current generation to a snapshot file (see SnapshotFile for the format).
+   * The engine must be paused.
+   *
+   * @param file file to write (replaced if it exists)
+   * @param includeAges true to save cell ages and false to only save which cells are alive
+   * @throws IOException if the file can't be written
+   */
+  public void saveSnapshot(Path file, boolean includeAges) throws IOException
+  {
+    LOCK.lock();
+    try
+    {
+      if (!isPaused || !prevFrameFinished) throw new IllegalStateException("Engine must be paused before saving a snapshot");
+      if (hasDirtyTiles) updateDirtyTiles();
+      SnapshotFile.write(snapshot, rule.toString(), includeAges, file);
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Replaces the board with the contents of a snapshot file. The file is mapped and
+   * copied straight into the engine's buffers one row at a time. The engine must be
+   * paused and the snapshot must be the same size as the engine's board. If the file
+   * has no age plane every live cell starts with an age of 1. The engine switches to
+   * the rule the snapshot was saved with.
+   *
+   * @param file file to read
+   * @throws IOException if the file can't be read, is not a valid snapshot or doesn't match the engine
+   */
+  public void loadSnapshot(Path file) throws IOException
+  {
+    try (SnapshotFile snapshotFile = new SnapshotFile(file))
+    {
+      LOCK.lock();
+      try
+      {
+        if (!isPaused || !prevFrameFinished) throw new IllegalStateException("Engine must be paused before loading a snapshot");
+        else if (snapshotFile.getWidth() != worldWidth || snapshotFile.getHeight() != worldHeight)
+        {
+          throw new IOException("Snapshot is " + snapshotFile.getWidth() + "x" + snapshotFile.getHeight() +
+                                " but the engine is " + worldWidth + "x" + worldHeight);
+        }
+        try
+        {
+          setRule(Rule.parse(snapshotFile.getRule()));
+        }
+        catch (IllegalArgumentException e)
+        {
+          throw new IOException("Unsupported rule: " + snapshotFile.getRule(), e);
+        }
+        if (BIT_PACKED) loadGrids(snapshotFile);
+        else loadBuffers(snapshotFile);
+        generation = snapshotFile.getGeneration();
+        isStable = false;
+        statisticsNeedRecount = true;
+        publishSnapshot();
+      }
+      finally
+      {
+        LOCK.unlock();
+      }
+    }
+  }
+
+  /**
+   * Gets the number of live cells in the current generation. This comes from
+   * getStatistics, so it only scans the board if the counts aren't already current.
+   *
+   * @return number of live cells
+   */
+  public long getPopulation()
+  {
+    return getStatistics().getPopulation();
+  }
+
+  /**
+   * Gets the number of generations the engine has computed since it was created.
+   *
+   * @return generation count
+   */
+  public long getGeneration()
+  {
+    LOCK.lock();
+    try
+    {
+      return generation;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Locks the engine for synchronization (lock is maintained until unlock() is called).
+   */
+  public void lock()
+  {
+    LOCK.lock();
+  }
+
+  /**
+   * Unlocks the engine. When the last hold on the lock is released the density
+   * counts for any tiles edited with setAge are brought up to date.
+   */
+  public void unlock()
+  {
+    try
+    {
+      if (LOCK.getHoldCount() == 1 && hasDirtyTiles) updateDirtyTiles();
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Starts the next frame by swapping the buffers, re-adding the jobs with updated
+   * buffers, and then dispatching the jobs (or handing them to the barrier threads).
+   */
+  private void runFrame()
+  {
+    LOCK.lock();
+    try
+    {
+      if (!isStarted || !prevFrameFinished) return;
+      long now = System.nanoTime(), period = targetNanosPerGeneration * frameGenerations;
+      if (pacedFrameScheduled && now - frameDueNanos - period < MAX_PACING_LAG_NANOS) frameDueNanos += period;
+      else frameDueNanos = now;
+      pacedFrameScheduled = false;
+      frameGenerations = BIT_PACKED ? generationsPerFrame : 1;
+      if (pauseAtGeneration >= 0) frameGenerations = (int)Math.min(frameGenerations, pauseAtGeneration - generation);
+      if (hasDirtyTiles) updateDirtyTiles();
+      swapBuffers();
+      // a frame covering several generations doesn't count anything so there's nothing to count from
+      if (trackStatistics && statisticsNeedRecount && frameGenerations == 1) recountStatistics();
+      if (BIT_PACKED)
+      {
+        numActiveThreads = numThreads;
+        for (BitGridUpdateJob job : bitJobs)
+        {
+          job.initFrame(frontGrid, backGrid, frameGenerations);
+          if (barrierWorkers == null) jobSystem.submitJob(job);
+        }
+      }
+      else
+      {
+        int numActiveTiles = findActiveTiles();
+        // nothing changed last frame so nothing can change this frame either
+        if (numActiveTiles == 0)
+        {
+          isStable = true;
+          FRAME_FINISHED.signalAll();
+          return;
+        }
+        // every barrier thread has to reach the barrier so they all get (possibly empty) slices
+        int numJobs = barrierWorkers != null ? jobs.length : Math.min(jobs.length, numActiveTiles);
+        numActiveThreads = barrierWorkers != null ? numThreads : numJobs;
+        for (int i = 0; i < numJobs; i++)
+        {
+          int startTile = (int)((long)numActiveTiles * i / numJobs);
+          int endTile = (int)((long)numActiveTiles * (i + 1) / numJobs);
+          jobs[i].initFrame(frontBuffer, backBuffer, activeTiles, startTile, endTile, changedTiles, backPyramid);
+          if (barrierWorkers == null) jobSystem.submitJob(jobs[i]);
+        }
+      }
+      prevFrameFinished = false;
+      if (Metrics.ENABLED) startFrameTimer();
+      if (barrierWorkers != null) barrierWorkers.startFrame(barrierTasks);
+      else jobSystem.dispatchJobs();
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Notes when a frame's jobs were handed out and begins its JFR event.
+   */
+  private void startFrameTimer()
+  {
+    frameStartNanos = System.nanoTime();
+    generationEvent = new GenerationEvent();
+    generationEvent.begin();
+    generationEvent.generation = generation + frameGenerations;
+    generationEvent.jobs = numActiveThreads;
+  }
+
+  /**
+   * Records how long the frame that just finished took and commits its JFR event.
+   */
+  private void recordFrameTime()
+  {
+    GENERATION_TIMES.record(System.nanoTime() - frameStartNanos);
+    generationEvent.commit();
+    generationEvent = null;
+  }
+
+  /**
+   * Fills activeTiles with every tile that either changed in one of the last two
+   * frames or has one of its 8 neighbors that did, and then rotates the changed
+   * flags so the jobs can record the changes for this frame.
+   *
+   * @return number of active tiles
+   */
+  private int findActiveTiles()
+  {
+    int numActiveTiles = 0;
+    for (int tile : orderedTiles)
+    {
+      if (isTileActive(tile % tilesPerRow, tile / tilesPerRow)) activeTiles[numActiveTiles++] = tile;
+    }
+    boolean[] swap = prevChangedTiles;
+    prevChangedTiles = changedTiles;
+    changedTiles = swap;
+    Arrays.fill(changedTiles, false);
+    return numActiveTiles;
+  }
+
+  /**
+   * Checks if a tile or a tile holding any of the cells around it changed in one of
+   * the last two frames. The cells around the tile are the columns from one left of
+   * it to one right of it in the tile rows above, at and below it. On a board that
+   * wraps, the rows and columns past an edge come from the opposite edge, with the
+   * columns flipped left to right across the top and bottom of a Klein bottle.
+   */
+  private boolean isTileActive(int tx, int ty)
+  {
+    final int left = (tx << TILE_SHIFT) - 1, right = Math.min((tx + 1) << TILE_SHIFT, worldWidth);
+    for (int ny = ty - 1; ny <= ty + 1; ny++)
+    {
+      int tileRow = ny, xStart = left, xEnd = right;
+      if (ny < 0 || ny >= tilesPerColumn)
+      {
+        if (topology == TOPOLOGY_BOUNDED) continue;
+        tileRow = ny < 0 ? tilesPerColumn - 1 : 0;
+        if (topology == TOPOLOGY_KLEIN_BOTTLE)
+        {
+          xStart = worldWidth - 1 - right;
+          xEnd = worldWidth - 1 - left;
+        }
+      }
+      int row = tileRow * tilesPerRow;
+      for (int nx = Math.max(xStart, 0) >> TILE_SHIFT; nx <= Math.min(xEnd, worldWidth - 1) >> TILE_SHIFT; nx++)
+      {
+        if (changedTiles[row + nx] || prevChangedTiles[row + nx]) return true;
+      }
+      if (topology != TOPOLOGY_BOUNDED)
+      {
+        // column -1 is the last column and column worldWidth is the first
+        if (xStart < 0 && (changedTiles[row + tilesPerRow - 1] || prevChangedTiles[row + tilesPerRow - 1])) return true;
+        if (xEnd >= worldWidth && (changedTiles[row] || prevChangedTiles[row])) return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Rotates the buffers: the back buffer (just finished) becomes the front buffer,
+   * the spare buffer becomes the next back buffer and the old front buffer is set
+   * aside as the spare. A new snapshot of the front buffer is then published.
+   * <p>
+   * A buffer pinned by a reader is never made the back buffer. If the spare is
+   * pinned, the old front buffer becomes the back buffer instead - it is only one
+   * generation behind, so every tile that isn't active is already up to date in it -
+   * and the spare is marked stale. A stale spare is copied from the front buffer the
+   * next time it is needed, and if both the spare and the old front buffer are pinned
+   * the spare is replaced with a new copy of the front buffer.
+   */
+  private void swapBuffers()
+  {
+    LOCK.lock();
+    PIN_LOCK.lock();
+    try
+    {
+      if (!isStarted || !needsToSwapBuffers) return;
+      byte[] oldFront = frontBuffer;
+      BitGrid oldFrontGrid = frontGrid;
+      DensityPyramid oldFrontPyramid = frontPyramid;
+      frontBuffer = backBuffer;
+      frontGrid = backGrid;
+      frontPyramid = backPyramid;
+      boolean sparePinned = PINNED_BUFFERS.containsKey(BIT_PACKED ? spareGrid : spareBuffer);
+      boolean oldFrontPinned = PINNED_BUFFERS.containsKey(BIT_PACKED ? oldFrontGrid : oldFront);
+      if ((sparePinned || spareIsStale) && !oldFrontPinned)
+      {
+        backBuffer = oldFront;
+        backGrid = oldFrontGrid;
+        backPyramid = oldFrontPyramid;
+        spareIsStale = true;
+      }
+      else
+      {
+        if (sparePinned) allocateSpare();
+        if (sparePinned || spareIsStale) copyFrontToSpare();
+        spareIsStale = false;
+        backBuffer = spareBuffer;
+        backGrid = spareGrid;
+        backPyramid = sparePyramid;
+        spareBuffer = oldFront;
+        spareGrid = oldFrontGrid;
+        sparePyramid = oldFrontPyramid;
+      }
+      needsToSwapBuffers = false;
+      publishSnapshot();
+    }
+    finally
+    {
+      PIN_LOCK.unlock();
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Replaces the spare buffer (and its density counts) with a new one, leaving the
+   * old one to whichever reader still has it pinned.
+   */
+  private void allocateSpare()
+  {
+    if (BIT_PACKED) spareGrid = new BitGrid(worldWidth, worldHeight, frontGrid.isTrackingAges());
+    else
+    {
+      spareBuffer = new byte[frontBuffer.length];
+      sparePyramid = new DensityPyramid(worldWidth, worldHeight, TILE_SHIFT);
+    }
+  }
+
+  /**
+   * Copies the front buffer (and its density counts) into the spare buffer.
+   */
+  private void copyFrontToSpare()
+  {
+    if (BIT_PACKED) spareGrid.copyFrom(frontGrid);
+    else
+    {
+      System.arraycopy(frontBuffer, 0, spareBuffer, 0, frontBuffer.length);
+      sparePyramid.copyFrom(frontPyramid);
+    }
+  }
+
+  /**
+   * Applies the counts the jobs handed in for the frame that just finished to the
+   * totals and creates the statistics for the new generation. Every live cell that
+   * didn't die is one generation older (up to GenerationStats.MAX_AGE) and every
+   * newborn cell has an age of 1, so the ages of the dead cells are all the jobs
+   * need to count.
+   */
+  private void updateStatistics()
+  {
+    if (!trackStatistics || frameGenerations > 1) statisticsNeedRecount = true;
+    else if (!statisticsNeedRecount)
+    {
+      population += frameBirths - frameDeaths;
+      if (BIT_PACKED && !backGrid.isTrackingAges()) AGE_COUNTS[1] = population;
+      else
+      {
+        final int MAX_AGE = GenerationStats.MAX_AGE;
+        AGE_COUNTS[MAX_AGE] += AGE_COUNTS[MAX_AGE - 1] - FRAME_DEATHS_BY_AGE[MAX_AGE] - FRAME_DEATHS_BY_AGE[MAX_AGE - 1];
+        for (int age = MAX_AGE - 1; age > 1; age--) AGE_COUNTS[age] = AGE_COUNTS[age - 1] - FRAME_DEATHS_BY_AGE[age - 1];
+        AGE_COUNTS[1] = frameBirths;
+      }
+      AGE_COUNTS[0] = (long)worldWidth * worldHeight - population;
+      statistics = new GenerationStats(generation, population, frameBirths, frameDeaths, AGE_COUNTS);
+    }
+    frameBirths = 0;
+    frameDeaths = 0;
+    Arrays.fill(FRAME_DEATHS_BY_AGE, 0);
+  }
+
+  /**
+   * Rebuilds the population counts from the front buffer (or grid) after the board
+   * was edited. Births and deaths are reported as 0 for the generation.
+   */
+  private void recountStatistics()
+  {
+    Arrays.fill(AGE_COUNTS, 0);
+    if (BIT_PACKED && frontGrid.isTrackingAges())
+    {
+      for (byte age : frontGrid.getAges()) AGE_COUNTS[Math.min(age, GenerationStats.MAX_AGE)]++;
+    }
+    else if (BIT_PACKED)
+    {
+      long[] cells = frontGrid.getCells();
+      for (int i = frontGrid.getWordsPerRow(), end = i + worldHeight * frontGrid.getWordsPerRow(); i < end; i++)
+      {
+        AGE_COUNTS[1] += Long.bitCount(cells[i]);
+      }
+      AGE_COUNTS[0] = (long)worldWidth * worldHeight - AGE_COUNTS[1];
+    }
+    else
+    {
+      final int stride = worldWidth + 2;
+      for (int y = 1; y <= worldHeight; y++)
+      {
+        for (int index = y * stride + 1, end = index + worldWidth; index < end; index++)
+        {
+          // dying cells (negative ages) count as dead
+          AGE_COUNTS[Math.min(Math.max(frontBuffer[index], 0), GenerationStats.MAX_AGE)]++;
+        }
+      }
+    }
+    population = (long)worldWidth * worldHeight - AGE_COUNTS[0];
+    statistics = new GenerationStats(generation, population, 0, 0, AGE_COUNTS);
+    statisticsNeedRecount = false;
+  }
+
+  /**
+   * Replaces the published snapshot with one for the current front buffer.
+   */
+  private void publishSnapshot()
+  {
+    if (BIT_PACKED) snapshot = new GridSnapshot(generation, frontGrid);
+    else snapshot = new GridSnapshot(generation, worldWidth, worldHeight, frontBuffer, frontPyramid);
+  }
+
+  /**
+   * Decodes a snapshot file into the three byte buffers and recomputes their density counts.
+   */
+  private void loadBuffers(SnapshotFile snapshotFile)
+  {
+    final int stride = worldWidth + 2;
+    final int wordsPerRow = snapshotFile.getWordsPerRow();
+    final LongBuffer cells = snapshotFile.getCells();
+    final ByteBuffer agePlane = snapshotFile.getAges();
+    long[] words = new long[wordsPerRow];
+    for (int y = 0; y < worldHeight; y++)
+    {
+      int row = (y + 1) * stride + 1;
+      // the age plane already says which cells are alive so it can be copied as is
+      if (agePlane != null)
+      {
+        agePlane.get(y * worldWidth, frontBuffer, row, worldWidth);
+        continue;
+      }
+      cells.get(y * wordsPerRow, words, 0, wordsPerRow);
+      for (int x = 0; x < worldWidth; x++) frontBuffer[row + x] = (byte)((words[x >>> 6] >>> (x & 63)) & 1L);
+    }
+    System.arraycopy(frontBuffer, 0, backBuffer, 0, frontBuffer.length);
+    System.arraycopy(frontBuffer, 0, spareBuffer, 0, frontBuffer.length);
+    Arrays.fill(changedTiles, true);
+    for (int tile = 0; tile < dirtyTiles.length; tile++)
+    {
+      frontPyramid.updateTile(frontBuffer, tile % tilesPerRow, tile / tilesPerRow);
+      dirtyTiles[tile] = false;
+    }
+    frontPyramid.updateCoarseLevels();
+    backPyramid.copyFrom(frontPyramid);
+    sparePyramid.copyFrom(frontPyramid);
+    hasDirtyTiles = false;
+    wrapEdges(0, 0, worldWidth, worldHeight);
+  }
+
+  /**
+   * Copies a snapshot file into the three bit-packed grids.
+   */
+  private void loadGrids(SnapshotFile snapshotFile)
+  {
+    final int wordsPerRow = frontGrid.getWordsPerRow();
+    final long[] words = frontGrid.getCells();
+    snapshotFile.getCells().get(0, words, wordsPerRow, worldHeight * wordsPerRow);
+    for (int y = 1; y <= worldHeight; y++) words[y * wordsPerRow + wordsPerRow - 1] &= frontGrid.getLastWordMask();
+    if (frontGrid.isTrackingAges())
+    {
+      final byte[] ages = frontGrid.getAges();
+      final ByteBuffer agePlane = snapshotFile.getAges();
+      if (agePlane != null) agePlane.get(0, ages, 0, ages.length);
+      else
+      {
+        for (int y = 0; y < worldHeight; y++)
+        {
+          for (int x = 0, index = y * worldWidth; x < worldWidth; x++, index++)
+          {
+            ages[index] = (byte)((words[(y + 1) * wordsPerRow + (x >>> 6)] >>> (x & 63)) & 1L);
+          }
+        }
+      }
+    }
+    backGrid.copyFrom(frontGrid);
+    spareGrid.copyFrom(frontGrid);
+    wrapEdges(0, 0, worldWidth, worldHeight);
+  }
+
+  /**
+   * Checks the arguments shared by the bulk edits.
+   *
+   * @return true if there is something to write and false if the rectangle is empty
+   *         or a frame is running (edits are dropped then, the same as with setAge)
+   */
+  private boolean checkRect(String caller, int x, int y, int width, int height)
+  {
+    if (!LOCK.isHeldByCurrentThread()) throw new IllegalStateException("Call SimulationEngine.lock() before calls to " + caller);
+    else if (width <= 0 || height <= 0) return false;
+    else if (x < 0 || y < 0 || x + width > worldWidth || y + height > worldHeight)
+    {
+      throw new RuntimeException("Invalid rectangle to " + caller);
+    }
+    return isPaused && prevFrameFinished;
+  }
+
+  /**
+   * Makes sure a caller's array holds every row of a width x height rectangle.
+   */
+  private void checkArray(String caller, int width, int height, int length, int offset, int stride)
+  {
+    if (width <= 0 || height <= 0) return;
+    else if (offset < 0 || stride < width || offset + (long)(height - 1) * stride + width > length)
+    {
+      throw new RuntimeException("Array is too small for " + caller);
+    }
+  }
+
+  /**
+   * Runs a bulk edit that writes rows of the front buffer (or grid), copies the
+   * rectangle into the back and spare buffers, and brings the density counts of
+   * every tile it touched up to date. Rows are split into bands on tile boundaries
+   * so that no two bands share a tile.
+   */
+  private void writeRect(int x, int y, int width, int height, RowTask writeRows)
+  {
+    final int stride = worldWidth + 2;
+    final int txStart = x >> TILE_SHIFT, txEnd = (x + width - 1) >> TILE_SHIFT;
+    statisticsNeedRecount = true;
+    runInBands(y, height, width, (startRow, endRow) ->
+    {
+      writeRows.run(startRow, endRow);
+      for (int row = startRow; row < endRow; row++)
+      {
+        if (BIT_PACKED)
+        {
+          backGrid.copyRun(frontGrid, x, row, width);
+          spareGrid.copyRun(frontGrid, x, row, width);
+          continue;
+        }
+        int start = (row + 1) * stride + x + 1;
+        System.arraycopy(frontBuffer, start, backBuffer, start, width);
+        System.arraycopy(frontBuffer, start, spareBuffer, start, width);
+      }
+      if (BIT_PACKED) return;
+      for (int ty = startRow >> TILE_SHIFT; ty <= (endRow - 1) >> TILE_SHIFT; ty++)
+      {
+        for (int tx = txStart; tx <= txEnd; tx++)
+        {
+          frontPyramid.updateTile(frontBuffer, tx, ty);
+          backPyramid.updateTile(backBuffer, tx, ty);
+          sparePyramid.updateTile(spareBuffer, tx, ty);
+        }
+      }
+    });
+    wrapEdges(x, y, width, height);
+    if (BIT_PACKED) return;
+    for (int ty = y >> TILE_SHIFT; ty <= (y + height - 1) >> TILE_SHIFT; ty++)
+    {
+      for (int tx = txStart; tx <= txEnd; tx++) changedTiles[ty * tilesPerRow + tx] = true;
+    }
+    frontPyramid.updateCoarseLevels();
+    backPyramid.updateCoarseLevels();
+    sparePyramid.updateCoarseLevels();
+  }
+
+  /**
+   * Runs a task over the rows [y, y + height). Once the engine is started and no frame
+   * is running, regions of at least MIN_PARALLEL_CELLS are split into bands that start
+   * on tile boundaries and run on the job system while the caller keeps the lock (the
+   * jobs never take it). Everything else runs on the calling thread.
+   */
+  private void runInBands(int y, int height, int width, RowTask task)
+  {
+    final int firstTileRow = y >> TILE_SHIFT;
+    final int numTileRows = ((y + height - 1) >> TILE_SHIFT) - firstTileRow + 1;
+    boolean parallel = isStarted && isPaused && prevFrameFinished && (long)width * height >= MIN_PARALLEL_CELLS;
+    int numBands = parallel ? Math.min(numThreads, numTileRows) : 1;
+    if (numBands <= 1)
+    {
+      task.run(y, y + height);
+      return;
+    }
+    final CountDownLatch LATCH = new CountDownLatch(numBands);
+    for (int i = 0; i < numBands; i++)
+    {
+      final int startRow = Math.max(y, (firstTileRow + numTileRows * i / numBands) << TILE_SHIFT);
+      final int endRow = Math.min(y + height, (firstTileRow + numTileRows * (i + 1) / numBands) << TILE_SHIFT);
+      jobSystem.submitJob(new Job()
+      {
+        @Override
+        public void run(int threadID)
+        {
+          try
+          {
+            task.run(startRow, endRow);
+          }
+          finally
+          {
+            LATCH.countDown();
+          }
+        }
+      });
+    }
+    jobSystem.dispatchJobs();
+    // the bands write the engine's buffers so this can't return until they are all done
+    boolean interrupted = false;
+    while (LATCH.getCount() > 0)
+    {
+      try
+      {
+        LATCH.await();
+      }
+      catch (InterruptedException e)
+      {
+        interrupted = true;
+      }
+    }
+    if (interrupted) Thread.currentThread().interrupt();
+  }
+
+  /**
+   * Refreshes the padding of all three buffers (or grids) from the cells of a
+   * rectangle that was just edited, if the board wraps around. The update jobs keep
+   * the padding current while the engine runs, so this only has to cover edits.
+   */
+  private void wrapEdges(int x, int y, int width, int height)
+  {
+    if (topology == TOPOLOGY_BOUNDED) return;
+    final boolean mirror = topology == TOPOLOGY_KLEIN_BOTTLE;
+    if (BIT_PACKED)
+    {
+      // the left and right edges are wrapped by the jobs as they read, so only the top and bottom rows are copied
+      if (y > 0 && y + height < worldHeight) return;
+      frontGrid.wrapRows(mirror);
+      backGrid.wrapRows(mirror);
+      spareGrid.wrapRows(mirror);
+      return;
+    }
+    for (byte[] buffer : new byte[][]{frontBuffer, backBuffer, spareBuffer})
+    {
+      GridUpdateJob.wrapEdges(buffer, worldWidth, worldHeight, mirror, x + 1, x + width + 1, y + 1, y + height + 1);
+    }
+  }
+
+  /**
+   * Sets the padding of all three buffers (or grids) back to dead cells.
+   */
+  private void clearPadding()
+  {
+    if (BIT_PACKED)
+    {
+      frontGrid.clearPaddingRows();
+      backGrid.clearPaddingRows();
+      spareGrid.clearPaddingRows();
+      return;
+    }
+    final int stride = worldWidth + 2;
+    for (byte[] buffer : new byte[][]{frontBuffer, backBuffer, spareBuffer})
+    {
+      Arrays.fill(buffer, 0, stride, (byte)0);
+      Arrays.fill(buffer, (worldHeight + 1) * stride, buffer.length, (byte)0);
+      for (int y = 1; y <= worldHeight; y++)
+      {
+        buffer[y * stride] = 0;
+        buffer[y * stride + worldWidth + 1] = 0;
+      }
+    }
+  }
+
+  /**
+   * Recomputes the density counts of every tile edited with setAge. Since setAge
+   * writes all three buffers all three pyramids are updated.
+   */
+  private void updateDirtyTiles()
+  {
+    for (int tile = 0; tile < dirtyTiles.length; tile++)
+    {
+      if (!dirtyTiles[tile]) continue;
+      frontPyramid.updateTile(frontBuffer, tile % tilesPerRow, tile / tilesPerRow);
+      backPyramid.updateTile(backBuffer, tile % tilesPerRow, tile / tilesPerRow);
+      sparePyramid.updateTile(spareBuffer, tile % tilesPerRow, tile / tilesPerRow);
+      dirtyTiles[tile] = false;
+    }
+    frontPyramid.updateCoarseLevels();
+    backPyramid.updateCoarseLevels();
+    sparePyramid.updateCoarseLevels();
+    hasDirtyTiles = false;
+  }
 }
@@ -0,0 +1,261 @@
+package cs351.lab4;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary board snapshot that is read and written through memory-mapped files. All
+ * values are little-endian. The layout is:
+ *
+ *   0   4 bytes   magic "GOLS"
+ *   4   int       format version
+ *   8   int       width
+ *   12  int       height
+ *   16  long      generation
+ *   24  int       flags (bit 0 set if an age plane follows the cells)
+ *   28  int       length of the rule string
+ *   32  bytes     rule string (US-ASCII, e.g. "B3/S23"), padded with zeros to a multiple of 8
+ *
+ * followed by the cells, one row after the other with ceil(width / 64) longs per row
+ * (bit i of word w is cell w * 64 + i, the same layout BitGrid uses), and then the
+ * optional age plane of width * height bytes in row-major order. The age plane has
+ * to agree with the cells (0 for every dead cell) since it is loaded as is.
+ *
+ * @author Justin Hall
+ */
+public class SnapshotFile implements Closeable
+{
+  public static final int VERSION = 1;
+  private static final byte[] MAGIC = { 'G', 'O', 'L', 'S' };
+  private static final int FLAG_AGES = 1;
+  private static final int FIXED_HEADER_BYTES = 32;
+  private final FileChannel CHANNEL;
+  private final int WIDTH, HEIGHT;
+  private final long GENERATION;
+  private final String RULE;
+  private final boolean HAS_AGES;
+  private final LongBuffer CELLS;
+  private final ByteBuffer AGES;
+
+  /**
+   * Opens a snapshot for reading and maps its cells (and age plane).
+   *
+   * @param file file to open
+   * @throws IOException if the file can't be read or is not a valid snapshot
+   */
+  public SnapshotFile(Path file) throws IOException
+  {
+    CHANNEL = FileChannel.open(file, StandardOpenOption.READ);
+    try
+    {
+      ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      while (header.hasRemaining() && CHANNEL.read(header) >= 0) { }
+      if (header.hasRemaining()) throw new IOException("File is too short to be a snapshot: " + file);
+      header.flip();
+      for (byte b : MAGIC)
+      {
+        if (header.get() != b) throw new IOException("Not a snapshot file: " + file);
+      }
+      int version = header.getInt();
+      if (version != VERSION) throw new IOException("Unsupported snapshot version " + version);
+      WIDTH = header.getInt();
+      HEIGHT = header.getInt();
+      GENERATION = header.getLong();
+      HAS_AGES = (header.getInt() & FLAG_AGES) != 0;
+      int ruleLength = header.getInt();
+      if (WIDTH <= 0 || HEIGHT <= 0 || ruleLength < 0 || ruleLength > 1024) throw new IOException("Corrupt snapshot header");
+      ByteBuffer rule = ByteBuffer.allocate(ruleLength);
+      while (rule.hasRemaining() && CHANNEL.read(rule) >= 0) { }
+      RULE = new String(rule.array(), StandardCharsets.US_ASCII);
+      long cellsOffset = bodyOffset(ruleLength);
+      long cellBytes = cellBytes(WIDTH, HEIGHT);
+      long ageBytes = HAS_AGES ? (long)WIDTH * HEIGHT : 0;
+      if (CHANNEL.size() < cellsOffset + cellBytes + ageBytes) throw new IOException("Snapshot is truncated: " + file);
+      CELLS = map(CHANNEL, FileChannel.MapMode.READ_ONLY, cellsOffset, cellBytes).asLongBuffer();
+      AGES = HAS_AGES ? map(CHANNEL, FileChannel.MapMode.READ_ONLY, cellsOffset + cellBytes, ageBytes) : null;
+    }
+    catch (IOException | RuntimeException e)
+    {
+      CHANNEL.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Writes a generation to a file, replacing it if it exists.
+   *
+   * @param snapshot generation to write
+   * @param rule rule string the board is being run with
+   * @param includeAges true to write the age plane and false to only write which cells are alive
+   * @param file file to write
+   * @throws IOException if the file can't be written
+   */
+  public static void write(GridSnapshot snapshot, String rule, boolean includeAges, Path file) throws IOException
+  {
+    final int width = snapshot.getWidth();
+    final int height = snapshot.getHeight();
+    final int wordsPerRow = (width + BitGrid.BITS_PER_WORD - 1) / BitGrid.BITS_PER_WORD;
+    byte[] ruleBytes = rule.getBytes(StandardCharsets.US_ASCII);
+    long cellsOffset = bodyOffset(ruleBytes.length);
+    long cellBytes = cellBytes(width, height);
+    long ageBytes = includeAges ? (long)width * height : 0;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                                StandardOpenOption.READ, StandardOpenOption.WRITE))
+    {
+      MappedByteBuffer header = map(channel, FileChannel.MapMode.READ_WRITE, 0, cellsOffset);
+      header.put(MAGIC);
+      header.putInt(VERSION);
+      header.putInt(width);
+      header.putInt(height);
+      header.putLong(snapshot.getGeneration());
+      header.putInt(includeAges ? FLAG_AGES : 0);
+      header.putInt(ruleBytes.length);
+      header.put(ruleBytes);
+      LongBuffer cells = map(channel, FileChannel.MapMode.READ_WRITE, cellsOffset, cellBytes).asLongBuffer();
+      MappedByteBuffer ages = includeAges ? map(channel, FileChannel.MapMode.READ_WRITE, cellsOffset + cellBytes, ageBytes) : null;
+      byte[] row = new byte[width];
+      long[] words = new long[wordsPerRow];
+      for (int y = 0; y < height; y++)
+      {
+        snapshot.getRow(y, row);
+        for (int w = 0; w < wordsPerRow; w++)
+        {
+          long word = 0;
+          for (int x = w * BitGrid.BITS_PER_WORD, bit = 0, end = Math.min(x + BitGrid.BITS_PER_WORD, width); x < end; x++, bit++)
+          {
+            word |= (long)((-row[x]) >>> 31) << bit;
+          }
+          words[w] = word;
+        }
+        cells.put(words);
+        if (ages != null) ages.put(row);
+      }
+    }
+  }
+
+  /**
+   * Gets the width of the stored board.
+   *
+   * @return width in cells
+   */
+  public int getWidth()
+  {
+    return WIDTH;
+  }
+
+  /**
+   * Gets the height of the stored board.
+   *
+   * @return height in cells
+   */
+  public int getHeight()
+  {
+    return HEIGHT;
+  }
+
+  /**
+   * Gets the generation the board was saved at.
+   *
+   * @return generation number
+   */
+  public long getGeneration()
+  {
+    return GENERATION;
+  }
+
+  /**
+   * Gets the rule the board was being run with.
+   *
+   * @return rule string
+   */
+  public String getRule()
+  {
+    return RULE;
+  }
+
+  /**
+   * Checks if the file has an age plane.
+   *
+   * @return true if ages were saved and false if only live/dead was
+   */
+  public boolean hasAges()
+  {
+    return HAS_AGES;
+  }
+
+  /**
+   * Gets the number of longs stored for each row of cells.
+   *
+   * @return words per row
+   */
+  public int getWordsPerRow()
+  {
+    return (WIDTH + BitGrid.BITS_PER_WORD - 1) / BitGrid.BITS_PER_WORD;
+  }
+
+  /**
+   * Gives direct access to the mapped cell words (row y starts at y * getWordsPerRow()).
+   *
+   * @return mapped cell words
+   */
+  public LongBuffer getCells()
+  {
+    return CELLS;
+  }
+
+  /**
+   * Gives direct access to the mapped age plane (cell (x, y) is at y * getWidth() + x).
+   *
+   * @return mapped ages or null if the file has no age plane
+   */
+  public ByteBuffer getAges()
+  {
+    return AGES;
+  }
+
+  /**
+   * Closes the file.
+   *
+   * @throws IOException if the file can't be closed
+   */
+  @Override
+  public void close() throws IOException
+  {
+    CHANNEL.close();
+  }
+
+  /**
+   * Offset of the cells, which start at the first multiple of 8 after the rule string.
+   */
+  private static long bodyOffset(int ruleLength)
+  {
+    return (FIXED_HEADER_BYTES + ruleLength + 7) & ~7L;
+  }
+
+  /**
+   * Number of bytes taken up by the packed cells of a board.
+   */
+  private static long cellBytes(int width, int height)
+  {
+    return (long)height * ((width + BitGrid.BITS_PER_WORD - 1) / BitGrid.BITS_PER_WORD) * Long.BYTES;
+  }
+
+  /**
+   * Maps part of a file as a little-endian buffer.
+   */
+  private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long offset, long length) throws IOException
+  {
+    if (length > Integer.MAX_VALUE) throw new IOException("Board is too large to map (" + length + " bytes)");
+    MappedByteBuffer buffer = channel.map(mode, offset, length);
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    return buffer;
+  }
+}
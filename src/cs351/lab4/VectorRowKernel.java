@@ -0,0 +1,128 @@
+package cs351.lab4;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Row kernel built on the incubating Vector API. It updates a full vector of cells
+ * per iteration (32 on AVX2, 64 on AVX-512) with no branches: the live flags of the
+ * nine cells around each cell are summed from nine shifted loads, and the rule is
+ * applied with one lane comparison per neighbor count in its birth and survival
+ * sets followed by blends.
+ *
+ * This class needs --add-modules jdk.incubator.vector both to compile and to run.
+ * The engine only loads it by name, so when the module is missing at run time it
+ * quietly uses ScalarRowKernel instead.
+ *
+ * @author Justin Hall
+ */
+public class VectorRowKernel implements RowKernel
+{
+  private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+  private static final byte MAX_CELL_AGE = 10;
+  // nine-cell sums (which include the cell itself) that cause a birth / let a live cell survive
+  private final int[] BIRTH_SUMS, SURVIVAL_SUMS;
+  // Generations rules keep dying cells as negative ages
+  private final boolean HAS_DYING_STATES;
+  private final byte LAST_DYING_AGE;
+  private final ScalarRowKernel TAIL;
+
+  /**
+   * Creates the kernel for a rule.
+   *
+   * @param rule rule to run
+   */
+  public VectorRowKernel(Rule rule)
+  {
+    BIRTH_SUMS = sums(rule.getBirthMask(), 0);
+    SURVIVAL_SUMS = sums(rule.getSurvivalMask(), 1);
+    HAS_DYING_STATES = rule.getDyingStates() > 0;
+    LAST_DYING_AGE = (byte)-rule.getDyingStates();
+    TAIL = new ScalarRowKernel(rule);
+  }
+
+  /**
+   * Updates the row a vector at a time and hands whatever is left over (less than
+   * one vector's worth of cells) to the scalar kernel.
+   */
+  @Override
+  public boolean updateRow(byte[] src, byte[] dst, int mid, int stride, int xStart, int xEnd)
+  {
+    final int up = mid - stride;
+    final int down = mid + stride;
+    final int length = SPECIES.length();
+    ByteVector changed = ByteVector.zero(SPECIES);
+    int x = xStart;
+    for (; x + length <= xEnd; x += length)
+    {
+      ByteVector age = ByteVector.fromArray(SPECIES, src, mid + x);
+      ByteVector sum = live(src, up + x - 1).add(live(src, up + x)).add(live(src, up + x + 1))
+                         .add(live(src, mid + x - 1)).add(live(src, mid + x)).add(live(src, mid + x + 1))
+                         .add(live(src, down + x - 1)).add(live(src, down + x)).add(live(src, down + x + 1));
+      VectorMask<Byte> alive = age.compare(VectorOperators.GT, (byte)0);
+      VectorMask<Byte> born = SPECIES.maskAll(false);
+      for (int count : BIRTH_SUMS) born = born.or(sum.compare(VectorOperators.EQ, (byte)count));
+      VectorMask<Byte> survives = SPECIES.maskAll(false);
+      for (int count : SURVIVAL_SUMS) survives = survives.or(sum.compare(VectorOperators.EQ, (byte)count));
+      ByteVector older = age.add((byte)1).min(MAX_CELL_AGE);
+      ByteVector next;
+      if (!HAS_DYING_STATES)
+      {
+        next = ByteVector.zero(SPECIES).blend(older, alive.and(survives)).blend((byte)1, born.andNot(alive));
+      }
+      else
+      {
+        // dying cells move on to the next dying state (or die) and can't be born, and live
+        // cells that don't survive start dying
+        VectorMask<Byte> dead = age.compare(VectorOperators.EQ, (byte)0);
+        VectorMask<Byte> dying = age.compare(VectorOperators.LT, (byte)0);
+        next = ByteVector.zero(SPECIES).blend(older, alive.and(survives)).blend((byte)-1, alive.andNot(survives))
+                         .blend((byte)1, born.and(dead))
+                         .blend(age.sub((byte)1), dying.andNot(age.compare(VectorOperators.EQ, LAST_DYING_AGE)));
+      }
+      next.intoArray(dst, mid + x);
+      changed = changed.or(next.lanewise(VectorOperators.XOR, age));
+    }
+    boolean anyChanged = changed.reduceLanes(VectorOperators.OR) != 0;
+    if (x < xEnd) anyChanged |= TAIL.updateRow(src, dst, mid, stride, x, xEnd);
+    return anyChanged;
+  }
+
+  /**
+   * Gets the kernel's name.
+   *
+   * @return "vector" followed by the number of cells per vector
+   */
+  @Override
+  public String getName()
+  {
+    return "vector" + SPECIES.length();
+  }
+
+  /**
+   * Loads a vector of cells and turns their ages into live flags (0 or 1).
+   */
+  private ByteVector live(byte[] cells, int index)
+  {
+    ByteVector ages = ByteVector.fromArray(SPECIES, cells, index);
+    // min(age, 1) is enough when ages are never negative - otherwise the sign bit of -age
+    // (shifted down as an unsigned byte) is 1 only for ages above 0
+    if (!HAS_DYING_STATES) return ages.min((byte)1);
+    return ages.neg().lanewise(VectorOperators.LSHR, 7);
+  }
+
+  /**
+   * Lists the nine-cell sums for a set of neighbor counts.
+   *
+   * @param counts bit n set for each neighbor count in the set
+   * @param self 1 if the cell itself is alive and 0 if not
+   */
+  private static int[] sums(int counts, int self)
+  {
+    int[] sums = new int[Integer.bitCount(counts)];
+    for (int n = 0, i = 0; n <= 8; n++) if ((counts & (1 << n)) != 0) sums[i++] = n + self;
+    return sums;
+  }
+}
@@ -0,0 +1,293 @@
+package cs351.lab4;
+
+import cs351.job.Job;
+import java.util.Arrays;
+
+/**
+ * Draws the visible part of a GridSnapshot into an int[] of ARGB pixels so that the
+ * UI can push the whole frame to the screen in one call instead of issuing draw
+ * calls per cell. Cell (viewX, viewY) starts one pixel above and to the left of the
+ * image and each cell is zoom x zoom pixels. From MIN_GRID_ZOOM up the top row and
+ * left column of each cell are drawn as gridlines in a second pass. Zoomed out
+ * past one cell per pixel, each pixel shows how many of the cells it covers are
+ * alive using the snapshot's density pyramid. Large images are split into bands of
+ * rows that are rasterized on the engine's job system.
+ *
+ * @author Justin Hall
+ */
+public class ViewportRasterizer
+{
+  public static final int MIN_GRID_ZOOM = 5;
+  // images with fewer pixels than this are rasterized on the calling thread
+  private final int MIN_PARALLEL_PIXELS = 1 << 16;
+  private final int[] PALETTE;
+  private final int BACKGROUND_COLOR;
+  private final int GRID_COLOR;
+  // DENSITY_RAMP[i] is the color for a pixel whose cells are i / DENSITY_STEPS alive
+  private final int DENSITY_STEPS = 256;
+  private final int[] DENSITY_RAMP = new int[DENSITY_STEPS + 1];
+  // samples per axis for each pixel when zoomed out without a density pyramid
+  private final int SAMPLES_PER_AXIS = 4;
+  private int[] pixels = new int[0];
+  // parameters for the frame that is currently being rasterized
+  private GridSnapshot snapshot;
+  private int width, height, zoom, viewX, viewY;
+  // log2 of the cells per pixel when zoomed out (0 when zoomed in)
+  private int zoomOutShift;
+
+  /**
+   * Job that rasterizes one band of rows.
+   */
+  private class BandJob extends Job
+  {
+    private final int START_ROW, END_ROW;
+
+    BandJob(int startRow, int endRow)
+    {
+      START_ROW = startRow;
+      END_ROW = endRow;
+    }
+
+    @Override
+    public void run(int threadID)
+    {
+      rasterizeRows(START_ROW, END_ROW);
+    }
+  }
+
+  /**
+   * Creates the rasterizer with its colors.
+   *
+   * @param palette ARGB color for each cell age with element 0 being for dead cells
+   * @param backgroundColor ARGB color for pixels outside of the world
+   * @param gridColor ARGB color for the gridlines
+   */
+  public ViewportRasterizer(int[] palette, int backgroundColor, int gridColor)
+  {
+    PALETTE = palette.clone();
+    BACKGROUND_COLOR = backgroundColor;
+    GRID_COLOR = gridColor;
+    // anything alive gets at least a quarter of the youngest cell color so lone
+    // patterns stay visible when zoomed far out
+    final double MIN_INTENSITY = 0.25;
+    DENSITY_RAMP[0] = PALETTE[0];
+    for (int i = 1; i <= DENSITY_STEPS; i++)
+    {
+      DENSITY_RAMP[i] = blend(PALETTE[0], PALETTE[1], MIN_INTENSITY + (1 - MIN_INTENSITY) * i / DENSITY_STEPS);
+    }
+  }
+
+  /**
+   * Rasterizes the view. The returned array is reused by the next call.
+   *
+   * @param snapshot generation to draw
+   * @param width width of the image in pixels
+   * @param height height of the image in pixels
+   * @param zoom width/height of a cell in pixels
+   * @param viewX first visible column of cells
+   * @param viewY first visible row of cells
+   * @param engine engine whose job system the bands are run on (null to run everything on the calling thread)
+   * @return row-major ARGB pixels (width * height of them are valid)
+   * @throws InterruptedException if interrupted while waiting on the job system
+   */
+  public int[] rasterize(GridSnapshot snapshot, int width, int height, int zoom, int viewX, int viewY,
+                         SimulationEngine engine) throws InterruptedException
+  {
+    if (pixels.length < width * height) pixels = new int[width * height];
+    this.snapshot = snapshot;
+    this.width = width;
+    this.height = height;
+    this.zoom = zoom;
+    this.viewX = viewX;
+    this.viewY = viewY;
+    zoomOutShift = 0;
+    return rasterizeBands(engine);
+  }
+
+  /**
+   * Rasterizes the view zoomed out so that each pixel covers a block of
+   * 2^shift x 2^shift cells. The view offsets are rounded down to a multiple of
+   * the block size. The returned array is reused by the next call.
+   *
+   * @param snapshot generation to draw
+   * @param width width of the image in pixels
+   * @param height height of the image in pixels
+   * @param shift log2 of the number of cells across each pixel (at least 1)
+   * @param viewX first visible column of cells
+   * @param viewY first visible row of cells
+   * @param engine engine whose job system the bands are run on (null to run everything on the calling thread)
+   * @return row-major ARGB pixels (width * height of them are valid)
+   * @throws InterruptedException if interrupted while waiting on the job system
+   */
+  public int[] rasterizeZoomedOut(GridSnapshot snapshot, int width, int height, int shift, int viewX, int viewY,
+                                  SimulationEngine engine) throws InterruptedException
+  {
+    if (pixels.length < width * height) pixels = new int[width * height];
+    this.snapshot = snapshot;
+    this.width = width;
+    this.height = height;
+    this.viewX = viewX >> shift;
+    this.viewY = viewY >> shift;
+    zoom = 1;
+    zoomOutShift = shift;
+    return rasterizeBands(engine);
+  }
+
+  /**
+   * Splits the image into bands and rasterizes them (in parallel if there are enough pixels).
+   */
+  private int[] rasterizeBands(SimulationEngine engine) throws InterruptedException
+  {
+    int numBands = engine == null || width * height < MIN_PARALLEL_PIXELS ? 1 : Math.min(engine.getNumThreads(), height);
+    if (numBands <= 1)
+    {
+      rasterizeRows(0, height);
+      return pixels;
+    }
+    Job[] jobs = new Job[numBands];
+    for (int i = 0; i < numBands; i++) jobs[i] = new BandJob(height * i / numBands, height * (i + 1) / numBands);
+    engine.runJobsAndWait(jobs);
+    return pixels;
+  }
+
+  /**
+   * Fills the pixel rows [startRow, endRow) and then draws their gridlines.
+   */
+  private void rasterizeRows(int startRow, int endRow)
+  {
+    if (zoomOutShift > 0)
+    {
+      for (int py = startRow; py < endRow; py++) fillZoomedOutRow(py);
+      return;
+    }
+    // pixels at or past this column belong to cells outside of the world
+    final int cellLimit = Math.max(0, Math.min(width, (snapshot.getWidth() - viewX) * zoom - 1));
+    int prevCellY = -1;
+    for (int py = startRow; py < endRow; py++)
+    {
+      int cellY = viewY + (py + 1) / zoom;
+      int row = py * width;
+      if (cellY >= snapshot.getHeight()) Arrays.fill(pixels, row, row + width, BACKGROUND_COLOR);
+      else if (cellY == prevCellY) System.arraycopy(pixels, row - width, pixels, row, width);
+      else fillRow(row, cellY, cellLimit);
+      prevCellY = cellY;
+    }
+    if (zoom < MIN_GRID_ZOOM) return;
+    for (int py = startRow; py < endRow; py++)
+    {
+      if (viewY + (py + 1) / zoom >= snapshot.getHeight()) break;
+      int row = py * width;
+      if ((py + 1) % zoom == 0) Arrays.fill(pixels, row, row + cellLimit, GRID_COLOR);
+      else for (int px = zoom - 1; px < cellLimit; px += zoom) pixels[row + px] = GRID_COLOR;
+    }
+  }
+
+  /**
+   * Fills one row of pixels from a row of cells, looking each cell's color up once.
+   * Dying cells (negative ages) are drawn as dead.
+   */
+  private void fillRow(int row, int cellY, int cellLimit)
+  {
+    int cellX = viewX + 1 / zoom;
+    int offset = 1 % zoom;
+    int color = PALETTE[Math.max(snapshot.getAge(Math.min(cellX, snapshot.getWidth() - 1), cellY), 0)];
+    for (int px = 0; px < cellLimit; px++)
+    {
+      pixels[row + px] = color;
+      if (++offset == zoom)
+      {
+        offset = 0;
+        ++cellX;
+        if (px + 1 < cellLimit) color = PALETTE[Math.max(snapshot.getAge(cellX, cellY), 0)];
+      }
+    }
+    Arrays.fill(pixels, row + cellLimit, row + width, BACKGROUND_COLOR);
+  }
+
+  /**
+   * Fills one row of pixels when zoomed out. viewX and viewY are in blocks here.
+   * Blocks at least as big as the pyramid's base level are read from the pyramid,
+   * smaller ones are counted directly, and boards without a pyramid are sampled.
+   */
+  private void fillZoomedOutRow(int py)
+  {
+    final int shift = zoomOutShift;
+    final int blockSize = 1 << shift;
+    final DensityPyramid pyramid = snapshot.getDensityPyramid();
+    final int levelWidth = (snapshot.getWidth() + blockSize - 1) >> shift;
+    final int levelHeight = (snapshot.getHeight() + blockSize - 1) >> shift;
+    final int row = py * width;
+    int by = viewY + py;
+    if (by >= levelHeight)
+    {
+      Arrays.fill(pixels, row, row + width, BACKGROUND_COLOR);
+      return;
+    }
+    int blockHeight = Math.min(blockSize, snapshot.getHeight() - (by << shift));
+    int end = Math.max(0, Math.min(width, levelWidth - viewX));
+    for (int px = 0; px < end; px++)
+    {
+      int bx = viewX + px;
+      // blocks on the right and bottom edges are clipped to the board
+      int blockWidth = Math.min(blockSize, snapshot.getWidth() - (bx << shift));
+      int alive, total;
+      if (pyramid != null && shift >= DensityPyramid.BASE_SHIFT && shift <= pyramid.getMaxShift())
+      {
+        alive = pyramid.getCount(shift, bx, by);
+        total = blockWidth * blockHeight;
+      }
+      else if (pyramid != null && shift < DensityPyramid.BASE_SHIFT)
+      {
+        alive = countBlock(bx << shift, by << shift, blockSize, 1);
+        total = blockWidth * blockHeight;
+      }
+      else
+      {
+        // countBlock samples every step-th row and column of the clipped block
+        int step = Math.max(1, blockSize / SAMPLES_PER_AXIS);
+        alive = countBlock(bx << shift, by << shift, blockSize, step);
+        total = ((blockWidth + step - 1) / step) * ((blockHeight + step - 1) / step);
+      }
+      pixels[row + px] = DENSITY_RAMP[(int)((long)alive * DENSITY_STEPS / total)];
+    }
+    Arrays.fill(pixels, row + end, row + width, BACKGROUND_COLOR);
+  }
+
+  /**
+   * Counts the live cells at every step-th row and column of a block (clipped to the board).
+   */
+  private int countBlock(int x, int y, int blockSize, int step)
+  {
+    int xEnd = Math.min(x + blockSize, snapshot.getWidth());
+    int yEnd = Math.min(y + blockSize, snapshot.getHeight());
+    int alive = 0;
+    for (int cy = y; cy < yEnd; cy += step)
+    {
+      for (int cx = x; cx < xEnd; cx += step)
+      {
+        if (snapshot.getAge(cx, cy) > 0) alive++;
+      }
+    }
+    return alive;
+  }
+
+  /**
+   * Linearly blends two ARGB colors.
+   *
+   * @param from color at t = 0
+   * @param to color at t = 1
+   * @param t amount of the second color (0 - 1)
+   * @return blended color
+   */
+  private static int blend(int from, int to, double t)
+  {
+    int result = 0;
+    for (int channel = 0; channel < 32; channel += 8)
+    {
+      int a = from >>> channel & 0xFF;
+      int b = to >>> channel & 0xFF;
+      result |= (int)Math.round(a + (b - a) * t) << channel;
+    }
+    return result;
+  }
+}
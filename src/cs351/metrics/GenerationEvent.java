@@ -0,0 +1,27 @@
+package cs351.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event that spans one generation, from the engine handing out the update
+ * jobs to the last job finishing. It is only created when metrics are enabled.
+ *
+ * @author Justin Hall
+ */
+@Name("cs351.Generation")
+@Label("Generation")
+@Category("Game of Life")
+@Description("Time taken to compute one generation")
+public class GenerationEvent extends Event
+{
+  @Label("Generation")
+  public long generation;
+
+  @Label("Jobs")
+  @Description("Number of update jobs (or barrier threads) the generation was split into")
+  public int jobs;
+}
@@ -0,0 +1,49 @@
+package cs351.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ReentrantLock that records how long lock() had to wait whenever the lock was
+ * already held by another thread. The uncontended path is a single tryLock, and
+ * with metrics switched off lock() is exactly ReentrantLock.lock().
+ *
+ * @author Justin Hall
+ */
+public class InstrumentedLock extends ReentrantLock
+{
+  private static final long serialVersionUID = 1L;
+
+  private final LatencyHistogram WAIT_TIMES;
+  private final LongAdder CONTENDED;
+
+  /**
+   * Creates the lock along with a "name.waitNanos" histogram and a "name.contended"
+   * counter.
+   *
+   * @param name prefix of the metric names
+   */
+  public InstrumentedLock(String name)
+  {
+    WAIT_TIMES = Metrics.histogram(name + ".waitNanos");
+    CONTENDED = Metrics.counter(name + ".contended");
+  }
+
+  /**
+   * Acquires the lock, timing the wait if another thread holds it.
+   */
+  @Override
+  public void lock()
+  {
+    if (!Metrics.ENABLED)
+    {
+      super.lock();
+      return;
+    }
+    else if (tryLock()) return;
+    long start = System.nanoTime();
+    super.lock();
+    WAIT_TIMES.record(System.nanoTime() - start);
+    CONTENDED.increment();
+  }
+}
@@ -0,0 +1,145 @@
+package cs351.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size histogram of non-negative longs (usually nanoseconds) laid out the
+ * same way as an HdrHistogram: every power of two is split into SUB_BUCKETS equal
+ * buckets, so any value is stored with at most 1 / SUB_BUCKETS relative error and
+ * the whole range of a long fits in under a thousand counters. Recording is one
+ * atomic increment plus two striped adds, so any number of threads can record at
+ * once without locking.
+ *
+ * @author Justin Hall
+ */
+public class LatencyHistogram
+{
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // values below SUB_BUCKETS get a bucket each, then SUB_BUCKETS buckets per power of two
+  private static final int NUM_BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+  private final AtomicLongArray COUNTS = new AtomicLongArray(NUM_BUCKETS);
+  private final LongAdder TOTAL_COUNT = new LongAdder();
+  private final LongAdder TOTAL_SUM = new LongAdder();
+  private final LongAccumulator MAX = new LongAccumulator(Math::max, 0);
+
+  /**
+   * Adds one value to the histogram. Negative values are recorded as 0.
+   *
+   * @param value value to record
+   */
+  public void record(long value)
+  {
+    if (value < 0) value = 0;
+    COUNTS.incrementAndGet(bucketIndex(value));
+    TOTAL_COUNT.increment();
+    TOTAL_SUM.add(value);
+    MAX.accumulate(value);
+  }
+
+  /**
+   * Gets the number of values recorded.
+   *
+   * @return count
+   */
+  public long getCount()
+  {
+    return TOTAL_COUNT.sum();
+  }
+
+  /**
+   * Gets the exact mean of the recorded values.
+   *
+   * @return mean (0 if nothing was recorded)
+   */
+  public double getMean()
+  {
+    long count = TOTAL_COUNT.sum();
+    return count == 0 ? 0 : (double)TOTAL_SUM.sum() / count;
+  }
+
+  /**
+   * Gets the exact largest recorded value.
+   *
+   * @return max (0 if nothing was recorded)
+   */
+  public long getMax()
+  {
+    return MAX.get();
+  }
+
+  /**
+   * Gets the value that the given percentage of recorded values are at or below.
+   * The result is the top of the bucket the percentile lands in, so it may be up
+   * to 1 / 16 higher than the real value (but never higher than the max).
+   *
+   * @param percentile percentile from 0 to 100
+   * @return value at that percentile (0 if nothing was recorded)
+   */
+  public long getPercentile(double percentile)
+  {
+    long count = 0;
+    long[] counts = new long[NUM_BUCKETS];
+    for (int i = 0; i < NUM_BUCKETS; i++)
+    {
+      counts[i] = COUNTS.get(i);
+      count += counts[i];
+    }
+    if (count == 0) return 0;
+    long target = Math.max(1, (long)Math.ceil(Math.min(percentile, 100) / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++)
+    {
+      seen += counts[i];
+      if (seen >= target) return Math.min(bucketTop(i), getMax());
+    }
+    return getMax();
+  }
+
+  /**
+   * Clears every recorded value. Values recorded while this runs may or may not
+   * survive it.
+   */
+  public void reset()
+  {
+    for (int i = 0; i < NUM_BUCKETS; i++) COUNTS.set(i, 0);
+    TOTAL_COUNT.reset();
+    TOTAL_SUM.reset();
+    MAX.reset();
+  }
+
+  /**
+   * Summarizes the histogram for logging.
+   *
+   * @return count, mean, p50, p90, p99, p99.9 and max on one line
+   */
+  @Override
+  public String toString()
+  {
+    return String.format("count %d mean %.0f p50 %d p90 %d p99 %d p99.9 %d max %d", getCount(), getMean(),
+                         getPercentile(50), getPercentile(90), getPercentile(99), getPercentile(99.9), getMax());
+  }
+
+  /**
+   * Finds the bucket a value belongs in.
+   */
+  private static int bucketIndex(long value)
+  {
+    if (value < SUB_BUCKETS) return (int)value;
+    int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int)((value >>> shift) & (SUB_BUCKETS - 1));
+  }
+
+  /**
+   * Gets the largest value that goes in a bucket.
+   */
+  private static long bucketTop(int index)
+  {
+    if (index < SUB_BUCKETS) return index;
+    int shift = index / SUB_BUCKETS - 1;
+    long bottom = (long)(SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    return bottom + (1L << shift) - 1;
+  }
+}
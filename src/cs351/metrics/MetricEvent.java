@@ -0,0 +1,40 @@
+package cs351.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event that MetricsReporter commits for every metric each time it reports, so
+ * a flight recording shows the counters and percentiles over time next to the
+ * JVM's own events. Counters and gauges only fill in value.
+ *
+ * @author Justin Hall
+ */
+@Name("cs351.Metric")
+@Label("Metric")
+@Category("Game of Life")
+@Description("Periodic sample of one counter, gauge or histogram")
+public class MetricEvent extends Event
+{
+  @Label("Name")
+  String name;
+
+  @Label("Value")
+  @Description("Counter or gauge value, or the number of values in a histogram")
+  long value;
+
+  @Label("Mean")
+  double mean;
+
+  @Label("50th Percentile")
+  long p50;
+
+  @Label("99th Percentile")
+  long p99;
+
+  @Label("Max")
+  long max;
+}
@@ -0,0 +1,116 @@
+package cs351.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide registry of named counters, histograms and gauges. Everything is
+ * switched on or off once at startup with -Dcs351.metrics=true - ENABLED is a static
+ * final so the JIT drops every "if (Metrics.ENABLED)" block when it is false, and
+ * instrumented code pays nothing on its hot paths.
+ *
+ * Metrics are created on first use and shared by name, so two job systems started
+ * one after the other add to the same counters. Names are dotted paths such as
+ * "jobSystem.queueDepth" or "worker.3.busyNanos".
+ *
+ * @author Justin Hall
+ */
+public final class Metrics
+{
+  public static final boolean ENABLED = Boolean.getBoolean("cs351.metrics");
+  private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+  private static final Map<String, LatencyHistogram> HISTOGRAMS = new ConcurrentHashMap<>();
+  private static final Map<String, LongSupplier> GAUGES = new ConcurrentHashMap<>();
+
+  private Metrics()
+  {
+  }
+
+  /**
+   * Gets (creating if needed) the counter with the given name.
+   *
+   * @param name name of the counter
+   * @return counter that any thread can add to
+   */
+  public static LongAdder counter(String name)
+  {
+    return COUNTERS.computeIfAbsent(name, (key) -> new LongAdder());
+  }
+
+  /**
+   * Gets (creating if needed) the histogram with the given name.
+   *
+   * @param name name of the histogram
+   * @return histogram that any thread can record into
+   */
+  public static LatencyHistogram histogram(String name)
+  {
+    return HISTOGRAMS.computeIfAbsent(name, (key) -> new LatencyHistogram());
+  }
+
+  /**
+   * Registers a value that is read whenever the metrics are reported (such as the
+   * size of a queue). A later gauge with the same name replaces this one.
+   *
+   * @param name name of the gauge
+   * @param gauge called to read the current value
+   */
+  public static void gauge(String name, LongSupplier gauge)
+  {
+    GAUGES.put(name, gauge);
+  }
+
+  /**
+   * Gets the current value of every counter and gauge, sorted by name.
+   *
+   * @return map from name to value
+   */
+  public static Map<String, Long> getValues()
+  {
+    TreeMap<String, Long> values = new TreeMap<>();
+    for (Map.Entry<String, LongAdder> entry : COUNTERS.entrySet()) values.put(entry.getKey(), entry.getValue().sum());
+    for (Map.Entry<String, LongSupplier> entry : GAUGES.entrySet()) values.put(entry.getKey(), entry.getValue().getAsLong());
+    return values;
+  }
+
+  /**
+   * Gets every histogram, sorted by name.
+   *
+   * @return map from name to histogram
+   */
+  public static Map<String, LatencyHistogram> getHistograms()
+  {
+    return new TreeMap<>(HISTOGRAMS);
+  }
+
+  /**
+   * Zeroes every counter and histogram (gauges always report their live value).
+   */
+  public static void reset()
+  {
+    for (LongAdder counter : COUNTERS.values()) counter.reset();
+    for (LatencyHistogram histogram : HISTOGRAMS.values()) histogram.reset();
+  }
+
+  /**
+   * Formats every metric as one line each (times are in nanoseconds, as recorded).
+   *
+   * @return multi-line report
+   */
+  public static String report()
+  {
+    StringBuilder report = new StringBuilder();
+    for (Map.Entry<String, Long> entry : getValues().entrySet())
+    {
+      report.append(String.format("  %-32s %d%n", entry.getKey(), entry.getValue()));
+    }
+    for (Map.Entry<String, LatencyHistogram> entry : getHistograms().entrySet())
+    {
+      report.append(String.format("  %-32s %s%n", entry.getKey(), entry.getValue()));
+    }
+    return report.toString();
+  }
+}
@@ -0,0 +1,146 @@
+package cs351.metrics;
+
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Background thread that dumps every metric at a fixed interval - to standard out as
+ * a plain text report and to JFR as one MetricEvent per metric (only when a
+ * recording has the event enabled). Nothing is reported unless Metrics.ENABLED is set.
+ *
+ * @author Justin Hall
+ */
+public class MetricsReporter
+{
+  private final ReentrantLock LOCK = new ReentrantLock();
+  private final Condition STOPPED = LOCK.newCondition();
+  private final long PERIOD_MILLIS;
+  private final boolean PRINT;
+  private Thread thread;
+  private boolean isRunning = false;
+
+  /**
+   * Creates the reporter without starting it.
+   *
+   * @param periodMillis time between reports in milliseconds
+   * @param print true to print each report to standard out (JFR events are always committed)
+   */
+  public MetricsReporter(long periodMillis, boolean print)
+  {
+    PERIOD_MILLIS = Math.max(periodMillis, 1);
+    PRINT = print;
+  }
+
+  /**
+   * Starts the reporting thread. This does nothing if metrics are disabled.
+   */
+  public void start()
+  {
+    LOCK.lock();
+    try
+    {
+      if (isRunning) throw new RuntimeException("Metrics reporter was already started");
+      else if (!Metrics.ENABLED) return;
+      isRunning = true;
+      thread = new Thread(this::reportLoop, "MetricsReporter");
+      thread.setDaemon(true);
+      thread.start();
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Stops the reporting thread after one last report.
+   */
+  public void stop()
+  {
+    Thread reporter;
+    LOCK.lock();
+    try
+    {
+      if (!isRunning) return;
+      isRunning = false;
+      STOPPED.signalAll();
+      reporter = thread;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+    try
+    {
+      reporter.join();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Writes out one report right away.
+   */
+  public void report()
+  {
+    if (PRINT) System.out.print("Metrics:" + System.lineSeparator() + Metrics.report());
+    // skip building the events if no recording wants them
+    if (!new MetricEvent().isEnabled()) return;
+    for (Map.Entry<String, Long> entry : Metrics.getValues().entrySet())
+    {
+      MetricEvent event = new MetricEvent();
+      event.name = entry.getKey();
+      event.value = entry.getValue();
+      event.commit();
+    }
+    for (Map.Entry<String, LatencyHistogram> entry : Metrics.getHistograms().entrySet())
+    {
+      LatencyHistogram histogram = entry.getValue();
+      MetricEvent event = new MetricEvent();
+      event.name = entry.getKey();
+      event.value = histogram.getCount();
+      event.mean = histogram.getMean();
+      event.p50 = histogram.getPercentile(50);
+      event.p99 = histogram.getPercentile(99);
+      event.max = histogram.getMax();
+      event.commit();
+    }
+  }
+
+  /**
+   * Reports every PERIOD_MILLIS until stop is called.
+   */
+  private void reportLoop()
+  {
+    while (true)
+    {
+      LOCK.lock();
+      try
+      {
+        long remaining = PERIOD_MILLIS * 1_000_000L;
+        while (isRunning && remaining > 0) remaining = STOPPED.awaitNanos(remaining);
+      }
+      catch (InterruptedException e)
+      {
+        return;
+      }
+      finally
+      {
+        LOCK.unlock();
+      }
+      report();
+      LOCK.lock();
+      try
+      {
+        if (!isRunning) return;
+      }
+      finally
+      {
+        LOCK.unlock();
+      }
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package cs351.presets;
+
+import cs351.lab4.ChunkedEngine;
+import cs351.lab4.SimulationEngine;
+
+/**
+ * Copies a window of a ChunkedEngine's world into the engine so that the regular
+ * UI can render it. Meant to be given to a World object.
+ *
+ * @author Justin Hall
+ */
+public class ChunkedViewport implements Preset
+{
+  private final ChunkedEngine CHUNKED;
+  private final long VIEW_X, VIEW_Y;
+
+  /**
+   * Creates the viewport with its upper-left corner at (viewX, viewY) in the
+   * chunked world.
+   *
+   * @param chunked ChunkedEngine to read from
+   * @param viewX world x-value that maps to engine x = 0
+   * @param viewY world y-value that maps to engine y = 0
+   */
+  public ChunkedViewport(ChunkedEngine chunked, long viewX, long viewY)
+  {
+    CHUNKED = chunked;
+    VIEW_X = viewX;
+    VIEW_Y = viewY;
+  }
+
+  /**
+   * Exports the viewport region of the world into the engine.
+   *
+   * @param engine SimulationEngine object to use
+   */
+  @Override
+  public void setInitialEngineState(SimulationEngine engine)
+  {
+    CHUNKED.exportTo(engine, VIEW_X, VIEW_Y);
+  }
+}
@@ -10,7 +10,7 @@ import cs351.lab4.SimulationEngine;
 public class FullGrid implements Preset
 {
   /**
-   * Runs through every cell and sets it to alive (except borders).
+   * Clears the board and then fills everything but the outermost cells.
    *
    * @param engine SimulationEngine object to use.
    */
@@ -19,13 +19,7 @@ public class FullGrid implements Preset
   {
     int width = engine.getWorldWidth();
     int height = engine.getWorldHeight();
-    for (int x = 0; x < width; x++)
-    {
-      for (int y = 0; y < height; y++)
-      {
-        if (x > 0 && x < width - 1 && y > 0 && y < height - 1) engine.setAge(x, y, 1);
-        else engine.setAge(x, y, 0);
-      }
-    }
+    engine.clear();
+    engine.fillRect(1, 1, width - 2, height - 2, 1);
   }
 }
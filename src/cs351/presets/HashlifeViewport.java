@@ -0,0 +1,42 @@
+package cs351.presets;
+
+import cs351.lab4.HashlifeEngine;
+import cs351.lab4.SimulationEngine;
+
+/**
+ * Copies a window of a HashlifeEngine's universe into the engine so that the
+ * regular UI can render it. Meant to be given to a World object.
+ *
+ * @author Justin Hall
+ */
+public class HashlifeViewport implements Preset
+{
+  private final HashlifeEngine HASHLIFE;
+  private final long VIEW_X, VIEW_Y;
+
+  /**
+   * Creates the viewport with its upper-left corner at (viewX, viewY) in the
+   * Hashlife universe.
+   *
+   * @param hashlife HashlifeEngine to read from
+   * @param viewX universe x-value that maps to engine x = 0
+   * @param viewY universe y-value that maps to engine y = 0
+   */
+  public HashlifeViewport(HashlifeEngine hashlife, long viewX, long viewY)
+  {
+    HASHLIFE = hashlife;
+    VIEW_X = viewX;
+    VIEW_Y = viewY;
+  }
+
+  /**
+   * Exports the viewport region of the universe into the engine.
+   *
+   * @param engine SimulationEngine object to use
+   */
+  @Override
+  public void setInitialEngineState(SimulationEngine engine)
+  {
+    HASHLIFE.exportTo(engine, VIEW_X, VIEW_Y);
+  }
+}
@@ -0,0 +1,246 @@
+package cs351.presets;
+
+import cs351.lab4.Rule;
+import cs351.lab4.SimulationEngine;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Loads a pattern from a file in one of the standard formats: RLE (.rle), Life 1.06
+ * (.lif/.life) or plaintext (.cells). The file is streamed a character or line at a
+ * time and every run of live cells goes to the engine as a single setRun call, so
+ * loading takes time linear in the size of the file and only a constant amount of
+ * extra memory. Cells that land outside of the board are dropped. An RLE file that
+ * names a rule in its header switches the engine to that rule.
+ *
+ * @author Justin Hall
+ */
+public class PatternFilePreset implements Preset
+{
+  private static final String LIFE_106_HEADER = "#Life 1.06";
+  private final Path FILE;
+  private final boolean CENTERED;
+  private final int OFFSET_X, OFFSET_Y;
+  // where the pattern's origin ends up on the board for the current load
+  private int originX, originY;
+
+  /**
+   * Creates a preset that centers the pattern on the board (for plaintext files and
+   * RLE files without a size in their header the top-left corner goes in the center).
+   *
+   * @param file pattern file
+   */
+  public PatternFilePreset(Path file)
+  {
+    FILE = file;
+    CENTERED = true;
+    OFFSET_X = 0;
+    OFFSET_Y = 0;
+  }
+
+  /**
+   * Creates a preset that places the pattern's origin (the top-left corner for RLE
+   * and plaintext, (0, 0) for Life 1.06) at the given location.
+   *
+   * @param file pattern file
+   * @param offsetX x-location of the pattern's origin
+   * @param offsetY y-location of the pattern's origin
+   */
+  public PatternFilePreset(Path file, int offsetX, int offsetY)
+  {
+    FILE = file;
+    CENTERED = false;
+    OFFSET_X = offsetX;
+    OFFSET_Y = offsetY;
+  }
+
+  /**
+   * Checks if a file name has one of the pattern extensions this preset understands.
+   *
+   * @param name file name
+   * @return true if it ends in .rle, .lif, .life or .cells
+   */
+  public static boolean isPatternFile(String name)
+  {
+    String lower = name.toLowerCase();
+    return lower.endsWith(".rle") || lower.endsWith(".lif") || lower.endsWith(".life") || lower.endsWith(".cells");
+  }
+
+  /**
+   * Clears the board and then streams the pattern onto it.
+   *
+   * @param engine SimulationEngine object to use
+   * @throws RuntimeException if the file can't be read or is not a valid pattern
+   */
+  @Override
+  public void setInitialEngineState(SimulationEngine engine)
+  {
+    engine.clear();
+    originX = CENTERED ? engine.getWorldWidth() / 2 : OFFSET_X;
+    originY = CENTERED ? engine.getWorldHeight() / 2 : OFFSET_Y;
+    try (BufferedReader reader = Files.newBufferedReader(FILE, StandardCharsets.US_ASCII))
+    {
+      String line = reader.readLine();
+      while (line != null && line.trim().isEmpty()) line = reader.readLine();
+      if (line == null) return;
+      line = line.trim();
+      if (line.startsWith(LIFE_106_HEADER)) readLife106(engine, reader);
+      else if (line.startsWith("!") || FILE.toString().toLowerCase().endsWith(".cells") || line.matches("[.O*]+"))
+      {
+        readPlaintext(engine, reader, line);
+      }
+      else readRle(engine, reader, line);
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException("Could not read pattern file " + FILE, e);
+    }
+  }
+
+  /**
+   * Reads an RLE pattern, e.g. "x = 3, y = 3, rule = B3/S23" followed by "bo$2bo$3o!".
+   *
+   * @param firstLine first non-empty line of the file (already consumed from the reader)
+   */
+  private void readRle(SimulationEngine engine, BufferedReader reader, String firstLine) throws IOException
+  {
+    String line = firstLine;
+    while (line != null && (line.startsWith("#") || line.isEmpty())) line = nextTrimmed(reader);
+    if (line == null) return;
+    if (line.startsWith("x"))
+    {
+      readRleHeader(engine, line);
+      line = "";
+    }
+    int x = 0, y = 0, count = 0;
+    // the rest of the first body line is handled before streaming the remaining characters
+    int pending = 0;
+    while (true)
+    {
+      int c = pending < line.length() ? line.charAt(pending++) : reader.read();
+      if (c == -1 || c == '!') return;
+      else if (c >= '0' && c <= '9') count = count * 10 + (c - '0');
+      else if (Character.isWhitespace(c)) continue;
+      else
+      {
+        int run = Math.max(count, 1);
+        count = 0;
+        if (c == '$')
+        {
+          y += run;
+          x = 0;
+        }
+        // 'B' and later are the dying states of a Generations pattern, which start out dead
+        else if (c == 'b' || c == '.' || (c > 'A' && c <= 'Z')) x += run;
+        else
+        {
+          // 'o', 'A' and any other state letter are treated as alive
+          placeRun(engine, x, y, run);
+          x += run;
+        }
+      }
+    }
+  }
+
+  /**
+   * Handles "x = 3, y = 3, rule = B3/S23" - the size is used to center the pattern and
+   * the rule (if there is one) is handed to the engine.
+   */
+  private void readRleHeader(SimulationEngine engine, String header)
+  {
+    int width = 0, height = 0;
+    for (String field : header.split(","))
+    {
+      String[] parts = field.split("=");
+      if (parts.length != 2) continue;
+      String key = parts[0].trim().toLowerCase();
+      String value = parts[1].trim();
+      if (key.equals("x")) width = Integer.parseInt(value);
+      else if (key.equals("y")) height = Integer.parseInt(value);
+      else if (key.equals("rule"))
+      {
+        try
+        {
+          engine.setRule(Rule.parse(value));
+        }
+        catch (IllegalArgumentException e)
+        {
+          throw new RuntimeException("Pattern uses rule " + value + " which the engine can't run", e);
+        }
+      }
+    }
+    if (CENTERED)
+    {
+      originX -= width / 2;
+      originY -= height / 2;
+    }
+  }
+
+  /**
+   * Reads a Life 1.06 pattern: one "x y" pair per line for each live cell.
+   */
+  private void readLife106(SimulationEngine engine, BufferedReader reader) throws IOException
+  {
+    String line;
+    while ((line = nextTrimmed(reader)) != null)
+    {
+      if (line.isEmpty() || line.startsWith("#")) continue;
+      String[] coordinates = line.split("\\s+");
+      if (coordinates.length != 2) throw new RuntimeException("Invalid Life 1.06 line: " + line);
+      placeRun(engine, Integer.parseInt(coordinates[0]), Integer.parseInt(coordinates[1]), 1);
+    }
+  }
+
+  /**
+   * Reads a plaintext pattern: '!' lines are comments, 'O' (or '*') is alive and
+   * anything else is dead.
+   *
+   * @param firstLine first non-empty line of the file (already consumed from the reader)
+   */
+  private void readPlaintext(SimulationEngine engine, BufferedReader reader, String firstLine) throws IOException
+  {
+    int y = 0;
+    for (String line = firstLine; line != null; line = reader.readLine())
+    {
+      if (line.startsWith("!")) continue;
+      int runStart = -1;
+      for (int x = 0; x <= line.length(); x++)
+      {
+        boolean alive = x < line.length() && (line.charAt(x) == 'O' || line.charAt(x) == '*');
+        if (alive && runStart < 0) runStart = x;
+        else if (!alive && runStart >= 0)
+        {
+          placeRun(engine, runStart, y, x - runStart);
+          runStart = -1;
+        }
+      }
+      y++;
+    }
+  }
+
+  /**
+   * Sets a run of live cells given in pattern coordinates, clipping it to the board.
+   */
+  private void placeRun(SimulationEngine engine, int x, int y, int length)
+  {
+    long boardX = (long)originX + x, boardY = (long)originY + y;
+    if (boardY < 0 || boardY >= engine.getWorldHeight()) return;
+    long start = Math.max(boardX, 0);
+    long end = Math.min(boardX + length, engine.getWorldWidth());
+    if (start < end) engine.setRun((int)start, (int)boardY, (int)(end - start), 1);
+  }
+
+  /**
+   * Reads the next line with surrounding whitespace removed.
+   *
+   * @return trimmed line or null at the end of the file
+   */
+  private String nextTrimmed(BufferedReader reader) throws IOException
+  {
+    String line = reader.readLine();
+    return line == null ? null : line.trim();
+  }
+}
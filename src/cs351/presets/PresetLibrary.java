@@ -0,0 +1,67 @@
+package cs351.presets;
+
+import java.nio.file.Paths;
+
+/**
+ * Looks up the built-in presets by a short name so that they can be picked from
+ * the command line. Names ending in a pattern file extension (.rle, .lif, .life or
+ * .cells) are loaded from disk with a PatternFilePreset.
+ *
+ * @author Justin Hall
+ */
+public final class PresetLibrary
+{
+  private static final String[] NAMES = { "Random", "Blank", "Full", "DancingBorder", "Checkered", "GliderGun" };
+
+  private PresetLibrary()
+  {
+  }
+
+  /**
+   * Returns the names accepted by create.
+   *
+   * @return preset names
+   */
+  public static String[] getNames()
+  {
+    return NAMES.clone();
+  }
+
+  /**
+   * Creates a preset from its short name (case-insensitive) or pattern file name.
+   *
+   * @param name name of the preset
+   * @return new preset instance
+   * @throws IllegalArgumentException if there is no preset with the given name
+   */
+  public static Preset create(String name) throws IllegalArgumentException
+  {
+    if (PatternFilePreset.isPatternFile(name)) return new PatternFilePreset(Paths.get(name));
+    switch (name.toLowerCase())
+    {
+      case "random": return new RandomGrid();
+      case "blank": return new BlankGrid();
+      case "full": return new FullGrid();
+      case "dancingborder": return new DancingBorder();
+      case "checkered": return new UpperRightCheckeredGrid();
+      case "glidergun": return new GliderGun();
+      default: throw new IllegalArgumentException("Unknown preset: " + name + " (expected one of " + String.join(", ", NAMES) + ")");
+    }
+  }
+
+  /**
+   * Creates a preset the same way as create, except that Random is seeded so
+   * it gives the same board every time (every other preset ignores the seed and density).
+   *
+   * @param name name of the preset
+   * @param seed seed for the Random preset
+   * @param density chance of each cell being alive for the Random preset (0 - 1)
+   * @return new preset instance
+   * @throws IllegalArgumentException if there is no preset with the given name
+   */
+  public static Preset create(String name, long seed, double density) throws IllegalArgumentException
+  {
+    if (name.equalsIgnoreCase("random")) return new RandomGrid(seed, density);
+    return create(name);
+  }
+}
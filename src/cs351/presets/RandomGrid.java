@@ -5,30 +5,53 @@ import java.util.Random;
 
 /**
  * Sets the initial grid state to be randomized such that each cell
- * has approximately a 50% chance of being alive.
+ * has approximately a 50% chance of being alive (or the chance given to
+ * the constructor). The board is filled in parallel by
+ * SimulationEngine.fillRandom, and a seeded preset produces the same board
+ * every time it is applied.
  *
  * @author Justin Hall
  */
 public class RandomGrid implements Preset
 {
+  public static final double DEFAULT_DENSITY = 0.5;
+  // only used to pick a new seed each time an unseeded preset is applied
   private final Random RAND = new Random();
+  private final boolean SEEDED;
+  private final long SEED;
+  private final double DENSITY;
 
   /**
-   * At each cell, calls nextInt(100) and if that value is > 50, the cell
-   * is set to alive.
+   * Creates a preset that gives a different board each time it is applied.
+   */
+  public RandomGrid()
+  {
+    SEEDED = false;
+    SEED = 0;
+    DENSITY = DEFAULT_DENSITY;
+  }
+
+  /**
+   * Creates a preset that gives the same board for the same seed.
+   *
+   * @param seed seed for the board
+   * @param density chance of each cell being alive (0 - 1)
+   */
+  public RandomGrid(long seed, double density)
+  {
+    SEEDED = true;
+    SEED = seed;
+    DENSITY = density;
+  }
+
+  /**
+   * Fills the board with random cells.
    *
    * @param engine SimulationEngine object to use
    */
   @Override
   public void setInitialEngineState(SimulationEngine engine)
   {
-    for (int x = 0; x < engine.getWorldWidth(); x++)
-    {
-      for (int y = 0; y < engine.getWorldHeight(); y++)
-      {
-        if (RAND.nextInt(100) > 50) engine.setAge(x, y, 1);
-        else engine.setAge(x, y, 0);
-      }
-    }
+    engine.fillRandom(SEEDED ? SEED : RAND.nextLong(), DENSITY);
   }
 }